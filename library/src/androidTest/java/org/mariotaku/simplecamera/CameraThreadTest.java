@@ -0,0 +1,153 @@
+package org.mariotaku.simplecamera;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Looper;
+import android.test.InstrumentationTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks camera thread ordering, {@link CameraView#runOnCameraThread(Runnable)} dispatch and that
+ * {@link Camera#open(int)} runs off main thread when camera thread enabled. Camera opening is
+ * replaced by {@link FakeDriverCameraView}, which records thread of the call instead of opening
+ * camera.
+ * <br>
+ * Other driver calls, like setParameters, startPreview, autoFocus and release, go through
+ * runOnCameraThread, but {@link Camera} is final and can't be faked without a device, so this
+ * doesn't check them directly.
+ */
+public class CameraThreadTest extends InstrumentationTestCase {
+
+    private static final long TIMEOUT = 5000;
+
+    public void testPostRunsInOrderOffMainThread() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Looper> loopers = Collections.synchronizedList(new ArrayList<Looper>());
+        final CameraThread thread = CameraThread.getInstance();
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            thread.post(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    loopers.add(Looper.myLooper());
+                }
+            });
+        }
+        thread.waitForIdle();
+        assertEquals(10, order.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (int) order.get(i));
+            assertNotNull(loopers.get(i));
+            assertNotSame(Looper.getMainLooper(), loopers.get(i));
+        }
+    }
+
+    public void testRunOnCameraThreadFromMainThread() throws Exception {
+        final CameraView view = createView(getInstrumentation().getTargetContext());
+        final Looper[] looper = new Looper[1];
+        final boolean[] ranInline = new boolean[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.setCameraThreadEnabled(true);
+                view.runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        looper[0] = Looper.myLooper();
+                    }
+                });
+                ranInline[0] = looper[0] != null;
+            }
+        });
+        CameraThread.getInstance().waitForIdle();
+        assertFalse(ranInline[0]);
+        assertNotSame(Looper.getMainLooper(), looper[0]);
+    }
+
+    public void testRunOnCameraThreadInlineWhenDisabled() throws Exception {
+        final CameraView view = createView(getInstrumentation().getTargetContext());
+        final Looper[] looper = new Looper[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        looper[0] = Looper.myLooper();
+                    }
+                });
+            }
+        });
+        assertSame(Looper.getMainLooper(), looper[0]);
+    }
+
+    public void testOpenCameraOffMainThread() throws Exception {
+        final FakeDriverCameraView view = createView(getInstrumentation().getTargetContext());
+        final CountDownLatch errorLatch = new CountDownLatch(1);
+        final Looper[] listenerLooper = new Looper[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view.setCameraThreadEnabled(true);
+                view.setCameraListener(new CameraView.CameraListener() {
+                    @Override
+                    public void onCameraInitialized(Camera camera) {
+                    }
+
+                    @Override
+                    public void onCameraOpeningError(Exception e) {
+                        listenerLooper[0] = Looper.myLooper();
+                        errorLatch.countDown();
+                    }
+
+                    @Override
+                    public void setParameterBeforeStartPreview(Camera camera, Camera.Parameters parameters) {
+                    }
+
+                    @Override
+                    public void onError(int error, Camera camera) {
+                    }
+                });
+                view.openCamera(0);
+                view.openCameraIfNeeded();
+            }
+        });
+        assertTrue(errorLatch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(1, view.driverCallLoopers.size());
+        assertNotSame(Looper.getMainLooper(), view.driverCallLoopers.get(0));
+        // Listener callbacks are still delivered on main thread
+        assertSame(Looper.getMainLooper(), listenerLooper[0]);
+    }
+
+    private FakeDriverCameraView createView(final Context context) {
+        final FakeDriverCameraView[] view = new FakeDriverCameraView[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view[0] = new FakeDriverCameraView(context);
+            }
+        });
+        return view[0];
+    }
+
+    static class FakeDriverCameraView extends CameraView {
+
+        final List<Looper> driverCallLoopers = Collections.synchronizedList(new ArrayList<Looper>());
+
+        FakeDriverCameraView(Context context) {
+            super(context);
+        }
+
+        @Override
+        Camera openCameraDriver(int cameraId) {
+            driverCallLoopers.add(Looper.myLooper());
+            throw new RuntimeException("Fake driver can't open camera " + cameraId);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package org.mariotaku.simplecamera;
+
+import android.hardware.Camera;
+import android.media.CamcorderProfile;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable index of what an opened camera supports, built once per open from
+ * {@link Camera.Parameters}. Obtain with {@link CameraView#getCapabilities()}.
+ * <br>
+ * Sizes are kept as primitive tables sorted by area, so lookups are binary searches without
+ * copying or sorting {@link Camera.Size} lists.
+ */
+public final class CameraCapabilities {
+
+    /**
+     * Video qualities not probed yet, {@link CamcorderProfile#hasProfile(int, int)} is queried instead
+     */
+    static final int VIDEO_QUALITIES_UNKNOWN = -1;
+
+    private static final int[] VIDEO_QUALITIES = {CamcorderProfile.QUALITY_LOW, CamcorderProfile.QUALITY_HIGH,
+            CamcorderProfile.QUALITY_QCIF, CamcorderProfile.QUALITY_CIF, CamcorderProfile.QUALITY_480P,
+            CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_1080P};
+
+    private final int cameraId;
+    private final int facing, orientation;
+    private final int videoQualities;
+    private final SizeTable previewSizes;
+    private final SizeTable pictureSizes;
+    private final SizeTable videoSizes;
+    private final int[] fpsRanges;
+    private final List<String> focusModes;
+    private final List<String> flashModes;
+
+    /**
+     * @param videoQualities Bit mask of {@link CamcorderProfile} qualities camera has, see
+     *                       {@link #probeVideoQualities(int)}, or {@link #VIDEO_QUALITIES_UNKNOWN}
+     */
+    CameraCapabilities(int cameraId, Camera.CameraInfo info, Camera.Parameters parameters, int videoQualities) {
+        this.cameraId = cameraId;
+        facing = info.facing;
+        orientation = info.orientation;
+        this.videoQualities = videoQualities;
+        previewSizes = new SizeTable(parameters.getSupportedPreviewSizes());
+        pictureSizes = new SizeTable(parameters.getSupportedPictureSizes());
+        final List<Camera.Size> supportedVideoSizes = parameters.getSupportedVideoSizes();
+        // null means video uses preview sizes
+        videoSizes = supportedVideoSizes != null ? new SizeTable(supportedVideoSizes) : previewSizes;
+        fpsRanges = toFpsRanges(parameters.getSupportedPreviewFpsRange());
+        focusModes = unmodifiable(parameters.getSupportedFocusModes());
+        flashModes = unmodifiable(parameters.getSupportedFlashModes());
+    }
+
+    private CameraCapabilities(int cameraId, int facing, int orientation, int videoQualities,
+                               SizeTable previewSizes, SizeTable pictureSizes, SizeTable videoSizes,
+                               int[] fpsRanges, List<String> focusModes, List<String> flashModes) {
+        this.cameraId = cameraId;
+        this.facing = facing;
+        this.orientation = orientation;
+        this.videoQualities = videoQualities;
+        this.previewSizes = previewSizes;
+        this.pictureSizes = pictureSizes;
+        this.videoSizes = videoSizes;
+        this.fpsRanges = fpsRanges;
+        this.focusModes = focusModes;
+        this.flashModes = flashModes;
+    }
+
+    public int getCameraId() {
+        return cameraId;
+    }
+
+    /**
+     * @see Camera.CameraInfo#facing
+     */
+    public int getFacing() {
+        return facing;
+    }
+
+    /**
+     * @see Camera.CameraInfo#orientation
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Same as {@link CamcorderProfile#hasProfile(int, int)} for qualities up to
+     * {@link CamcorderProfile#QUALITY_1080P}, without querying media service again
+     */
+    public boolean hasVideoProfile(int quality) {
+        if (videoQualities == VIDEO_QUALITIES_UNKNOWN || quality < 0 || quality >= 32)
+            return CamcorderProfile.hasProfile(cameraId, quality);
+        return (videoQualities & (1 << quality)) != 0;
+    }
+
+    public SizeTable getPreviewSizes() {
+        return previewSizes;
+    }
+
+    public SizeTable getPictureSizes() {
+        return pictureSizes;
+    }
+
+    public SizeTable getVideoSizes() {
+        return videoSizes;
+    }
+
+    /**
+     * @return Number of supported preview FPS ranges, sorted by max then min FPS
+     */
+    public int getFpsRangeCount() {
+        return fpsRanges.length / 2;
+    }
+
+    /**
+     * @return Min FPS of range, scaled by 1000
+     */
+    public int getFpsRangeMin(int index) {
+        return fpsRanges[index * 2];
+    }
+
+    /**
+     * @return Max FPS of range, scaled by 1000
+     */
+    public int getFpsRangeMax(int index) {
+        return fpsRanges[index * 2 + 1];
+    }
+
+    public List<String> getFocusModes() {
+        return focusModes;
+    }
+
+    public boolean isFocusModeSupported(String focusMode) {
+        return focusModes.contains(focusMode);
+    }
+
+    public List<String> getFlashModes() {
+        return flashModes;
+    }
+
+    public boolean isFlashModeSupported(String flashMode) {
+        return flashModes.contains(flashMode);
+    }
+
+    int getVideoQualities() {
+        return videoQualities;
+    }
+
+    boolean hasVideoQualities() {
+        return videoQualities != VIDEO_QUALITIES_UNKNOWN;
+    }
+
+    CameraCapabilities withVideoQualities(int videoQualities) {
+        return new CameraCapabilities(cameraId, facing, orientation, videoQualities, previewSizes, pictureSizes,
+                videoSizes, fpsRanges, focusModes, flashModes);
+    }
+
+    /**
+     * @return Whether everything but video qualities is same as other one
+     */
+    boolean isSameCamera(CameraCapabilities other) {
+        return cameraId == other.cameraId && facing == other.facing && orientation == other.orientation
+                && previewSizes.equals(other.previewSizes) && pictureSizes.equals(other.pictureSizes)
+                && videoSizes.equals(other.videoSizes) && Arrays.equals(fpsRanges, other.fpsRanges)
+                && focusModes.equals(other.focusModes) && flashModes.equals(other.flashModes);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(cameraId);
+        out.writeInt(facing);
+        out.writeInt(orientation);
+        out.writeInt(videoQualities);
+        previewSizes.writeTo(out);
+        pictureSizes.writeTo(out);
+        videoSizes.writeTo(out);
+        writeInts(out, fpsRanges);
+        writeStrings(out, focusModes);
+        writeStrings(out, flashModes);
+    }
+
+    static CameraCapabilities readFrom(DataInput in) throws IOException {
+        final int cameraId = in.readInt();
+        final int facing = in.readInt();
+        final int orientation = in.readInt();
+        final int videoQualities = in.readInt();
+        final SizeTable previewSizes = SizeTable.readFrom(in);
+        final SizeTable pictureSizes = SizeTable.readFrom(in);
+        final SizeTable videoSizes = SizeTable.readFrom(in);
+        final int[] fpsRanges = readInts(in);
+        if ((fpsRanges.length & 1) != 0) throw new IOException("Invalid FPS ranges");
+        final List<String> focusModes = readStrings(in);
+        final List<String> flashModes = readStrings(in);
+        return new CameraCapabilities(cameraId, facing, orientation, videoQualities, previewSizes, pictureSizes,
+                videoSizes, fpsRanges, focusModes, flashModes);
+    }
+
+    /**
+     * Queries media service for video profiles of camera, may be slow
+     */
+    static int probeVideoQualities(int cameraId) {
+        int qualities = 0;
+        for (int quality : VIDEO_QUALITIES) {
+            if (CamcorderProfile.hasProfile(cameraId, quality)) {
+                qualities |= 1 << quality;
+            }
+        }
+        return qualities;
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > 4096) throw new IOException("Invalid length " + length);
+        final int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void writeStrings(DataOutput out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0 || size > 256) throw new IOException("Invalid size " + size);
+        final ArrayList<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(in.readUTF());
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private static int[] toFpsRanges(List<int[]> ranges) {
+        if (ranges == null) return new int[0];
+        final long[] packed = new long[ranges.size()];
+        for (int i = 0, j = packed.length; i < j; i++) {
+            final int[] range = ranges.get(i);
+            packed[i] = (long) range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] << 32
+                    | range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] & 0xFFFFFFFFL;
+        }
+        Arrays.sort(packed);
+        final int[] result = new int[packed.length * 2];
+        for (int i = 0, j = packed.length; i < j; i++) {
+            result[i * 2] = (int) packed[i];
+            result[i * 2 + 1] = (int) (packed[i] >>> 32);
+        }
+        return result;
+    }
+
+    private static List<String> unmodifiable(List<String> list) {
+        if (list == null) return Collections.emptyList();
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Sizes sorted by area ascending, sizes of same area keep the order driver reported them
+     */
+    public static final class SizeTable {
+        private final int[] widths, heights, areas;
+
+        SizeTable(List<Camera.Size> sizes) {
+            final int count = sizes != null ? sizes.size() : 0;
+            widths = new int[count];
+            heights = new int[count];
+            areas = new int[count];
+            for (int i = 0; i < count; i++) {
+                final Camera.Size size = sizes.get(i);
+                insert(i, size.width, size.height);
+            }
+        }
+
+        SizeTable(int[] widths, int[] heights) {
+            final int count = widths.length;
+            this.widths = new int[count];
+            this.heights = new int[count];
+            areas = new int[count];
+            for (int i = 0; i < count; i++) {
+                insert(i, widths[i], heights[i]);
+            }
+        }
+
+        public int size() {
+            return widths.length;
+        }
+
+        public int getWidth(int index) {
+            return widths[index];
+        }
+
+        public int getHeight(int index) {
+            return heights[index];
+        }
+
+        /**
+         * @return Index of largest size, or -1 if table is empty
+         */
+        public int getLargest() {
+            return widths.length - 1;
+        }
+
+        /**
+         * @return Index of given size, or -1 if unsupported
+         */
+        public int indexOf(int width, int height) {
+            for (int i = lowerBound(width * height), j = areas.length; i < j && areas[i] == width * height; i++) {
+                if (widths[i] == width && heights[i] == height) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Same as {@link CameraUtils#getBestSize(List, int, int, int)}
+         *
+         * @return Index of smallest size covering required size, or -1 if none
+         */
+        public int findBest(int width, int height, int rotation) {
+            final boolean swap = rotation % 180 != 0;
+            final int requiredWidth = swap ? height : width, requiredHeight = swap ? width : height;
+            // Any covering size has at least required area, start from there
+            for (int i = lowerBound(requiredWidth * requiredHeight), j = areas.length; i < j; i++) {
+                if (widths[i] >= requiredWidth && heights[i] >= requiredHeight) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * @return Index of best size, or largest one if none covers required size
+         */
+        public int findBestOrLargest(int width, int height, int rotation) {
+            final int best = findBest(width, height, rotation);
+            return best != -1 ? best : getLargest();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SizeTable)) return false;
+            final SizeTable that = (SizeTable) o;
+            return Arrays.equals(widths, that.widths) && Arrays.equals(heights, that.heights);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(widths) + Arrays.hashCode(heights);
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            writeInts(out, widths);
+            writeInts(out, heights);
+        }
+
+        static SizeTable readFrom(DataInput in) throws IOException {
+            final int[] widths = readInts(in), heights = readInts(in);
+            if (widths.length != heights.length) throw new IOException("Invalid size table");
+            return new SizeTable(widths, heights);
+        }
+
+        private int lowerBound(int area) {
+            int low = 0, high = areas.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (areas[mid] < area) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Insertion into first {@code count} sorted entries, stable and fast for short lists
+         */
+        private void insert(int count, int width, int height) {
+            final int area = width * height;
+            int i = count;
+            while (i > 0 && areas[i - 1] > area) {
+                widths[i] = widths[i - 1];
+                heights[i] = heights[i - 1];
+                areas[i] = areas[i - 1];
+                i--;
+            }
+            widths[i] = width;
+            heights[i] = height;
+            areas[i] = area;
+        }
+    }
+}
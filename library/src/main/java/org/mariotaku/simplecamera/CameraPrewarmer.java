@@ -0,0 +1,143 @@
+package org.mariotaku.simplecamera;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.util.Log;
+
+/**
+ * Opens camera on {@link CameraThread} before any {@link CameraView} is laid out, see
+ * {@link CameraView#prewarm(Context, int, int, int)}. At most one camera is prewarmed at a time,
+ * it's released if no view adopts it within {@link #EXPIRE_TIMEOUT}.
+ */
+final class CameraPrewarmer implements Runnable {
+
+    static final long EXPIRE_TIMEOUT = 5000;
+
+    // Guarded by CameraPrewarmer.class
+    private static CameraPrewarmer sPending;
+
+    private final int cameraId;
+    private final int width, height;
+    private final int displayRotation;
+    private final Runnable expireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (CameraPrewarmer.class) {
+                if (sPending != CameraPrewarmer.this) return;
+                sPending = null;
+            }
+            Log.w(CameraView.LOGTAG, String.format("Prewarmed camera %d not used, releasing", cameraId));
+            release();
+        }
+    };
+    private final Runnable releaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            release();
+        }
+    };
+    // Only accessed on camera thread
+    private Camera camera;
+
+    private CameraPrewarmer(int cameraId, int width, int height, int displayRotation) {
+        this.cameraId = cameraId;
+        this.width = width;
+        this.height = height;
+        this.displayRotation = displayRotation;
+    }
+
+    static void prewarm(Context context, int cameraId, int width, int height) {
+        if (cameraId < 0) throw new IllegalArgumentException("Invalid camera ID " + cameraId);
+        final CameraPrewarmer prewarmer = new CameraPrewarmer(cameraId, width, height,
+                CameraUtils.getDisplayRotation(context));
+        final CameraPrewarmer old;
+        synchronized (CameraPrewarmer.class) {
+            old = sPending;
+            if (old != null && old.cameraId == cameraId) return;
+            sPending = prewarmer;
+        }
+        final CameraThread thread = CameraThread.getInstance();
+        if (old != null) {
+            thread.removeCallbacks(old.expireRunnable);
+            thread.post(old.releaseRunnable);
+        }
+        thread.post(prewarmer);
+        thread.postDelayed(prewarmer.expireRunnable, EXPIRE_TIMEOUT);
+    }
+
+    /**
+     * Takes prewarmed camera, must be called on camera thread. Prewarmed camera with another ID is
+     * released.
+     *
+     * @return Opened camera, or null if camera with this ID not prewarmed or failed to open
+     */
+    static Camera take(int cameraId) {
+        final CameraPrewarmer prewarmer;
+        synchronized (CameraPrewarmer.class) {
+            prewarmer = sPending;
+            sPending = null;
+        }
+        if (prewarmer == null) return null;
+        CameraThread.getInstance().removeCallbacks(prewarmer.expireRunnable);
+        if (prewarmer.cameraId != cameraId) {
+            prewarmer.release();
+            return null;
+        }
+        final Camera camera = prewarmer.camera;
+        prewarmer.camera = null;
+        return camera;
+    }
+
+    /**
+     * Releases prewarmed camera on camera thread without waiting. Camera may stay open until
+     * runnables posted to camera thread after this call run.
+     *
+     * @return true if a camera was being prewarmed
+     */
+    static boolean cancel() {
+        final CameraPrewarmer prewarmer;
+        synchronized (CameraPrewarmer.class) {
+            prewarmer = sPending;
+            sPending = null;
+        }
+        if (prewarmer == null) return false;
+        final CameraThread thread = CameraThread.getInstance();
+        thread.removeCallbacks(prewarmer.expireRunnable);
+        thread.post(prewarmer.releaseRunnable);
+        return true;
+    }
+
+    @Override
+    public void run() {
+        final Camera camera;
+        try {
+            camera = Camera.open(cameraId);
+        } catch (RuntimeException e) {
+            Log.w(CameraView.LOGTAG, String.format("Error prewarming camera %d", cameraId), e);
+            return;
+        }
+        this.camera = camera;
+        if (width <= 0 || height <= 0) return;
+        try {
+            final Camera.CameraInfo info = RotationResolver.getCameraInfo(cameraId);
+            final Camera.Parameters parameters = camera.getParameters();
+            final CameraCapabilities.SizeTable previewSizes = new CameraCapabilities.SizeTable(
+                    parameters.getSupportedPreviewSizes());
+            final int rotation = Rotations.getCameraRotation(displayRotation, info.facing, info.orientation);
+            final int sizeIndex = previewSizes.findBestOrLargest(width, height, rotation);
+            if (sizeIndex == -1) return;
+            parameters.setPreviewSize(previewSizes.getWidth(sizeIndex), previewSizes.getHeight(sizeIndex));
+            camera.setParameters(parameters);
+        } catch (RuntimeException e) {
+            // Camera is still usable, view will choose preview size
+            Log.w(CameraView.LOGTAG, "Unable to set provisional preview size", e);
+        }
+    }
+
+    private void release() {
+        final Camera camera = this.camera;
+        if (camera == null) return;
+        this.camera = null;
+        camera.release();
+    }
+}
@@ -0,0 +1,140 @@
+package org.mariotaku.simplecamera;
+
+import android.graphics.Rect;
+import android.hardware.Camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Weighted focus or metering regions, set with
+ * {@link CameraView#setRegions(CameraRegions, CameraRegions)} or
+ * {@link CameraView#focus(CameraRegions, CameraRegions, Camera.AutoFocusCallback)}.
+ * <br>
+ * Regions are given in view coordinates, or driver area coordinates like
+ * {@link Camera.Face#rect}, and mapped with {@link PreviewGeometry} when applied. Overlapping
+ * regions are merged and weights added up, then regions with highest weight are kept up to
+ * {@link Camera.Parameters#getMaxNumFocusAreas()} or {@link Camera.Parameters#getMaxNumMeteringAreas()}.
+ */
+public final class CameraRegions {
+
+    public static final int MIN_WEIGHT = 1;
+    public static final int MAX_WEIGHT = 1000;
+
+    private static final Comparator<Camera.Area> WEIGHT_COMPARATOR = new Comparator<Camera.Area>() {
+        @Override
+        public int compare(Camera.Area lhs, Camera.Area rhs) {
+            return rhs.weight - lhs.weight;
+        }
+    };
+
+    private final ArrayList<Region> regions = new ArrayList<>();
+
+    /**
+     * Adds region in view coordinates
+     *
+     * @param weight Weight from {@link #MIN_WEIGHT} to {@link #MAX_WEIGHT}
+     */
+    public CameraRegions add(float left, float top, float right, float bottom, int weight) {
+        regions.add(new Region(left, top, right, bottom, checkWeight(weight), false));
+        return this;
+    }
+
+    /**
+     * Adds region in driver area coordinates, from -1000 to 1000
+     *
+     * @param weight Weight from {@link #MIN_WEIGHT} to {@link #MAX_WEIGHT}
+     */
+    public CameraRegions addArea(Rect area, int weight) {
+        regions.add(new Region(area.left, area.top, area.right, area.bottom, checkWeight(weight), true));
+        return this;
+    }
+
+    public CameraRegions clear() {
+        regions.clear();
+        return this;
+    }
+
+    public int size() {
+        return regions.size();
+    }
+
+    public boolean isEmpty() {
+        return regions.isEmpty();
+    }
+
+    /**
+     * @param maxAreas Max number of areas supported by camera
+     * @return Merged areas, or null if none left, meaning camera default
+     */
+    List<Camera.Area> toAreas(PreviewGeometry geometry, int maxAreas) {
+        if (maxAreas <= 0 || regions.isEmpty()) return null;
+        final ArrayList<Camera.Area> areas = new ArrayList<>(regions.size());
+        for (int i = 0, j = regions.size(); i < j; i++) {
+            final Region region = regions.get(i);
+            final Rect rect = new Rect();
+            if (region.area) {
+                rect.set(clampArea(region.left), clampArea(region.top), clampArea(region.right),
+                        clampArea(region.bottom));
+                if (rect.isEmpty()) continue;
+            } else if (!geometry.mapViewRectToArea(region.left, region.top, region.right, region.bottom, rect)) {
+                continue;
+            }
+            areas.add(new Camera.Area(rect, region.weight));
+        }
+        mergeOverlapping(areas);
+        if (areas.isEmpty()) return null;
+        Collections.sort(areas, WEIGHT_COMPARATOR);
+        while (areas.size() > maxAreas) {
+            areas.remove(areas.size() - 1);
+        }
+        return areas;
+    }
+
+    static void mergeOverlapping(List<Camera.Area> areas) {
+        boolean merged;
+        do {
+            merged = false;
+            for (int i = 0; i < areas.size() && !merged; i++) {
+                final Camera.Area area = areas.get(i);
+                for (int j = i + 1; j < areas.size(); j++) {
+                    final Camera.Area other = areas.get(j);
+                    if (!Rect.intersects(area.rect, other.rect)) continue;
+                    area.rect.union(other.rect);
+                    area.weight = Math.min(MAX_WEIGHT, area.weight + other.weight);
+                    areas.remove(j);
+                    // Grown rect may overlap areas checked before, start over
+                    merged = true;
+                    break;
+                }
+            }
+        } while (merged);
+    }
+
+    private static int clampArea(float value) {
+        return CameraUtils.clamp(Math.round(value), 1000, -1000);
+    }
+
+    private static int checkWeight(int weight) {
+        if (weight < MIN_WEIGHT || weight > MAX_WEIGHT)
+            throw new IllegalArgumentException("Invalid weight " + weight);
+        return weight;
+    }
+
+    private static class Region {
+        private final float left, top, right, bottom;
+        private final int weight;
+        private final boolean area;
+
+        Region(float left, float top, float right, float bottom, int weight, boolean area) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.weight = weight;
+            this.area = area;
+        }
+    }
+}
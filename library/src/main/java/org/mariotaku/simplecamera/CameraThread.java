@@ -0,0 +1,72 @@
+package org.mariotaku.simplecamera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Single background thread which serializes {@link android.hardware.Camera} calls (open,
+ * setParameters, startPreview, takePicture, release...) off the UI thread.
+ * <br>
+ * {@link android.hardware.Camera} delivers its callbacks to the looper of the thread it was
+ * opened on, so callbacks of a camera opened here will also arrive on this thread.
+ */
+final class CameraThread {
+
+    private static CameraThread sInstance;
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private CameraThread() {
+        mThread = new HandlerThread("CameraThread");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    static synchronized CameraThread getInstance() {
+        if (sInstance == null) {
+            sInstance = new CameraThread();
+        }
+        return sInstance;
+    }
+
+    boolean isCurrentThread() {
+        return Thread.currentThread() == mThread;
+    }
+
+    /**
+     * Queues action to camera thread, actions always run in the order they were posted.
+     */
+    void post(Runnable action) {
+        mHandler.post(action);
+    }
+
+    void postDelayed(Runnable action, long delayMillis) {
+        mHandler.postDelayed(action, delayMillis);
+    }
+
+    void removeCallbacks(Runnable action) {
+        mHandler.removeCallbacks(action);
+    }
+
+    /**
+     * Blocks until every action posted before this call has finished.
+     */
+    void waitForIdle() {
+        if (isCurrentThread()) return;
+        final CountDownLatch latch = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -6,7 +6,6 @@ import android.graphics.RectF;
 import android.hardware.Camera;
 import android.media.CamcorderProfile;
 import android.view.Display;
-import android.view.Surface;
 import android.view.WindowManager;
 
 import java.util.ArrayList;
@@ -27,31 +26,12 @@ public final class CameraUtils {
     };
 
     static int getCameraRotation(final int rotation, final int cameraId) {
-        final Camera.CameraInfo info = new Camera.CameraInfo();
-        Camera.getCameraInfo(cameraId, info);
-        int degrees = 0;
-        switch (rotation) {
-            case Surface.ROTATION_0:
-                degrees = 0;
-                break;
-            case Surface.ROTATION_90:
-                degrees = 90;
-                break;
-            case Surface.ROTATION_180:
-                degrees = 180;
-                break;
-            case Surface.ROTATION_270:
-                degrees = 270;
-                break;
-        }
+        final Camera.CameraInfo info = RotationResolver.getCameraInfo(cameraId);
+        return getCameraRotation(rotation, info.facing, info.orientation);
+    }
 
-        int result;
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            result = (info.orientation + degrees) % 360;
-            return (360 - result) % 360; // compensate the mirror
-        } else { // back-facing
-            return (info.orientation - degrees + 360) % 360;
-        }
+    static int getCameraRotation(final int rotation, final int facing, final int orientation) {
+        return Rotations.getCameraRotation(rotation, facing, orientation);
     }
 
     public static Point getLargestSize(final List<Camera.Size> list) {
@@ -104,6 +84,21 @@ public final class CameraUtils {
         return null;
     }
 
+    /**
+     * Same as {@link #getDefaultVideoProfile(int)}, but uses known video profiles of camera
+     */
+    public static CamcorderProfile getDefaultVideoProfile(CameraCapabilities capabilities) {
+        final int[] qualities = {CamcorderProfile.QUALITY_HIGH, CamcorderProfile.QUALITY_1080P,
+                CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_480P,
+                CamcorderProfile.QUALITY_CIF, CamcorderProfile.QUALITY_LOW};
+        for (int quality : qualities) {
+            if (capabilities.hasVideoProfile(quality)) {
+                return CamcorderProfile.get(capabilities.getCameraId(), quality);
+            }
+        }
+        return null;
+    }
+
     public static CamcorderProfile getBestVideoProfile(int cameraId, int width, int height, int rotation) {
         final int[] qualities = {CamcorderProfile.QUALITY_LOW, CamcorderProfile.QUALITY_CIF,
                 CamcorderProfile.QUALITY_480P, CamcorderProfile.QUALITY_720P,
@@ -123,33 +118,17 @@ public final class CameraUtils {
 
 
     static int getPictureRotation(final int rotation, final int cameraId) {
-        final Camera.CameraInfo info = new Camera.CameraInfo();
+        final Camera.CameraInfo info;
         try {
-            Camera.getCameraInfo(cameraId, info);
+            info = RotationResolver.getCameraInfo(cameraId);
         } catch (Exception e) {
+            return getPictureRotation(rotation, Camera.CameraInfo.CAMERA_FACING_BACK, 0);
         }
-        int degrees = 0;
-        switch (rotation) {
-            case Surface.ROTATION_0:
-                degrees = 0;
-                break;
-            case Surface.ROTATION_90:
-                degrees = 90;
-                break;
-            case Surface.ROTATION_180:
-                degrees = 180;
-                break;
-            case Surface.ROTATION_270:
-                degrees = 270;
-                break;
-        }
+        return getPictureRotation(rotation, info.facing, info.orientation);
+    }
 
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            final int result = (info.orientation + degrees) % 360;
-            return (540 - result) % 360; // compensate the mirror
-        } else { // back-facing
-            return (info.orientation - degrees + 360) % 360;
-        }
+    static int getPictureRotation(final int rotation, final int facing, final int orientation) {
+        return Rotations.getPictureRotation(rotation, facing, orientation);
     }
 
     static void scaleRect(RectF rectF, float scale) {
@@ -2,7 +2,7 @@ package org.mariotaku.simplecamera;
 
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.graphics.Matrix;
+import android.content.res.Configuration;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.graphics.RectF;
@@ -12,6 +12,10 @@ import android.hardware.Camera.Size;
 import android.media.CamcorderProfile;
 import android.media.MediaRecorder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -22,6 +26,8 @@ import java.io.FileDescriptor;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Created by mariotaku on 14-9-9.
@@ -31,19 +37,58 @@ public class CameraView extends ViewGroup {
     public static final String LOGTAG = "CameraView";
 
     private Preview mPreview;
-    private Camera mOpeningCamera;
+    private volatile Camera mOpeningCamera;
     private int mOpeningCameraId;
     private int mRequiredCameraId;
     private CameraListener mListener;
     private int mCameraRotation;
     private boolean mSingleShot;
     private MediaRecorder mRecorder;
-    private boolean mVideoRecordStarted;
+    // Written where recording starts and stops, always on camera thread
+    private volatile boolean mVideoRecordStarted;
     private boolean mAutoFocusing;
-    private boolean mCameraPreviewStarted;
+    // Also written on camera thread when preview restarted after a picture
+    private volatile boolean mCameraPreviewStarted;
     private Size mPictureSizeBackup;
     private String mFlashModeDuringRecording;
     private String mFlashModeBackup;
+    private boolean mCameraThreadEnabled;
+    private int mPendingOpenCameraId;
+    private ParametersSnapshot mParametersSnapshot;
+    // Last snapshot driver accepted, mParametersSnapshot may be ahead of it while commits in flight
+    private ParametersSnapshot mConfirmedSnapshot;
+    // Parameters edited on main thread, and flattened string of last commit
+    private Camera.Parameters mEditorParameters;
+    private String mCommittedParameters;
+    // Parameters object used to commit to driver, only accessed on camera thread
+    private Camera.Parameters mDriverParameters;
+    private ParametersSnapshot mDriverSnapshot;
+    private int mDisplayOrientation;
+    private int mConfiguredPreviewWidth, mConfiguredPreviewHeight;
+    private int mConfiguredPictureWidth, mConfiguredPictureHeight;
+    private volatile FrameBufferPool mFrameBufferPool;
+    private volatile PreviewGeometry mPreviewGeometry;
+    private CapturePipeline mCapturePipeline;
+    // Checked and set together with capture queue state under its lock
+    private volatile boolean mBurstCapturing;
+    private boolean mCapabilityCacheEnabled;
+    private PreviewSizePolicy mPreviewSizePolicy;
+    private PictureSizePolicy mPictureSizePolicy;
+    // Camera ID, width and height of preview size chosen from cached capabilities before opening
+    private volatile int[] mPreselectedPreviewSize;
+    private final CaptureQueue mCaptureQueue = new CaptureQueue();
+    private final FocusScheduler mFocusScheduler = new FocusScheduler(this);
+    private final ZoomController mZoomController = new ZoomController(this);
+    private final Runnable mRegionsUpdateRunnable = new RegionsUpdateRunnable(this);
+    private long mRegionsUpdateInterval = 200, mLastRegionsUpdateTime;
+    private boolean mRegionsUpdatePending;
+    private List<Camera.Area> mPendingFocusAreas, mPendingMeteringAreas;
+    private final Handler mMainHandler;
+    private final RotationResolver mRotationResolver;
+    private final Runnable mDelayedReleaseRunnable = new DelayedReleaseRunnable(this);
+    private long mReleaseDelay;
+    private boolean mReleasePending;
+    private int mHotResumeCount, mDelayedReleaseCount;
 
     public CameraView(Context context) {
         this(context, null);
@@ -58,37 +103,81 @@ public class CameraView extends ViewGroup {
 //        setClipChildren(false);
         mOpeningCameraId = -1;
         mRequiredCameraId = -1;
+        mPendingOpenCameraId = -1;
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mRotationResolver = new RotationResolver(this);
+    }
+
+    /**
+     * Starts opening camera on camera thread before any view is laid out, e.g. in
+     * {@link android.app.Activity#onCreate(android.os.Bundle)}. A provisional preview size for
+     * expected view size is set right after opening.
+     * <br>
+     * Prewarmed camera is adopted by the first {@link CameraView} opening the same camera with
+     * {@link #setCameraThreadEnabled(boolean)} enabled, and released if not adopted within 5
+     * seconds. Views not using camera thread release it first, and open camera once it's released
+     * on camera thread.
+     *
+     * @param cameraId       ID of the Camera
+     * @param expectedWidth  Expected width of view, or 0 to keep default preview size
+     * @param expectedHeight Expected height of view, or 0 to keep default preview size
+     */
+    public static void prewarm(Context context, int cameraId, int expectedWidth, int expectedHeight) {
+        CameraPrewarmer.prewarm(context, cameraId, expectedWidth, expectedHeight);
     }
 
     public boolean getCameraBounds(RectF bounds, RectF displayBounds) {
-        final Camera camera = getOpeningCamera();
-        final int width = getWidth(), height = getHeight();
-        if (camera == null || width == 0 || height == 0) return false;
-        final Camera.Size size = camera.getParameters().getPreviewSize();
-        if (size == null) return false;
+        final PreviewGeometry geometry = getPreviewGeometry();
+        if (geometry == null) return false;
         if (displayBounds != null) {
-            final int rotation = getCameraRotation();
-            final int cameraWidth = size.width, cameraHeight = size.height;
-            final float viewRatio = rotation % 180 == 0 ? (float) width / height : (float) height / width;
-            final float cameraRatio = (float) cameraWidth / cameraHeight;
-            if (viewRatio > cameraRatio) {
-                // fit width
-                final int displayHeight = Math.round(cameraWidth / viewRatio);
-                final int top = (cameraHeight - displayHeight) / 2;
-                displayBounds.set(0, top, cameraWidth, top + displayHeight);
-            } else {
-                // fit height
-                final int displayWidth = Math.round(cameraHeight * viewRatio);
-                final int left = (cameraWidth - displayWidth) / 2;
-                displayBounds.set(left, 0, left + displayWidth, cameraHeight);
-            }
+            geometry.getDisplayBounds(displayBounds);
         }
         if (bounds != null) {
-            bounds.set(0, 0, size.width, size.height);
+            bounds.set(0, 0, geometry.getPreviewWidth(), geometry.getPreviewHeight());
         }
         return true;
     }
 
+    /**
+     * @return Geometry between this view and camera preview, or null if camera not opened or view
+     * not measured. Same instance is returned until view size, preview size or rotation changes.
+     */
+    public PreviewGeometry getPreviewGeometry() {
+        return getPreviewGeometry(getWidth(), getHeight());
+    }
+
+    PreviewGeometry getPreviewGeometry(int width, int height) {
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        if (snapshot == null || width == 0 || height == 0) return null;
+        final int previewWidth = snapshot.getPreviewWidth(), previewHeight = snapshot.getPreviewHeight();
+        if (previewWidth == 0 || previewHeight == 0) return null;
+        final int rotation = getCameraRotation();
+        final boolean mirror = snapshot.getCapabilities().getFacing() == Camera.CameraInfo.CAMERA_FACING_FRONT;
+        final PreviewGeometry geometry = mPreviewGeometry;
+        if (geometry != null && geometry.matches(width, height, previewWidth, previewHeight, rotation, mirror))
+            return geometry;
+        final PreviewGeometry newGeometry = new PreviewGeometry(width, height, previewWidth, previewHeight, rotation,
+                mirror);
+        mPreviewGeometry = newGeometry;
+        return newGeometry;
+    }
+
+    /**
+     * Gets region of preview frame visible in this view, in preview frame coordinates and aligned
+     * to NV21 chroma samples. Its bounds can be passed to
+     * {@link YuvScaler#scale(PreviewFrame, int, int, int, int)} to analyze visible pixels only.
+     * Call on UI thread and keep result until layout or preview size changes.
+     *
+     * @return false if camera not opened or view not measured
+     */
+    public boolean getVisiblePreviewRegion(Rect region) {
+        final RectF displayBounds = new RectF();
+        if (!getCameraBounds(null, displayBounds)) return false;
+        region.set(Math.round(displayBounds.left) & ~1, Math.round(displayBounds.top) & ~1,
+                Math.round(displayBounds.right) & ~1, Math.round(displayBounds.bottom) & ~1);
+        return true;
+    }
+
     /**
      * Pictures taken by this library will remain original, so you need to rotate or add EXIF tag by
      * yourself.
@@ -106,13 +195,9 @@ public class CameraView extends ViewGroup {
     }
 
     public String getFlashMode() {
-        final Camera camera = getOpeningCamera();
-        if (camera == null) return null;
-        camera.stopPreview();
-        final Parameters parameters = camera.getParameters();
-        final String flashMode = parameters.getFlashMode();
-        camera.startPreview();
-        return flashMode;
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        if (snapshot == null) return null;
+        return snapshot.getFlashMode();
     }
 
     public Camera getOpeningCamera() {
@@ -123,9 +208,34 @@ public class CameraView extends ViewGroup {
         return mOpeningCameraId;
     }
 
+    /**
+     * Clockwise rotation needed for pictures taken now to be upright, use
+     * {@link JpegExif#write(byte[], int, java.io.OutputStream)} to save picture with this rotation
+     * as EXIF orientation instead of rotating decoded bitmap.
+     */
     public int getPictureRotation() {
         if (mOpeningCameraId == -1) return 0;
-        return CameraUtils.getPictureRotation(CameraUtils.getDisplayRotation(getContext()), mOpeningCameraId);
+        return mRotationResolver.getPictureRotation();
+    }
+
+    /**
+     * Updated as soon as {@link ParametersEditor#commit()} returns, so it always agrees with what
+     * next {@link #edit()} starts from. Values are replaced by ones driver reports once commit
+     * finished on camera thread, which differ only if driver rejected them.
+     *
+     * @return Parameters last committed to opening camera, or null if camera not opened
+     */
+    public ParametersSnapshot getParametersSnapshot() {
+        return mParametersSnapshot;
+    }
+
+    /**
+     * @return Capabilities of opening camera, or null if camera not opened
+     */
+    public CameraCapabilities getCapabilities() {
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        if (snapshot == null) return null;
+        return snapshot.getCapabilities();
     }
 
     public Preview getPreview() {
@@ -133,16 +243,14 @@ public class CameraView extends ViewGroup {
     }
 
     public Camera.Size getPreviewSize() {
-        final Camera camera = getOpeningCamera();
-        if (camera == null) return null;
-        return camera.getParameters().getPreviewSize();
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        if (snapshot == null) return null;
+        return snapshot.getPreviewSize();
     }
 
     public boolean isAutoFocusSupported() {
-        final Camera camera = getOpeningCamera();
-        if (camera == null) return false;
-        final Camera.Parameters parameters = camera.getParameters();
-        return parameters.getSupportedFocusModes().contains(Camera.Parameters.FOCUS_MODE_AUTO);
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        return snapshot != null && snapshot.isFocusModeSupported(Camera.Parameters.FOCUS_MODE_AUTO);
     }
 
     public boolean isAutoFocusing() {
@@ -153,8 +261,130 @@ public class CameraView extends ViewGroup {
         this.mAutoFocusing = autoFocusing;
     }
 
+    /**
+     * @return false if camera not opened, or {@link #releaseCamera()} called and camera is waiting
+     * to be released
+     */
     public boolean isCameraAvailable() {
-        return mOpeningCamera != null;
+        return mOpeningCamera != null && !mReleasePending;
+    }
+
+    /**
+     * @return Whether camera calls are made on a dedicated camera thread
+     */
+    public boolean isCameraThreadEnabled() {
+        return mCameraThreadEnabled;
+    }
+
+    /**
+     * Moves {@link Camera#open(int)} and all following camera calls to a dedicated background
+     * thread, {@link #openCameraIfNeeded()} will return null until camera opened.
+     * <br>
+     * {@link CameraListener} callbacks and callbacks passed to this view are delivered on main
+     * thread.
+     *
+     * @param enabled Use camera thread if true
+     */
+    public void setCameraThreadEnabled(boolean enabled) {
+        if (mOpeningCamera != null || mPendingOpenCameraId != -1)
+            throw new IllegalStateException("Camera has already opened");
+        mCameraThreadEnabled = enabled;
+    }
+
+    /**
+     * @return Whether camera capabilities are cached on disk
+     */
+    public boolean isCapabilityCacheEnabled() {
+        return mCapabilityCacheEnabled;
+    }
+
+    /**
+     * Caches capabilities of opened cameras in app cache directory. On next launch preview size is
+     * chosen from cached capabilities during first layout and set right after camera opened,
+     * cached values are checked against actual camera in background.
+     *
+     * @param enabled Use capability cache if true
+     */
+    public void setCapabilityCacheEnabled(boolean enabled) {
+        mCapabilityCacheEnabled = enabled;
+    }
+
+    public PreviewSizePolicy getPreviewSizePolicy() {
+        return mPreviewSizePolicy;
+    }
+
+    /**
+     * Sets policy choosing preview size for view size, takes effect on next layout. Size from
+     * {@link #getOverrideMeasureSize(Camera, Parameters, int, int, int)} is passed to policy if
+     * overridden.
+     *
+     * @param policy Policy, or null to use smallest size covering the view
+     */
+    public void setPreviewSizePolicy(PreviewSizePolicy policy) {
+        mPreviewSizePolicy = policy;
+        requestLayout();
+    }
+
+    public PictureSizePolicy getPictureSizePolicy() {
+        return mPictureSizePolicy;
+    }
+
+    /**
+     * Sets policy choosing picture size, size is set together with preview size on next layout
+     * and kept around video recording.
+     *
+     * @param policy Policy, or null to keep picture size of camera
+     */
+    public void setPictureSizePolicy(PictureSizePolicy policy) {
+        mPictureSizePolicy = policy;
+        mConfiguredPictureWidth = 0;
+        mConfiguredPictureHeight = 0;
+        requestLayout();
+    }
+
+    public long getReleaseDelay() {
+        return mReleaseDelay;
+    }
+
+    /**
+     * Keeps camera opened for a while after {@link #releaseCamera()}, so calling
+     * {@link #openCamera(int)} with the same ID within the delay reuses it, together with preview
+     * surface if possible. Useful when camera is released in {@link android.app.Activity#onPause()}
+     * and pause is short, e.g. permission dialogs or notification shade.
+     * <br>
+     * Preview keeps running during the delay, camera is never kept while recording video.
+     *
+     * @param delay Delay in milliseconds, 0 to release immediately
+     */
+    public void setReleaseDelay(long delay) {
+        if (delay < 0) throw new IllegalArgumentException("delay must not be negative");
+        mReleaseDelay = delay;
+    }
+
+    /**
+     * @return Whether camera is waiting to be released, see {@link #setReleaseDelay(long)}
+     */
+    public boolean isReleasePending() {
+        return mReleasePending;
+    }
+
+    /**
+     * @return Number of times camera waiting to be released was reused instead of reopened
+     */
+    public int getHotResumeCount() {
+        return mHotResumeCount;
+    }
+
+    /**
+     * @return Number of times camera was released after delay expired
+     */
+    public int getDelayedReleaseCount() {
+        return mDelayedReleaseCount;
+    }
+
+    public void resetReleaseStatistics() {
+        mHotResumeCount = 0;
+        mDelayedReleaseCount = 0;
     }
 
     /**
@@ -181,6 +411,8 @@ public class CameraView extends ViewGroup {
      */
     public VideoRecordConfig newVideoRecordConfig() {
         if (mOpeningCameraId == -1) return null;
+        final CameraCapabilities capabilities = getCapabilities();
+        if (capabilities != null) return new VideoRecordConfig(capabilities);
         return new VideoRecordConfig(mOpeningCameraId);
     }
 
@@ -192,17 +424,40 @@ public class CameraView extends ViewGroup {
      * @see android.hardware.Camera#open(int)
      */
     public void openCamera(int cameraId) {
+        if (mReleasePending) {
+            if (mOpeningCameraId == cameraId) {
+                resumeCamera();
+                return;
+            }
+            releaseCamera(false);
+        }
         if (mOpeningCameraId == cameraId) return;
         mRequiredCameraId = cameraId;
+        if (mCapabilityCacheEnabled && cameraId >= 0) {
+            CapabilityCache.getInstance(getContext()).preload(cameraId);
+        }
         restartPreview();
     }
 
     public Camera openCameraIfNeeded() {
         if (mOpeningCamera != null) return mOpeningCamera;
         if (mRequiredCameraId == -1) return null;
+        if (mCameraThreadEnabled) {
+            openCameraAsync(mRequiredCameraId);
+            return null;
+        }
         return openCameraSafely(mRequiredCameraId);
     }
 
+    /**
+     * Starts recording video, recorder is prepared and started after parameters for recording are
+     * committed. Recorder is always started and stopped on camera thread, even if
+     * {@link #setCameraThreadEnabled(boolean)} is disabled, so this never blocks UI thread.
+     *
+     * @param callback Callback called on main thread
+     * @return Transaction to stop recording with
+     * @throws IllegalStateException if camera not opened, or previous recording not yet finalized
+     */
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
     public VideoRecordTransaction recordVideo(VideoRecordConfig config, VideoRecordCallback callback) {
         if (mRecorder != null) throw new IllegalStateException();
@@ -211,38 +466,123 @@ public class CameraView extends ViewGroup {
         config.setReadOnly();
         final MediaRecorder recorder = new MediaRecorder();
         setCurrentMediaRecorder(recorder);
-        if (shouldSetSizeForRecorder()) {
-            setCameraPreviewStarted(false);
-            camera.stopPreview();
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        final ParametersEditor editor = edit();
+        final boolean setSizeForRecorder = shouldSetSizeForRecorder();
+        if (setSizeForRecorder) {
             final CamcorderProfile profile = config.profile;
-            final Camera.Parameters parameters = camera.getParameters();
-            mPictureSizeBackup = parameters.getPictureSize();
-            parameters.setPreviewSize(profile.videoFrameWidth, profile.videoFrameHeight);
-            parameters.setPictureSize(profile.videoFrameWidth, profile.videoFrameHeight);
-            dispatchSetParameterBeforeStartPreview(camera, parameters);
-            camera.setParameters(parameters);
-            camera.startPreview();
-            setCameraPreviewStarted(true);
-            notifyPreviewSizeChanged(0, 0);
+            mPictureSizeBackup = snapshot.getPictureSize();
+            editor.setPreviewSize(profile.videoFrameWidth, profile.videoFrameHeight);
+            editor.setPictureSize(profile.videoFrameWidth, profile.videoFrameHeight);
         }
-        final Thread recordThread = new Thread(new RecordVideoRunnable(this, recorder, config, callback));
-        recordThread.start();
-//        recordThread.run();
-        return new VideoRecordTransaction(this, config, callback);
+        final String flashModeDuringRecording = getFlashModeDuringRecording();
+        if (snapshot.getSupportedFlashModes().contains(flashModeDuringRecording)) {
+            setFlashModeBackup(snapshot.getFlashMode());
+            editor.setFlashMode(flashModeDuringRecording);
+        }
+        editor.commit(setSizeForRecorder);
+        final VideoRecordTransaction transaction = new VideoRecordTransaction(this, camera, recorder, config,
+                callback);
+        // Not runOnCameraThread, that runs inline if camera thread disabled. Parameters committed
+        // above are queued before this if enabled, and stop is queued behind it so never overtakes start
+        CameraThread.getInstance().post(new RecordVideoRunnable(transaction));
+        return transaction;
     }
 
+    /**
+     * Releases opening camera, or schedules release if {@link #setReleaseDelay(long)} set
+     */
     public void releaseCamera() {
+        if (mReleaseDelay > 0 && mOpeningCamera != null && mRecorder == null) {
+            if (mReleasePending) return;
+            mReleasePending = true;
+            mMainHandler.postDelayed(mDelayedReleaseRunnable, mReleaseDelay);
+            return;
+        }
+        releaseCamera(false);
+    }
+
+    /**
+     * Switches to camera with specified ID, current preview view and its surface are kept. Only
+     * old camera is released, new camera is attached to the same surface and its preview size is
+     * chosen from its capabilities right after opening, before preview starts.
+     * <br>
+     * Same as {@link #openCamera(int)} if no camera is attached to preview yet.
+     *
+     * @param cameraId ID of the Camera
+     */
+    public void switchCamera(int cameraId) {
+        if (mReleasePending) {
+            openCamera(cameraId);
+            return;
+        }
+        if (mOpeningCameraId == cameraId) return;
+        if (mRecorder != null) throw new IllegalStateException("Video recording");
+        final Preview preview = getPreview();
+        if (mOpeningCamera == null || preview == null || !preview.isAttachedToCamera()) {
+            openCamera(cameraId);
+            return;
+        }
+        releaseCamera(true);
+        mRequiredCameraId = cameraId;
+        if (mCapabilityCacheEnabled) {
+            CapabilityCache.getInstance(getContext()).preload(cameraId);
+        }
+        openCameraIfNeeded();
+    }
+
+    private void releaseCamera(boolean keepPreview) {
+        if (mReleasePending) {
+            mMainHandler.removeCallbacks(mDelayedReleaseRunnable);
+            mReleasePending = false;
+        }
         final Camera camera = mOpeningCamera;
         mOpeningCameraId = -1;
+        mRotationResolver.setCameraId(-1);
+        // Camera opened after this call will be released immediately
+        mPendingOpenCameraId = -1;
         if (camera == null) return;
-        final Preview preview = getPreview();
-        if (preview != null) {
-            preview.onPreReleaseCamera(camera);
-        }
-        camera.release();
+        runOnCameraThread(new ReleaseCameraRunnable(getPreview(), camera, mFrameBufferPool));
         mOpeningCamera = null;
-        mPreview = null;
+        mParametersSnapshot = null;
+        mConfirmedSnapshot = null;
+        mEditorParameters = null;
+        mCommittedParameters = null;
+        if (!keepPreview) {
+            mPreview = null;
+        }
         mRequiredCameraId = -1;
+        mPreselectedPreviewSize = null;
+        // Pending capture callbacks of released camera will never arrive
+        synchronized (mCaptureQueue) {
+            mBurstCapturing = false;
+            mCaptureQueue.clear();
+        }
+        mFocusScheduler.reset();
+        mZoomController.reset();
+        cancelRegionsUpdate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mRotationResolver.start();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (mReleasePending) {
+            // Host is gone, won't be resumed
+            releaseCamera(false);
+        }
+        mRotationResolver.stop();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        mRotationResolver.updateDisplayRotation();
     }
 
     @Override
@@ -258,24 +598,15 @@ public class CameraView extends ViewGroup {
         setMeasuredDimension(measuredWidth, measuredHeight);
         final Preview preview = getPreview();
         if (preview == null || !preview.isAddedToCameraView()) return;
+        if (mOpeningCamera == null && mCapabilityCacheEnabled && !isInEditMode()) {
+            preselectPreviewSize(mRequiredCameraId, measuredWidth, measuredHeight);
+        }
         final Camera camera = openCameraIfNeeded();
         if (camera != null && !isInEditMode()) {
-            if (mCameraPreviewStarted && preview.isAttachedToCamera()) {
-//                setCameraPreviewStarted(false);
-//                camera.stopPreview();
-            }
-            final int rotation = CameraUtils.getCameraRotation(CameraUtils.getDisplayRotation(getContext()), getOpeningCameraId());
-            camera.setDisplayOrientation(rotation);
-            final Camera.Parameters parameters = camera.getParameters();
-            final Point previewSize = getPreviewSize(camera, parameters, measuredWidth, measuredHeight, rotation);
-            parameters.setPreviewSize(previewSize.x, previewSize.y);
-            dispatchSetParameterBeforeStartPreview(camera, parameters);
-            camera.setParameters(parameters);
-            if (preview.isAttachedToCamera()) {
-//                camera.startPreview();
+            if (!mRotationResolver.isTrackingDisplay()) {
+                mRotationResolver.updateDisplayRotation();
             }
-            setCameraPreviewStarted(true);
-            mCameraRotation = rotation;
+            configureCamera(camera, measuredWidth, measuredHeight);
         }
         final View child = getChildAt(0);
         if (child == null) return;
@@ -286,345 +617,1362 @@ public class CameraView extends ViewGroup {
         mListener = listener;
         final Camera camera = getOpeningCamera();
         if (camera != null) {
-            camera.setErrorCallback(listener);
+            camera.setErrorCallback(listener != null ? new InternalErrorCallback(this) : null);
+        }
+    }
+
+    /**
+     * Sets callback to receive preview frames with 3 preallocated buffers
+     *
+     * @see #setPreviewFrameCallback(PreviewFrameCallback, int)
+     */
+    public void setPreviewFrameCallback(PreviewFrameCallback callback) {
+        setPreviewFrameCallback(callback, 3);
+    }
+
+    /**
+     * Sets callback to receive preview frames. Frames are backed by a ring of preallocated buffers
+     * sized from committed preview size and format, and reallocated when they change. Each frame
+     * must be {@link PreviewFrame#release() released} to be reused, delivery stops when all
+     * buffers are held by callback.
+     *
+     * @param callback    Callback to receive frames, or null to stop receiving
+     * @param bufferCount Number of buffers in ring
+     */
+    public void setPreviewFrameCallback(PreviewFrameCallback callback, int bufferCount) {
+        final FrameBufferPool oldPool = mFrameBufferPool;
+        final FrameBufferPool pool = callback != null ? new FrameBufferPool(callback, bufferCount) : null;
+        mFrameBufferPool = pool;
+        final Camera camera = getOpeningCamera();
+        if (camera == null) return;
+        runOnCameraThread(new AttachFrameBufferPoolRunnable(this, camera, oldPool, pool));
+    }
+
+    /**
+     * Feeds preview frames to pipeline, with enough buffers to keep all its workers busy.
+     * Pipeline is not shut down when replaced, call {@link FramePipeline#shutdown()} yourself.
+     *
+     * @param pipeline Pipeline to process frames, or null to stop receiving
+     */
+    public void setFramePipeline(FramePipeline pipeline) {
+        if (pipeline == null) {
+            setPreviewFrameCallback(null);
+            return;
         }
+        setPreviewFrameCallback(pipeline, pipeline.getRequiredBufferCount());
+    }
+
+    public CapturePipeline getCapturePipeline() {
+        return mCapturePipeline;
+    }
+
+    /**
+     * Pictures taken by {@link #takePicture(Camera.ShutterCallback, Camera.PictureCallback)} will
+     * be queued to pipeline, and preview restarted before any callback called.
+     *
+     * @param pipeline Pipeline to process pictures, or null to disable
+     */
+    public void setCapturePipeline(CapturePipeline pipeline) {
+        mCapturePipeline = pipeline;
     }
 
     public void setCameraPreviewStarted(boolean cameraPreviewStarted) {
         mCameraPreviewStarted = cameraPreviewStarted;
     }
 
-    public boolean setFlashMode(String flashMode) {
+    public boolean setFlashMode(final String flashMode) {
         final Camera camera = getOpeningCamera();
         if (camera == null) return false;
-        camera.stopPreview();
-        final Parameters parameters = camera.getParameters();
-        parameters.setFlashMode(flashMode);
-        camera.setParameters(parameters);
-        camera.startPreview();
+        edit().setFlashMode(flashMode).commit();
         return true;
     }
 
     /**
-     * Convenience call of <code>getOpeningCamera().takePicture(shutter, null, jpeg)</code>
+     * Starts a parameter transaction, changes will be sent to camera with single
+     * {@link Camera#setParameters(Parameters)} call when committed, and only if they differ from
+     * last committed parameters.
+     *
+     * @return Editor for parameters of opening camera
+     * @throws IllegalStateException if camera not opened
+     */
+    public ParametersEditor edit() {
+        final Camera camera = getOpeningCamera();
+        if (camera == null || mEditorParameters == null)
+            throw new IllegalStateException("Camera not opened");
+        return new ParametersEditor(this, camera, mEditorParameters, mCommittedParameters);
+    }
+
+    /**
+     * Convenience call of <code>getOpeningCamera().takePicture(shutter, null, jpeg)</code>, may be
+     * called from any thread. Picture is requested from main thread, and callbacks are called on
+     * main thread.
+     * <br>
+     * Requests are serialized by {@link #getCaptureQueue()}, a picture is only requested after
+     * previous one completed. In {@link #isSingleShot() single shot} mode preview is restarted
+     * for each queued request, and stays stopped after the last one.
      *
      * @param shutter the callback for image capture moment, or null
      * @param jpeg    the callback for JPEG image data, or null
+     * @return false if camera not opened, burst in progress or request rejected by queue
      */
-    public void takePicture(final Camera.ShutterCallback shutter, final Camera.PictureCallback jpeg) {
+    public boolean takePicture(final Camera.ShutterCallback shutter, final Camera.PictureCallback jpeg) {
+        if (getOpeningCamera() == null) return false;
+        final CaptureQueue.Request request = new CaptureQueue.Request(shutter, jpeg);
+        final int result;
+        // Burst state is checked and changed under queue lock, so no picture starts alongside burst
+        synchronized (mCaptureQueue) {
+            if (mBurstCapturing) return false;
+            result = mCaptureQueue.offer(request);
+        }
+        switch (result) {
+            case CaptureQueue.OFFER_REJECTED: {
+                return false;
+            }
+            case CaptureQueue.OFFER_STARTED: {
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        startCapture(request, false);
+                    }
+                });
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Queue serializing {@link #takePicture(Camera.ShutterCallback, Camera.PictureCallback)} calls
+     */
+    public CaptureQueue getCaptureQueue() {
+        return mCaptureQueue;
+    }
+
+    /**
+     * Takes pictures one after another as fast as camera allows. Auto exposure and auto white
+     * balance are locked during burst where supported, so all pictures look the same.
+     * <br>
+     * Preview is restarted and next picture requested as soon as JPEG data of previous one
+     * arrives, data is handed to callback (and {@link CapturePipeline} if set) while next picture
+     * is being exposed.
+     *
+     * @param count    Number of pictures to take
+     * @param callback Callback called on main thread
+     * @return false if camera not opened, another burst in progress or a picture is being taken
+     */
+    public boolean takeBurst(int count, BurstCallback callback) {
+        if (count <= 0) throw new IllegalArgumentException("count must be positive");
         final Camera camera = getOpeningCamera();
-        if (camera == null) return;
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        if (camera == null || snapshot == null) return false;
+        synchronized (mCaptureQueue) {
+            if (mBurstCapturing || mCaptureQueue.isCapturing()) return false;
+            mBurstCapturing = true;
+        }
+        final boolean lockExposure = snapshot.isAutoExposureLockSupported() && !snapshot.getAutoExposureLock();
+        final boolean lockWhiteBalance = snapshot.isAutoWhiteBalanceLockSupported()
+                && !snapshot.getAutoWhiteBalanceLock();
+        if (lockExposure || lockWhiteBalance) {
+            final ParametersEditor editor = edit();
+            if (lockExposure) {
+                editor.setAutoExposureLock(true);
+            }
+            if (lockWhiteBalance) {
+                editor.setAutoWhiteBalanceLock(true);
+            }
+            editor.commit();
+        }
         setCameraPreviewStarted(false);
-        camera.takePicture(shutter, null, new InternalPictureCallback(this, jpeg, mSingleShot));
+        runOnCameraThread(new BurstPictureCallback(this, camera, count, callback, lockExposure,
+                lockWhiteBalance, mCapturePipeline, getPictureRotation()));
+        return true;
+    }
+
+    public boolean isBurstCapturing() {
+        return mBurstCapturing;
     }
 
+    /**
+     * Focuses on touched point, requests are debounced and cancelled by newer ones, see
+     * {@link #getFocusScheduler()}.
+     *
+     * @param event    Touch event, or null to focus on camera default areas
+     * @param callback Callback called on main thread
+     * @return false if camera not opened or doesn't support auto focus
+     */
     public boolean touchFocus(MotionEvent event, Camera.AutoFocusCallback callback) {
-        if (mAutoFocusing) return false;
-        final RectF cameraBounds = new RectF(), cameraDisplayBounds = new RectF();
+        final CameraRegions regions = new CameraRegions();
+        if (event != null) {
+            final float x = event.getX(), y = event.getY();
+            final float halfWidth = event.getTouchMajor() / 4, halfHeight = event.getTouchMinor() / 4;
+            regions.add(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight, CameraRegions.MAX_WEIGHT);
+        }
+        return focus(regions, regions, callback);
+    }
+
+    /**
+     * Focuses on weighted regions, e.g. subjects found by a detector. Requests are scheduled like
+     * {@link #touchFocus(MotionEvent, Camera.AutoFocusCallback)}.
+     *
+     * @param focusRegions    Focus regions, or null for camera default
+     * @param meteringRegions Metering regions, or null for camera default
+     * @param callback        Callback called on main thread
+     * @return false if camera not opened or doesn't support auto focus
+     */
+    public boolean focus(CameraRegions focusRegions, CameraRegions meteringRegions,
+                         Camera.AutoFocusCallback callback) {
         final Camera camera = getOpeningCamera();
-        final Camera.Size size = getPreviewSize();
-        if (camera == null || !getCameraBounds(cameraBounds, cameraDisplayBounds) || size == null)
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        final PreviewGeometry geometry = getPreviewGeometry();
+        if (camera == null || snapshot == null || geometry == null)
             return false;
-        final Camera.Parameters parameters = camera.getParameters();
-        if (!parameters.getSupportedFocusModes().contains(Camera.Parameters.FOCUS_MODE_AUTO))
+        if (!snapshot.isFocusModeSupported(Camera.Parameters.FOCUS_MODE_AUTO))
             return false;
+        // Areas of this request win over ones waiting for rate limit
+        cancelRegionsUpdate();
+        mFocusScheduler.request(toAreas(focusRegions, geometry, snapshot.getMaxNumFocusAreas()),
+                toAreas(meteringRegions, geometry, snapshot.getMaxNumMeteringAreas()), callback);
+        return true;
+    }
+
+    /**
+     * Sets focus and metering areas without starting auto focus, e.g. from a detector running on
+     * every preview frame. Camera parameters are committed at most once per
+     * {@link #getRegionsUpdateInterval()}, later calls within the interval replace earlier ones.
+     *
+     * @param focusRegions    Focus regions, or null for camera default
+     * @param meteringRegions Metering regions, or null for camera default
+     * @return false if camera not opened
+     */
+    public boolean setRegions(CameraRegions focusRegions, CameraRegions meteringRegions) {
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        final PreviewGeometry geometry = getPreviewGeometry();
+        if (getOpeningCamera() == null || snapshot == null || geometry == null) return false;
+        // Regions may be reused by caller, so map them now
+        mPendingFocusAreas = toAreas(focusRegions, geometry, snapshot.getMaxNumFocusAreas());
+        mPendingMeteringAreas = toAreas(meteringRegions, geometry, snapshot.getMaxNumMeteringAreas());
+        if (mRegionsUpdatePending) return true;
+        final long wait = mLastRegionsUpdateTime + mRegionsUpdateInterval - SystemClock.uptimeMillis();
+        if (wait > 0) {
+            mRegionsUpdatePending = true;
+            mMainHandler.postDelayed(mRegionsUpdateRunnable, wait);
+        } else {
+            applyPendingRegions();
+        }
+        return true;
+    }
+
+    public ZoomController getZoomController() {
+        return mZoomController;
+    }
+
+    public long getRegionsUpdateInterval() {
+        return mRegionsUpdateInterval;
+    }
+
+    /**
+     * @param interval Min time in milliseconds between two commits of
+     *                 {@link #setRegions(CameraRegions, CameraRegions)}
+     */
+    public void setRegionsUpdateInterval(long interval) {
+        if (interval < 0) throw new IllegalArgumentException("interval must not be negative");
+        mRegionsUpdateInterval = interval;
+    }
+
+    /**
+     * @return Scheduler of {@link #touchFocus(MotionEvent, Camera.AutoFocusCallback)} requests
+     */
+    public FocusScheduler getFocusScheduler() {
+        return mFocusScheduler;
+    }
+
+    protected Preview createPreview() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            return new SurfacePreview(this);
+        return new TexturePreview(this);
+    }
+
+    /**
+     * @param camera     Opening camera, or null if preview size chosen from cached capabilities
+     *                   before camera opened, see {@link #setCapabilityCacheEnabled(boolean)}
+     * @param parameters Camera parameters, or null if camera is null
+     */
+    protected Point getOverrideMeasureSize(Camera camera, Parameters parameters, int width, int height, int rotation) {
+        return null;
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        final Preview preview = getPreview();
+        if (preview == null || !preview.isAddedToCameraView()) return;
+        preview.layoutPreview(changed, l, t, r, b);
+    }
+
+    private void addViewInternal(View child) {
+        super.addView(child);
+    }
+
+    private void attachMediaRecorder(MediaRecorder recorder) {
+        final Preview preview = getPreview();
+        if (preview != null) {
+            preview.attachMediaRecorder(recorder);
+        }
+    }
+
+    private void detachMediaRecorder(MediaRecorder recorder) {
+        final Preview preview = getPreview();
+        if (preview != null) {
+            preview.detachMediaRecorder(recorder);
+        }
+    }
+
+    void dispatchSetParameterBeforeStartPreview(Camera camera, Camera.Parameters parameters) {
+        if (mListener != null) {
+            mListener.setParameterBeforeStartPreview(camera, parameters);
+        }
+    }
+
+    boolean isCameraPreviewStarted() {
+        return mCameraPreviewStarted;
+    }
+
+    /**
+     * Sends parameters to camera, {@link #getParametersSnapshot()} is updated right away.
+     *
+     * @param parameters     Parameters being committed
+     * @param flattened      Flattened parameters, or null if only restart preview
+     * @param restartPreview Stop preview before and start it again after committing
+     */
+    void commitParameters(Camera camera, Camera.Parameters parameters, String flattened, boolean restartPreview) {
+        if (flattened != null) {
+            mCommittedParameters = flattened;
+            if (mParametersSnapshot != null) {
+                // Parsed from parameters already in memory, no driver round trip
+                mParametersSnapshot = new ParametersSnapshot(parameters, flattened, mParametersSnapshot);
+            }
+        }
+        if (restartPreview) {
+            setCameraPreviewStarted(false);
+        }
+        runOnCameraThread(new CommitParametersRunnable(this, camera, flattened, restartPreview));
+    }
+
+    /**
+     * @param restartPreview Preview was left stopped by previous picture in single shot mode
+     */
+    private void startCapture(CaptureQueue.Request request, boolean restartPreview) {
+        final Camera camera = getOpeningCamera();
+        if (camera == null) {
+            mCaptureQueue.clear();
+            return;
+        }
+        setCameraPreviewStarted(false);
+        final Camera.ShutterCallback shutterCallback = request.hasShutterCallback()
+                ? new InternalShutterCallback(this, request) : null;
+        final InternalPictureCallback pictureCallback = new InternalPictureCallback(this, request, mSingleShot,
+                mCapturePipeline, getPictureRotation());
+        runOnCameraThread(new TakePictureRunnable(this, camera, request, shutterCallback, pictureCallback,
+                restartPreview));
+    }
+
+    /**
+     * @param previewStopped Preview was not restarted after picture, i.e. single shot mode
+     */
+    private void onCaptureFinished(CaptureQueue.Request request, boolean previewStopped) {
+        final CaptureQueue.Request next = mCaptureQueue.finish(request);
+        if (next != null) {
+            startCapture(next, previewStopped);
+        }
+    }
+
+    private void onBurstFinished(Camera camera, boolean unlockExposure, boolean unlockWhiteBalance) {
+        mBurstCapturing = false;
+        if (camera != mOpeningCamera) return;
+        setCameraPreviewStarted(true);
+        if (unlockExposure || unlockWhiteBalance) {
+            final ParametersEditor editor = edit();
+            if (unlockExposure) {
+                editor.setAutoExposureLock(false);
+            }
+            if (unlockWhiteBalance) {
+                editor.setAutoWhiteBalanceLock(false);
+            }
+            editor.commit();
+        }
+    }
+
+    /**
+     * Reuses camera waiting to be released
+     */
+    private void resumeCamera() {
+        mMainHandler.removeCallbacks(mDelayedReleaseRunnable);
+        mReleasePending = false;
+        mHotResumeCount++;
+        final Preview preview = getPreview();
+        if (preview != null) {
+            preview.onCameraOpened(mOpeningCamera);
+        }
+    }
+
+    private void applyPendingRegions() {
+        mRegionsUpdatePending = false;
+        if (getOpeningCamera() == null) return;
+        mLastRegionsUpdateTime = SystemClock.uptimeMillis();
+        final ParametersEditor editor = edit();
+        editor.setFocusAreas(mPendingFocusAreas);
+        editor.setMeteringAreas(mPendingMeteringAreas);
+        editor.commit();
+    }
+
+    private void cancelRegionsUpdate() {
+        if (mRegionsUpdatePending) {
+            mMainHandler.removeCallbacks(mRegionsUpdateRunnable);
+            mRegionsUpdatePending = false;
+        }
+        mPendingFocusAreas = null;
+        mPendingMeteringAreas = null;
+    }
+
+    private static List<Camera.Area> toAreas(CameraRegions regions, PreviewGeometry geometry, int maxAreas) {
+        return regions != null ? regions.toAreas(geometry, maxAreas) : null;
+    }
+
+    private void onReleaseDelayExpired() {
+        if (!mReleasePending) return;
+        mDelayedReleaseCount++;
+        releaseCamera(false);
+    }
+
+    /**
+     * Called by {@link RotationResolver} when display rotated, rotation of 180 degrees doesn't
+     * relayout this view so display orientation is updated here
+     */
+    void onDisplayRotationChanged() {
+        if (mOpeningCamera != null) {
+            requestLayout();
+        }
+    }
+
+    private void onParametersCommitted(Camera camera, ParametersSnapshot snapshot, boolean failed) {
+        if (camera != mOpeningCamera) return;
+        final ParametersSnapshot oldSnapshot = mConfirmedSnapshot;
+        mConfirmedSnapshot = snapshot;
+        if (failed) {
+            // Driver rejected our values, edit from what camera actually uses
+            mCommittedParameters = snapshot.flatten();
+            mParametersSnapshot = snapshot;
+        } else if (TextUtils.equals(mCommittedParameters, snapshot.flatten())) {
+            mParametersSnapshot = snapshot;
+        }
+        // Otherwise a newer commit is in flight, keep its snapshot
+        if (oldSnapshot == null || oldSnapshot.getPreviewWidth() != snapshot.getPreviewWidth()
+                || oldSnapshot.getPreviewHeight() != snapshot.getPreviewHeight()) {
+            notifyPreviewSizeChanged(0, 0);
+        }
+    }
+
+    /**
+     * Reads parameters of newly opened camera, should be called on camera thread. Preview size
+     * chosen from cached capabilities is set here if there is one.
+     *
+     * @return Snapshot of current parameters
+     */
+    private ParametersSnapshot initDriverParameters(Camera camera, int cameraId) {
+        final Camera.CameraInfo info = RotationResolver.getCameraInfo(cameraId);
+        Camera.Parameters parameters = camera.getParameters();
+        final int[] preselected = mPreselectedPreviewSize;
+        if (preselected != null && preselected[0] == cameraId) {
+            parameters.setPreviewSize(preselected[1], preselected[2]);
+            try {
+                camera.setParameters(parameters);
+            } catch (RuntimeException e) {
+                Log.w(LOGTAG, "Unable to set preselected preview size", e);
+                parameters = camera.getParameters();
+            }
+        }
+        final CameraCapabilities cached = mCapabilityCacheEnabled
+                ? CapabilityCache.getInstance(getContext()).get(cameraId) : null;
+        final CameraCapabilities capabilities = new CameraCapabilities(cameraId, info, parameters,
+                cached != null ? cached.getVideoQualities() : CameraCapabilities.VIDEO_QUALITIES_UNKNOWN);
+        final ParametersSnapshot snapshot = new ParametersSnapshot(parameters, parameters.flatten(), capabilities);
+        mDriverParameters = parameters;
+        mDriverSnapshot = snapshot;
+        if (mCapabilityCacheEnabled) {
+            CapabilityCache.getInstance(getContext()).validate(capabilities);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Chooses preview size from cached capabilities before camera opened, so it can be set
+     * without waiting for first layout after opening. Called during measure, so capabilities not
+     * loaded yet are skipped and size is chosen after opening as usual.
+     */
+    private void preselectPreviewSize(int cameraId, int width, int height) {
+        if (cameraId < 0 || width == 0 || height == 0) return;
+        final CameraCapabilities cached = CapabilityCache.getInstance(getContext()).peek(cameraId);
+        if (cached == null) return;
+        final int rotation = Rotations.getCameraRotation(mRotationResolver.getDisplayRotation(),
+                cached.getFacing(), cached.getOrientation());
+        final int sizeIndex = findPreviewSize(null, null, cached, width, height, rotation);
+        if (sizeIndex == -1) return;
+        final CameraCapabilities.SizeTable previewSizes = cached.getPreviewSizes();
+        mPreselectedPreviewSize = new int[]{cameraId, previewSizes.getWidth(sizeIndex),
+                previewSizes.getHeight(sizeIndex)};
+    }
+
+    void runOnCameraThread(Runnable action) {
+        if (mCameraThreadEnabled) {
+            CameraThread.getInstance().post(action);
+        } else {
+            action.run();
+        }
+    }
+
+    void runOnMainThread(Runnable action) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            action.run();
+        } else {
+            mMainHandler.post(action);
+        }
+    }
+
+    /**
+     * Blocks until pending camera calls finished, returns immediately if camera thread disabled.
+     */
+    void waitForCameraThread() {
+        if (!mCameraThreadEnabled) return;
+        CameraThread.getInstance().waitForIdle();
+    }
+
+    private MediaRecorder getCurrentMediaRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * Restores parameters changed for recording, called on main thread once recorder released
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void onRecordFinished(VideoRecordTransaction transaction) {
+        if (getCurrentMediaRecorder() != transaction.recorder) return;
+        setCurrentMediaRecorder(null);
+        final Camera camera = getOpeningCamera();
+        if (camera == null || camera != transaction.camera) return;
+        final ParametersSnapshot snapshot = getParametersSnapshot();
+        final ParametersEditor editor = edit();
+        if (shouldSetSizeForRecorder()) {
+            final int width = getWidth(), height = getHeight();
+            final int rotation = getCameraRotation();
+            final CameraCapabilities capabilities = snapshot.getCapabilities();
+            final int sizeIndex = findPreviewSize(camera, editor.getParameters(), capabilities, width, height,
+                    rotation);
+            final CameraCapabilities.SizeTable previewSizes = capabilities.getPreviewSizes();
+            if (sizeIndex != -1) {
+                editor.setPreviewSize(previewSizes.getWidth(sizeIndex), previewSizes.getHeight(sizeIndex));
+            }
+        }
+        final String flashModeBackup = getFlashModeBackup();
+        if (snapshot.getSupportedFlashModes().contains(flashModeBackup)) {
+            editor.setFlashMode(flashModeBackup);
+        }
+        restorePictureSize(editor);
+        // Preview needs restart after reconnect anyway
+        editor.commit(true);
+    }
+
+    private void setCurrentMediaRecorder(MediaRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    private String getFlashModeBackup() {
+        return mFlashModeBackup;
+    }
+
+    private void setFlashModeBackup(String flashMode) {
+        mFlashModeBackup = flashMode;
+    }
+
+    private String getFlashModeDuringRecording() {
+        return mFlashModeDuringRecording;
+    }
+
+    public void setFlashModeDuringRecording(String flashMode) {
+        mFlashModeDuringRecording = flashMode;
+    }
+
+    /**
+     * Updates display orientation and preview size of opening camera for view size, parameters
+     * are committed only if changed since last call
+     */
+    private void configureCamera(Camera camera, int width, int height) {
+        final int rotation = mRotationResolver.getCameraRotation();
+        if (rotation != mDisplayOrientation) {
+            runOnCameraThread(new SetDisplayOrientationRunnable(camera, rotation));
+            mDisplayOrientation = rotation;
+        }
+        final CameraCapabilities capabilities = getCapabilities();
+        final int sizeIndex = findPreviewSize(camera, mEditorParameters, capabilities, width, height, rotation);
+        final CameraCapabilities.SizeTable previewSizes = capabilities.getPreviewSizes();
+        final int previewWidth = sizeIndex != -1 ? previewSizes.getWidth(sizeIndex) : 0;
+        final int previewHeight = sizeIndex != -1 ? previewSizes.getHeight(sizeIndex) : 0;
+        final PictureSizePolicy pictureSizePolicy = mPictureSizePolicy;
+        final int pictureIndex = pictureSizePolicy != null && sizeIndex != -1 && mRecorder == null
+                ? pictureSizePolicy.select(capabilities, previewWidth, previewHeight) : -1;
+        final CameraCapabilities.SizeTable pictureSizes = capabilities.getPictureSizes();
+        final int pictureWidth = pictureIndex != -1 ? pictureSizes.getWidth(pictureIndex) : 0;
+        final int pictureHeight = pictureIndex != -1 ? pictureSizes.getHeight(pictureIndex) : 0;
+        final boolean previewChanged = sizeIndex != -1 && (previewWidth != mConfiguredPreviewWidth
+                || previewHeight != mConfiguredPreviewHeight);
+        final boolean pictureChanged = pictureIndex != -1 && (pictureWidth != mConfiguredPictureWidth
+                || pictureHeight != mConfiguredPictureHeight);
+        // Skip parameter commit entirely if nothing changed since last measure
+        if (previewChanged || pictureChanged) {
+            final ParametersEditor editor = edit();
+            if (mConfiguredPreviewWidth == 0) {
+                editor.requestDispatchBeforeStartPreview();
+            }
+            if (previewChanged) {
+                editor.setPreviewSize(previewWidth, previewHeight);
+                mConfiguredPreviewWidth = previewWidth;
+                mConfiguredPreviewHeight = previewHeight;
+            }
+            if (pictureChanged) {
+                // Sent in the same commit as preview size
+                editor.setPictureSize(pictureWidth, pictureHeight);
+                mConfiguredPictureWidth = pictureWidth;
+                mConfiguredPictureHeight = pictureHeight;
+            }
+            editor.commit();
+        }
+        mCameraRotation = rotation;
+    }
+
+    /**
+     * @return Index of best preview size in {@link CameraCapabilities#getPreviewSizes()}
+     */
+    private int findPreviewSize(Camera camera, Camera.Parameters parameters, CameraCapabilities capabilities,
+                                int width, int height, int rotation) {
+        final Point overrideMeasureSize = getOverrideMeasureSize(camera, parameters, width, height, rotation);
+        if (overrideMeasureSize != null) {
+            width = overrideMeasureSize.x;
+            height = overrideMeasureSize.y;
+        }
+        final PreviewSizePolicy policy = mPreviewSizePolicy;
+        if (policy != null) return policy.select(capabilities, width, height, rotation);
+        return capabilities.getPreviewSizes().findBestOrLargest(width, height, rotation);
+    }
+
+    private int getVideoRotation() {
+        if (mOpeningCameraId == -1) return 0;
+        return mRotationResolver.getPictureRotation();
+    }
+
+    private void initPreview() {
+        if (getChildCount() > 0) throw new IllegalStateException("Preview has already initialized");
+        mPreview = createPreview();
+        addViewInternal(mPreview.getView());
+    }
+
+    private void notifyPreviewSizeChanged(int width, int height) {
+        final Preview preview = getPreview();
+        if (preview == null) return;
+        preview.notifyPreviewSizeChanged(width, height);
+    }
+
+    private Camera openCameraSafely(final int cameraId) {
+        if (cameraId < 0) throw new IllegalStateException();
+        // Waiting for prewarmed camera to be released
+        if (mPendingOpenCameraId == cameraId) return null;
+        final Camera oldCamera = mOpeningCamera;
+        final int requiredCameraId = mRequiredCameraId;
+        if (oldCamera != null) {
+            if (mOpeningCameraId == cameraId) return oldCamera;
+            releaseCamera(false);
+        }
+        mRequiredCameraId = requiredCameraId;
+        // Prewarmed camera belongs to camera thread, where its callbacks will arrive. Open after
+        // it's released there, main thread never waits for camera thread
+        if (CameraPrewarmer.cancel()) {
+            mPendingOpenCameraId = cameraId;
+            CameraThread.getInstance().post(new PrewarmReleasedRunnable(this, cameraId));
+            return null;
+        }
+        try {
+            final Camera camera = openCameraDriver(cameraId);
+            final ParametersSnapshot snapshot = initDriverParameters(camera, cameraId);
+            setOpeningCamera(camera, cameraId, snapshot, camera.getParameters());
+            return camera;
+        } catch (Exception e) {
+            dispatchCameraOpeningError(cameraId, e);
+        }
+        return null;
+    }
+
+    /**
+     * Opens camera, called on camera thread if enabled. Tests override this to check where
+     * camera is opened.
+     */
+    Camera openCameraDriver(int cameraId) {
+        return Camera.open(cameraId);
+    }
+
+    private void openCameraAsync(final int cameraId) {
+        if (cameraId < 0) throw new IllegalStateException();
+        if (mPendingOpenCameraId == cameraId) return;
+        mPendingOpenCameraId = cameraId;
+        CameraThread.getInstance().post(new OpenCameraRunnable(this, cameraId));
+    }
+
+    private void onCameraOpenedAsync(Camera camera, int cameraId, ParametersSnapshot snapshot,
+                                     Camera.Parameters editorParameters) {
+        if (mPendingOpenCameraId != cameraId || mOpeningCamera != null) {
+            // Camera released or another camera required during opening
+            runOnCameraThread(new ReleaseCameraRunnable(null, camera, null));
+            return;
+        }
+        mPendingOpenCameraId = -1;
+        setOpeningCamera(camera, cameraId, snapshot, editorParameters);
+        if (mConfiguredPreviewWidth == 0) {
+            requestLayout();
+        }
+    }
+
+    private void onPrewarmReleased(int cameraId) {
+        if (mPendingOpenCameraId != cameraId || mOpeningCamera != null) return;
+        mPendingOpenCameraId = -1;
+        if (openCameraSafely(cameraId) != null && mConfiguredPreviewWidth == 0) {
+            requestLayout();
+        }
+    }
+
+    private void onCameraOpeningErrorAsync(int cameraId, Exception e) {
+        if (mPendingOpenCameraId != cameraId) return;
+        mPendingOpenCameraId = -1;
+        dispatchCameraOpeningError(cameraId, e);
+    }
+
+    private void setOpeningCamera(Camera camera, int cameraId, ParametersSnapshot snapshot,
+                                  Camera.Parameters editorParameters) {
+        mOpeningCameraId = cameraId;
+        mOpeningCamera = camera;
+        mRotationResolver.setCameraId(cameraId);
+        mPreselectedPreviewSize = null;
+        mParametersSnapshot = snapshot;
+        mConfirmedSnapshot = snapshot;
+        mEditorParameters = editorParameters;
+        mCommittedParameters = snapshot.flatten();
+        mDisplayOrientation = -1;
+        mConfiguredPreviewWidth = 0;
+        mConfiguredPreviewHeight = 0;
+        mConfiguredPictureWidth = 0;
+        mConfiguredPictureHeight = 0;
+        if (mListener != null) {
+            mListener.onCameraInitialized(camera);
+        }
+        camera.setErrorCallback(mListener != null ? new InternalErrorCallback(this) : null);
+        final FrameBufferPool pool = mFrameBufferPool;
+        if (pool != null) {
+            runOnCameraThread(new AttachFrameBufferPoolRunnable(this, camera, null, pool));
+        }
+        final Preview preview = getPreview();
+        final int width = getMeasuredWidth(), height = getMeasuredHeight();
+        if (preview != null && preview.isAddedToCameraView() && width != 0 && height != 0 && !isInEditMode()) {
+            // Already measured, e.g. switching camera, so set preview size before preview starts
+            configureCamera(camera, width, height);
+        }
+        if (preview != null) {
+            preview.onCameraOpened(camera);
+        }
+    }
+
+    private void dispatchCameraOpeningError(int cameraId, Exception e) {
+        Log.e(LOGTAG, String.format("Error opening camera %d", cameraId), e);
+        mOpeningCamera = null;
+        mOpeningCameraId = -1;
+        if (mListener != null) {
+            mListener.onCameraOpeningError(e);
+        }
+    }
+
+    private void restartPreview() {
+        final int requiredCameraId = mRequiredCameraId;
+        removeAllViews();
+        initPreview();
+        mRequiredCameraId = requiredCameraId;
+    }
+
+    private void restorePictureSize(ParametersEditor editor) {
+        final Camera.Size size = mPictureSizeBackup;
+        if (size == null || editor == null) return;
+        editor.setPictureSize(size.width, size.height);
+    }
+
+    private boolean shouldSetSizeForRecorder() {
+        final Preview preview = getPreview();
+        return preview != null && preview.shouldSetSizeForRecorder();
+    }
+
+    public static interface CameraListener extends Camera.ErrorCallback {
+        void onCameraInitialized(Camera camera);
+
+        void onCameraOpeningError(Exception e);
+
+        void setParameterBeforeStartPreview(Camera camera, Camera.Parameters parameters);
+    }
+
+    public interface PreviewFrameCallback {
+        /**
+         * Called on the thread camera opened on for every preview frame, call
+         * {@link PreviewFrame#release()} when done with it.
+         *
+         * @param frame Preview frame
+         */
+        void onPreviewFrame(PreviewFrame frame);
+    }
+
+    public interface BurstCallback {
+        /**
+         * @param index     Index of picture in burst
+         * @param data      JPEG data
+         * @param timestamp {@link System#nanoTime()} when JPEG data arrived
+         */
+        void onPictureTaken(int index, byte[] data, long timestamp);
+
+        void onBurstCompleted(BurstResult result);
+
+        /**
+         * Called after {@link #onPictureTaken(int, byte[], long)} of every picture in result, no
+         * picture is delivered after this
+         *
+         * @param result Pictures taken before error
+         */
+        void onBurstError(Exception e, BurstResult result);
+    }
+
+    public static final class BurstResult {
+        private final long startTime;
+        private final long[] timestamps;
+
+        BurstResult(long startTime, long[] timestamps) {
+            this.startTime = startTime;
+            this.timestamps = timestamps;
+        }
+
+        public int getPictureCount() {
+            return timestamps.length;
+        }
+
+        /**
+         * @return {@link System#nanoTime()} when JPEG data of each picture arrived
+         */
+        public long[] getTimestamps() {
+            return timestamps.clone();
+        }
+
+        /**
+         * @return {@link System#nanoTime()} when first picture requested
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return Pictures taken per second, from first request to last JPEG data
+         */
+        public float getPicturesPerSecond() {
+            if (timestamps.length == 0) return 0;
+            final long duration = timestamps[timestamps.length - 1] - startTime;
+            if (duration <= 0) return 0;
+            return timestamps.length * 1000000000f / duration;
+        }
+    }
+
+    public interface VideoRecordCallback extends MediaRecorder.OnInfoListener {
+        void onRecordError(Exception e);
+
+        void onRecordStarted();
+
+        void onRecordStopped();
+    }
+
+    private static class InternalErrorCallback implements Camera.ErrorCallback {
+
+        private final CameraView cameraView;
+
+        InternalErrorCallback(CameraView cameraView) {
+            this.cameraView = cameraView;
+        }
+
+        @Override
+        public void onError(final int error, final Camera camera) {
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    final CameraListener listener = cameraView.mListener;
+                    if (listener == null) return;
+                    listener.onError(error, camera);
+                }
+            });
+        }
+    }
+
+    private static class InternalShutterCallback implements Camera.ShutterCallback {
+
+        private final CameraView cameraView;
+        private final Camera.ShutterCallback callback;
+
+        InternalShutterCallback(CameraView cameraView, Camera.ShutterCallback callback) {
+            this.cameraView = cameraView;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onShutter() {
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onShutter();
+                }
+            });
+        }
+    }
+
+    private static class InternalPictureCallback implements Camera.PictureCallback {
+        private final CameraView cameraView;
+        private final CaptureQueue.Request request;
+        private final boolean singleShot;
+        private final CapturePipeline pipeline;
+        private final int rotation;
+
+        InternalPictureCallback(CameraView cameraView, CaptureQueue.Request request, boolean singleShot,
+                                CapturePipeline pipeline, int rotation) {
+            this.cameraView = cameraView;
+            this.request = request;
+            this.singleShot = singleShot;
+            this.pipeline = pipeline;
+            this.rotation = rotation;
+        }
 
-        final int maxFocusAreas = parameters.getMaxNumFocusAreas(), maxMeteringAreas = parameters.getMaxNumMeteringAreas();
-        final ArrayList<Camera.Area> areas = new ArrayList<Camera.Area>();
-        if (event != null && maxFocusAreas > 0 && maxMeteringAreas > 0) {
-            final int viewWidth = getWidth(), viewHeight = getHeight();
-            final int rotation = 360 - getCameraRotation();
-            final Matrix matrix = new Matrix();
-            final RectF viewRect = new RectF(0, 0, viewWidth, viewHeight);
-            final RectF touchRect = new RectF(0, 0, event.getTouchMajor() / 2, event.getTouchMinor() / 2);
-            touchRect.offsetTo(event.getX() - touchRect.centerX(), event.getY() - touchRect.centerY());
-            matrix.setRotate(rotation);
-            matrix.mapRect(viewRect);
-            final float offsetX = -viewRect.left, offsetY = -viewRect.top;
-            viewRect.offset(offsetX, offsetY);
-            matrix.reset();
-            matrix.setRotate(rotation);
-            matrix.mapRect(touchRect);
-            touchRect.offset(offsetX, offsetY);
-
-
-            final float sizeRatioX = viewRect.width() / cameraDisplayBounds.width();
-            final float sizeRatioY = viewRect.height() / cameraDisplayBounds.height();
-
-            CameraUtils.scaleRect(cameraDisplayBounds, sizeRatioX, sizeRatioY);
-            CameraUtils.scaleRect(cameraBounds, sizeRatioX, sizeRatioY);
-
-            touchRect.offset(cameraDisplayBounds.left - cameraBounds.left,
-                    cameraDisplayBounds.top - cameraBounds.top);
-
-            final float areaRatioX = 2000f / cameraBounds.width();
-            final float areaRatioY = 2000f / cameraBounds.height();
-
-            CameraUtils.scaleRect(touchRect, areaRatioX, areaRatioY);
-
-
-            touchRect.offset(-1000, -1000);
-            final Rect focusRect = new Rect();
-            focusRect.left = CameraUtils.clamp(Math.round(touchRect.left), 1000, -1000);
-            focusRect.top = CameraUtils.clamp(Math.round(touchRect.top), 1000, -1000);
-            focusRect.right = CameraUtils.clamp(Math.round(touchRect.right), 1000, -1000);
-            focusRect.bottom = CameraUtils.clamp(Math.round(touchRect.bottom), 1000, -1000);
-
-            if (focusRect.left < focusRect.right && focusRect.top < focusRect.bottom) {
-                areas.add(new Camera.Area(focusRect, 1000));
+        @Override
+        public void onPictureTaken(final byte[] data, final Camera camera) {
+            if (pipeline != null) {
+                // Get preview back first, processing goes to pipeline thread
+                restartPreview(camera);
+                pipeline.submit(data, rotation);
+                dispatchPictureTaken(data, camera);
             } else {
-                Log.w(LOGTAG, String.format("Invalid focus area: %s", focusRect));
+                dispatchPictureTaken(data, camera);
+                restartPreview(camera);
             }
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    cameraView.onCaptureFinished(request, singleShot);
+                }
+            });
         }
-        if (areas.isEmpty()) {
-            parameters.setFocusAreas(null);
-            parameters.setMeteringAreas(null);
-        } else {
-            parameters.setFocusAreas(areas);
-            parameters.setMeteringAreas(areas);
-        }
-        try {
-            camera.setParameters(parameters);
-        } catch (Exception e) {
-            throw new IllegalStateException(String.format("Error while auto-focus, areas: %s", areas), e);
+
+        private void dispatchPictureTaken(final byte[] data, final Camera camera) {
+            if (!request.hasPictureCallback()) return;
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    request.onPictureTaken(data, camera);
+                }
+            });
         }
-        setAutoFocusing(true);
-        camera.autoFocus(new InternalAutoFocusCallback(this, callback));
-        return true;
-    }
 
-    protected Preview createPreview() {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
-            return new SurfacePreview(this);
-        return new TexturePreview(this);
+        private void restartPreview(Camera camera) {
+            if (singleShot) return;
+            camera.startPreview();
+            cameraView.setCameraPreviewStarted(true);
+        }
     }
 
-    protected Point getOverrideMeasureSize(Camera camera, Parameters parameters, int width, int height, int rotation) {
-        return null;
-    }
+    private static class TakePictureRunnable implements Runnable {
+        private final CameraView cameraView;
+        private final Camera camera;
+        private final CaptureQueue.Request request;
+        private final Camera.ShutterCallback shutterCallback;
+        private final Camera.PictureCallback pictureCallback;
+        private final boolean restartPreview;
+
+        TakePictureRunnable(CameraView cameraView, Camera camera, CaptureQueue.Request request,
+                            Camera.ShutterCallback shutterCallback, Camera.PictureCallback pictureCallback,
+                            boolean restartPreview) {
+            this.cameraView = cameraView;
+            this.camera = camera;
+            this.request = request;
+            this.shutterCallback = shutterCallback;
+            this.pictureCallback = pictureCallback;
+            this.restartPreview = restartPreview;
+        }
 
-    @Override
-    protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        final Preview preview = getPreview();
-        if (preview == null || !preview.isAddedToCameraView()) return;
-        preview.layoutPreview(changed, l, t, r, b);
+        @Override
+        public void run() {
+            try {
+                if (restartPreview) {
+                    // Camera can't take a picture while preview stopped
+                    camera.startPreview();
+                }
+                camera.takePicture(shutterCallback, null, pictureCallback);
+            } catch (RuntimeException e) {
+                Log.w(LOGTAG, "Unable to take picture", e);
+                cameraView.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        cameraView.onCaptureFinished(request, restartPreview);
+                    }
+                });
+            }
+        }
     }
 
-    private void addViewInternal(View child) {
-        super.addView(child);
-    }
+    /**
+     * Runs on camera thread, takes next picture right after previous JPEG data arrives
+     */
+    private static class BurstPictureCallback implements Camera.PictureCallback, Runnable {
+        private final CameraView cameraView;
+        private final Camera camera;
+        private final BurstCallback callback;
+        private final boolean lockExposure, lockWhiteBalance;
+        private final CapturePipeline pipeline;
+        private final int rotation;
+        private final long[] timestamps;
+        private long startTime;
+        private int taken;
+        // Set once result is posted, later pictures are dropped
+        private boolean finished;
+
+        BurstPictureCallback(CameraView cameraView, Camera camera, int count, BurstCallback callback,
+                             boolean lockExposure, boolean lockWhiteBalance, CapturePipeline pipeline,
+                             int rotation) {
+            this.cameraView = cameraView;
+            this.camera = camera;
+            this.callback = callback;
+            this.lockExposure = lockExposure;
+            this.lockWhiteBalance = lockWhiteBalance;
+            this.pipeline = pipeline;
+            this.rotation = rotation;
+            timestamps = new long[count];
+        }
 
-    private void attachMediaRecorder(MediaRecorder recorder) {
-        final Preview preview = getPreview();
-        if (preview != null) {
-            preview.attachMediaRecorder(recorder);
+        @Override
+        public void run() {
+            if (taken == 0) {
+                startTime = System.nanoTime();
+            }
+            final Exception error = requestPicture();
+            if (error != null) {
+                finish(error);
+            }
         }
-    }
 
-    private void detachMediaRecorder(MediaRecorder recorder) {
-        final Preview preview = getPreview();
-        if (preview != null) {
-            preview.detachMediaRecorder(recorder);
+        @Override
+        public void onPictureTaken(final byte[] data, Camera camera) {
+            if (finished) return;
+            final long timestamp = System.nanoTime();
+            final int index = taken++;
+            timestamps[index] = timestamp;
+            try {
+                camera.startPreview();
+            } catch (RuntimeException e) {
+                Log.w(LOGTAG, "Unable to restart preview during burst", e);
+                dispatchPicture(index, data, timestamp);
+                finish(e);
+                return;
+            }
+            // Request next picture before handing out data, so they overlap. Error is reported after
+            // this picture, so callback never gets a picture after burst ended
+            final Exception error = taken < timestamps.length ? requestPicture() : null;
+            dispatchPicture(index, data, timestamp);
+            if (error != null) {
+                finish(error);
+            } else if (taken == timestamps.length) {
+                finish(null);
+            }
         }
-    }
 
-    private void dispatchSetParameterBeforeStartPreview(Camera camera, Camera.Parameters parameters) {
-        if (mListener != null) {
-            mListener.setParameterBeforeStartPreview(camera, parameters);
+        /**
+         * @return Error if picture couldn't be requested, null otherwise
+         */
+        private Exception requestPicture() {
+            try {
+                camera.takePicture(null, null, this);
+                return null;
+            } catch (RuntimeException e) {
+                Log.w(LOGTAG, "Burst stopped at picture " + taken, e);
+                return e;
+            }
         }
-    }
 
-    private MediaRecorder getCurrentMediaRecorder() {
-        return mRecorder;
-    }
+        private void dispatchPicture(final int index, final byte[] data, final long timestamp) {
+            if (pipeline != null) {
+                pipeline.submit(data, rotation);
+            }
+            if (callback == null) return;
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onPictureTaken(index, data, timestamp);
+                }
+            });
+        }
 
-    private void setCurrentMediaRecorder(MediaRecorder recorder) {
-        mRecorder = recorder;
+        private void finish(final Exception error) {
+            finished = true;
+            final long[] taken = new long[this.taken];
+            System.arraycopy(timestamps, 0, taken, 0, taken.length);
+            final BurstResult result = new BurstResult(startTime, taken);
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    cameraView.onBurstFinished(camera, lockExposure, lockWhiteBalance);
+                    if (callback == null) return;
+                    if (error != null) {
+                        callback.onBurstError(error, result);
+                    } else {
+                        callback.onBurstCompleted(result);
+                    }
+                }
+            });
+        }
     }
 
-    private String getFlashModeBackup() {
-        return mFlashModeBackup;
-    }
+    private static class OpenCameraRunnable implements Runnable {
+        private final CameraView cameraView;
+        private final int cameraId;
 
-    private void setFlashModeBackup(String flashMode) {
-        mFlashModeBackup = flashMode;
-    }
+        OpenCameraRunnable(CameraView cameraView, int cameraId) {
+            this.cameraView = cameraView;
+            this.cameraId = cameraId;
+        }
 
-    private String getFlashModeDuringRecording() {
-        return mFlashModeDuringRecording;
+        @Override
+        public void run() {
+            try {
+                final Camera prewarmed = CameraPrewarmer.take(cameraId);
+                final Camera camera = prewarmed != null ? prewarmed : cameraView.openCameraDriver(cameraId);
+                final ParametersSnapshot snapshot = cameraView.initDriverParameters(camera, cameraId);
+                final Camera.Parameters editorParameters = camera.getParameters();
+                cameraView.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        cameraView.onCameraOpenedAsync(camera, cameraId, snapshot, editorParameters);
+                    }
+                });
+            } catch (final Exception e) {
+                cameraView.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        cameraView.onCameraOpeningErrorAsync(cameraId, e);
+                    }
+                });
+            }
+        }
     }
 
-    public void setFlashModeDuringRecording(String flashMode) {
-        mFlashModeDuringRecording = flashMode;
-    }
+    /**
+     * Runs on camera thread after prewarmed camera released
+     */
+    private static class PrewarmReleasedRunnable implements Runnable {
+        private final CameraView cameraView;
+        private final int cameraId;
 
-    private Point getPreviewSize(Camera camera, Camera.Parameters parameters, int width, int height,
-                                 int rotation) {
-        final List<Camera.Size> previewSizes = parameters.getSupportedPreviewSizes();
-        final Point overrideMeasureSize = getOverrideMeasureSize(camera, parameters, width, height, rotation);
-        final Point previewSize;
-        if (overrideMeasureSize != null) {
-            previewSize = CameraUtils.getBestSize(previewSizes, overrideMeasureSize.x,
-                    overrideMeasureSize.y, rotation);
-        } else {
-            previewSize = CameraUtils.getBestSize(previewSizes, width, height,
-                    rotation);
+        PrewarmReleasedRunnable(CameraView cameraView, int cameraId) {
+            this.cameraView = cameraView;
+            this.cameraId = cameraId;
         }
-        if (previewSize != null) return previewSize;
-        return CameraUtils.getLargestSize(previewSizes);
-    }
-
-    private int getVideoRotation() {
-        if (mOpeningCameraId == -1) return 0;
-        return CameraUtils.getPictureRotation(CameraUtils.getDisplayRotation(getContext()), mOpeningCameraId);
-    }
 
-    private void initPreview() {
-        if (getChildCount() > 0) throw new IllegalStateException("Preview has already initialized");
-        mPreview = createPreview();
-        addViewInternal(mPreview.getView());
+        @Override
+        public void run() {
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    cameraView.onPrewarmReleased(cameraId);
+                }
+            });
+        }
     }
 
-    private void notifyPreviewSizeChanged(int width, int height) {
-        final Preview preview = getPreview();
-        if (preview == null) return;
-        preview.notifyPreviewSizeChanged(width, height);
-    }
+    private static class DelayedReleaseRunnable implements Runnable {
+        private final CameraView cameraView;
 
-    private Camera openCameraSafely(final int cameraId) {
-        if (cameraId < 0) throw new IllegalStateException();
-        final Camera oldCamera = mOpeningCamera;
-        final int requiredCameraId = mRequiredCameraId;
-        if (oldCamera != null) {
-            if (mOpeningCameraId == cameraId) return oldCamera;
-            releaseCamera();
+        DelayedReleaseRunnable(CameraView cameraView) {
+            this.cameraView = cameraView;
         }
-        mRequiredCameraId = requiredCameraId;
-        try {
-            final Camera camera = Camera.open(cameraId);
-            mOpeningCameraId = cameraId;
-            mOpeningCamera = camera;
-            if (mListener != null) {
-                mListener.onCameraInitialized(camera);
-            }
-            camera.setErrorCallback(mListener);
-            return camera;
-        } catch (Exception e) {
-            Log.e(LOGTAG, String.format("Error opening camera %d", cameraId), e);
-            if (mListener != null) {
-                mListener.onCameraOpeningError(e);
-            }
+
+        @Override
+        public void run() {
+            cameraView.onReleaseDelayExpired();
         }
-        mOpeningCamera = null;
-        mOpeningCameraId = -1;
-        return null;
     }
 
-    private void restartPreview() {
-        final int requiredCameraId = mRequiredCameraId;
-        removeAllViews();
-        initPreview();
-        mRequiredCameraId = requiredCameraId;
-    }
+    private static class RegionsUpdateRunnable implements Runnable {
+        private final CameraView cameraView;
 
-    private void restorePictureSize(Parameters parameters) {
-        final Camera.Size size = mPictureSizeBackup;
-        if (size == null || parameters == null) return;
-        parameters.setPictureSize(size.width, size.height);
-    }
+        RegionsUpdateRunnable(CameraView cameraView) {
+            this.cameraView = cameraView;
+        }
 
-    private boolean shouldSetSizeForRecorder() {
-        final Preview preview = getPreview();
-        return preview != null && preview.shouldSetSizeForRecorder();
+        @Override
+        public void run() {
+            cameraView.applyPendingRegions();
+        }
     }
 
-    public static interface CameraListener extends Camera.ErrorCallback {
-        void onCameraInitialized(Camera camera);
+    private static class ReleaseCameraRunnable implements Runnable {
+        private final Preview preview;
+        private final Camera camera;
+        private final FrameBufferPool pool;
 
-        void onCameraOpeningError(Exception e);
+        ReleaseCameraRunnable(Preview preview, Camera camera, FrameBufferPool pool) {
+            this.preview = preview;
+            this.camera = camera;
+            this.pool = pool;
+        }
 
-        void setParameterBeforeStartPreview(Camera camera, Camera.Parameters parameters);
+        @Override
+        public void run() {
+            if (preview != null) {
+                preview.onPreReleaseCamera(camera);
+            }
+            if (pool != null) {
+                pool.detach(camera);
+            }
+            camera.release();
+        }
     }
 
-    public interface VideoRecordCallback extends MediaRecorder.OnInfoListener {
-        void onRecordError(Exception e);
+    private static class AttachFrameBufferPoolRunnable implements Runnable {
+        private final CameraView cameraView;
+        private final Camera camera;
+        private final FrameBufferPool oldPool, pool;
 
-        void onRecordStarted();
+        AttachFrameBufferPoolRunnable(CameraView cameraView, Camera camera, FrameBufferPool oldPool,
+                                      FrameBufferPool pool) {
+            this.cameraView = cameraView;
+            this.camera = camera;
+            this.oldPool = oldPool;
+            this.pool = pool;
+        }
 
-        void onRecordStopped();
+        @Override
+        public void run() {
+            if (oldPool != null) {
+                oldPool.detach(camera);
+            }
+            final ParametersSnapshot snapshot = cameraView.mDriverSnapshot;
+            if (pool == null || snapshot == null) return;
+            pool.attach(camera, snapshot.getPreviewWidth(), snapshot.getPreviewHeight(),
+                    snapshot.getPreviewFormat());
+        }
     }
 
-    private static class InternalAutoFocusCallback implements Camera.AutoFocusCallback {
-
-        private final CameraView cameraView;
-        private final Camera.AutoFocusCallback callback;
+    private static class SetDisplayOrientationRunnable implements Runnable {
+        private final Camera camera;
+        private final int rotation;
 
-        InternalAutoFocusCallback(CameraView cameraView, Camera.AutoFocusCallback callback) {
-            this.cameraView = cameraView;
-            this.callback = callback;
+        SetDisplayOrientationRunnable(Camera camera, int rotation) {
+            this.camera = camera;
+            this.rotation = rotation;
         }
 
         @Override
-        public void onAutoFocus(boolean success, Camera camera) {
-            if (callback != null) {
-                callback.onAutoFocus(success, camera);
-            }
-            cameraView.setAutoFocusing(false);
+        public void run() {
+            camera.setDisplayOrientation(rotation);
         }
     }
 
-    private static class InternalPictureCallback implements Camera.PictureCallback {
+    private static class CommitParametersRunnable implements Runnable {
         private final CameraView cameraView;
-        private final Camera.PictureCallback callback;
-        private final boolean singleShot;
+        private final Camera camera;
+        private final String flattened;
+        private final boolean restartPreview;
 
-        InternalPictureCallback(CameraView cameraView, Camera.PictureCallback callback, boolean singleShot) {
+        CommitParametersRunnable(CameraView cameraView, Camera camera, String flattened,
+                                 boolean restartPreview) {
             this.cameraView = cameraView;
-            this.callback = callback;
-            this.singleShot = singleShot;
+            this.camera = camera;
+            this.flattened = flattened;
+            this.restartPreview = restartPreview;
         }
 
         @Override
-        public void onPictureTaken(byte[] data, Camera camera) {
-            if (callback != null) {
-                callback.onPictureTaken(data, camera);
+        public void run() {
+            if (restartPreview) {
+                camera.stopPreview();
             }
-            if (!singleShot) {
+            if (flattened != null) {
+                commit();
+            }
+            if (restartPreview) {
                 camera.startPreview();
-                cameraView.setCameraPreviewStarted(true);
+                cameraView.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        cameraView.setCameraPreviewStarted(true);
+                    }
+                });
+            }
+        }
+
+        private void commit() {
+            final Camera.Parameters parameters = cameraView.mDriverParameters;
+            ParametersSnapshot snapshot;
+            boolean failed = false;
+            try {
+                parameters.unflatten(flattened);
+                camera.setParameters(parameters);
+                snapshot = new ParametersSnapshot(parameters, flattened, cameraView.mDriverSnapshot);
+            } catch (RuntimeException e) {
+                Log.w(LOGTAG, String.format("Error setting parameters %s", flattened), e);
+                final Camera.Parameters current = camera.getParameters();
+                snapshot = new ParametersSnapshot(current, current.flatten(), cameraView.mDriverSnapshot);
+                cameraView.mDriverParameters = current;
+                failed = true;
+            }
+            cameraView.mDriverSnapshot = snapshot;
+            final FrameBufferPool pool = cameraView.mFrameBufferPool;
+            if (pool != null) {
+                // Reallocates buffers if preview size or format changed
+                pool.attach(camera, snapshot.getPreviewWidth(), snapshot.getPreviewHeight(),
+                        snapshot.getPreviewFormat());
             }
+            final ParametersSnapshot committed = snapshot;
+            final boolean commitFailed = failed;
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    cameraView.onParametersCommitted(camera, committed, commitFailed);
+                }
+            });
         }
     }
 
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
     private static class RecordVideoRunnable implements Runnable {
 
-        private final CameraView cameraView;
-        private final MediaRecorder recorder;
-        private final VideoRecordCallback callback;
-        private final VideoRecordConfig config;
+        private final VideoRecordTransaction transaction;
 
-        private RecordVideoRunnable(CameraView cameraView, MediaRecorder recorder,
-                                    VideoRecordConfig config, VideoRecordCallback callback) {
-            this.cameraView = cameraView;
-            this.recorder = recorder;
-            this.callback = callback;
-            this.config = config;
+        private RecordVideoRunnable(VideoRecordTransaction transaction) {
+            this.transaction = transaction;
         }
 
         private static class NotifyRecordFailedRunnable implements Runnable {
-            private final VideoRecordCallback callback;
+            private final VideoRecordTransaction transaction;
             private final Exception exception;
 
-            public NotifyRecordFailedRunnable(VideoRecordCallback callback, Exception exception) {
-                this.callback = callback;
+            public NotifyRecordFailedRunnable(VideoRecordTransaction transaction, Exception exception) {
+                this.transaction = transaction;
                 this.exception = exception;
             }
 
             @Override
             public void run() {
-                if (callback == null) return;
-                callback.onRecordError(exception);
+                transaction.cameraView.onRecordFinished(transaction);
+                if (transaction.callback == null) return;
+                transaction.callback.onRecordError(exception);
             }
         }
 
@@ -644,17 +1992,12 @@ public class CameraView extends ViewGroup {
 
         @Override
         public void run() {
+            final CameraView cameraView = transaction.cameraView;
+            final Camera camera = transaction.camera;
+            final MediaRecorder recorder = transaction.recorder;
+            final VideoRecordConfig config = transaction.config;
+            final VideoRecordCallback callback = transaction.callback;
             try {
-                final Camera camera = cameraView.getOpeningCamera();
-                if (camera == null) return;
-                final String flashModeDuringRecording = cameraView.getFlashModeDuringRecording();
-                final Parameters parameters = camera.getParameters();
-                final List<String> flashModes = parameters.getSupportedFlashModes();
-                if (flashModes != null && flashModes.contains(flashModeDuringRecording)) {
-                    cameraView.setFlashModeBackup(parameters.getFlashMode());
-                    parameters.setFlashMode(flashModeDuringRecording);
-                }
-                camera.setParameters(parameters);
                 camera.unlock();
                 recorder.setCamera(camera);
                 recorder.setOnInfoListener(callback);
@@ -670,6 +2013,7 @@ public class CameraView extends ViewGroup {
                 cameraView.attachMediaRecorder(recorder);
                 recorder.prepare();
                 recorder.start();
+                transaction.started = true;
                 cameraView.mVideoRecordStarted = true;
                 cameraView.post(new NotifyRecordStartRunnable(callback));
             } catch (Exception e) {
@@ -677,12 +2021,13 @@ public class CameraView extends ViewGroup {
                 cameraView.detachMediaRecorder(recorder);
                 recorder.reset();
                 recorder.release();
-                final Camera camera = cameraView.getOpeningCamera();
-                if (camera != null) {
+                try {
                     camera.lock();
+                } catch (RuntimeException le) {
+                    // Camera was never unlocked
+                    Log.w(LOGTAG, le);
                 }
-                cameraView.setCurrentMediaRecorder(null);
-                cameraView.post(new NotifyRecordFailedRunnable(callback, e));
+                cameraView.post(new NotifyRecordFailedRunnable(transaction, e));
             }
         }
 
@@ -704,6 +2049,11 @@ public class CameraView extends ViewGroup {
             setProfile(CameraUtils.getDefaultVideoProfile(cameraId));
         }
 
+        VideoRecordConfig(CameraCapabilities capabilities) {
+            setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+            setProfile(CameraUtils.getDefaultVideoProfile(capabilities));
+        }
+
         /**
          * Gets the audio source to be used for recording.
          *
@@ -825,16 +2175,29 @@ public class CameraView extends ViewGroup {
         }
     }
 
+    /**
+     * Recording started by {@link #recordVideo(VideoRecordConfig, VideoRecordCallback)}. Start and
+     * stop run in call order on camera thread, so {@link #stop()} may be called any time after
+     * recording requested, even before {@link VideoRecordCallback#onRecordStarted()}.
+     */
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
     public static final class VideoRecordTransaction {
 
         private final CameraView cameraView;
+        private final Camera camera;
+        private final MediaRecorder recorder;
         private final VideoRecordConfig config;
         private final VideoRecordCallback callback;
+        private Future<Void> stopFuture;
+        // Written by start, read by stop, both run on camera thread
+        private volatile boolean started;
         private Object extra;
 
-        VideoRecordTransaction(CameraView cameraView, VideoRecordConfig config, VideoRecordCallback callback) {
+        VideoRecordTransaction(CameraView cameraView, Camera camera, MediaRecorder recorder,
+                               VideoRecordConfig config, VideoRecordCallback callback) {
             this.cameraView = cameraView;
+            this.camera = camera;
+            this.recorder = recorder;
             this.config = config;
             this.callback = callback;
         }
@@ -851,68 +2214,69 @@ public class CameraView extends ViewGroup {
             this.extra = extra;
         }
 
-        public void stop() {
-            final MediaRecorder recorder = cameraView.getCurrentMediaRecorder();
-            if (recorder == null) {
-                return;
+        /**
+         * Stops recording, should be called on main thread. This always returns immediately,
+         * recorder is stopped on camera thread and returned future completes once video file is
+         * finalized. {@link VideoRecordCallback#onRecordStopped()} is called on main thread after
+         * that. If recording failed to start, nothing is stopped and onRecordStopped is not called.
+         * <br>
+         * Don't wait for returned future on camera thread. Calling this again returns same future.
+         */
+        public Future<Void> stop() {
+            if (stopFuture != null) return stopFuture;
+            final FutureTask<Void> future = new FutureTask<>(new StopRecordRunnable(this), null);
+            stopFuture = future;
+            CameraThread.getInstance().post(future);
+            return future;
+        }
+
+        private static class StopRecordRunnable implements Runnable {
+            private final VideoRecordTransaction transaction;
+
+            StopRecordRunnable(VideoRecordTransaction transaction) {
+                this.transaction = transaction;
             }
-            try {
-                cameraView.detachMediaRecorder(recorder);
-                recorder.stop();
+
+            @Override
+            public void run() {
+                // Failed start already released recorder and notified error
+                if (!transaction.started) return;
+                final CameraView cameraView = transaction.cameraView;
+                final MediaRecorder recorder = transaction.recorder;
+                try {
+                    cameraView.detachMediaRecorder(recorder);
+                    recorder.stop();
+                } catch (RuntimeException e) {
+                    // No valid data received, stop() throws but recorder still needs release
+                    Log.w(LOGTAG, e);
+                }
                 recorder.reset();
                 recorder.release();
-            } catch (RuntimeException e) {
-                //Ignore
-            }
-            final Camera camera = cameraView.getOpeningCamera();
-            if (camera != null) {
-                camera.lock();
+                cameraView.mVideoRecordStarted = false;
+                final Camera camera = transaction.camera;
                 try {
+                    camera.lock();
                     camera.reconnect();
-                } catch (IOException e) {
+                } catch (IOException | RuntimeException e) {
                     Log.w(LOGTAG, e);
                 }
-                cameraView.setCameraPreviewStarted(false);
-                camera.stopPreview();
-                final Camera.Parameters parameters = camera.getParameters();
-                if (cameraView.shouldSetSizeForRecorder()) {
-                    final int width = cameraView.getWidth(), height = cameraView.getHeight();
-                    final int rotation = cameraView.getCameraRotation();
-                    final Point previewSize = cameraView.getPreviewSize(camera, parameters, width, height,
-                            rotation);
-                    parameters.setPreviewSize(previewSize.x, previewSize.y);
-                }
-                final List<String> flashModes = parameters.getSupportedFlashModes();
-                final String flashModeBackup = cameraView.getFlashModeBackup();
-                if (flashModes != null && flashModes.contains(flashModeBackup)) {
-                    parameters.setFlashMode(flashModeBackup);
-                }
-                cameraView.restorePictureSize(parameters);
-                cameraView.dispatchSetParameterBeforeStartPreview(camera, parameters);
-                camera.setParameters(parameters);
-                camera.startPreview();
-                cameraView.setCameraPreviewStarted(true);
-                if (cameraView.shouldSetSizeForRecorder()) {
-                    cameraView.notifyPreviewSizeChanged(0, 0);
-                }
+                cameraView.post(new NotifyRecordStopRunnable(transaction));
             }
-            cameraView.post(new NotifyRecordStopRunnable(callback));
-            cameraView.setCurrentMediaRecorder(null);
         }
 
-
         private static class NotifyRecordStopRunnable implements Runnable {
-            private final VideoRecordCallback callback;
+            private final VideoRecordTransaction transaction;
 
-            public NotifyRecordStopRunnable(VideoRecordCallback callback) {
-                this.callback = callback;
+            public NotifyRecordStopRunnable(VideoRecordTransaction transaction) {
+                this.transaction = transaction;
             }
 
             @Override
             public void run() {
-                if (callback == null) return;
-                callback.onRecordStopped();
+                transaction.cameraView.onRecordFinished(transaction);
+                if (transaction.callback == null) return;
+                transaction.callback.onRecordStopped();
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,198 @@
+package org.mariotaku.simplecamera;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps {@link CameraCapabilities} of each camera in app cache directory, so on next launch
+ * preview size can be chosen before {@link android.hardware.Camera#open(int)} returns.
+ * <br>
+ * Files are versioned and keyed by {@link Build#FINGERPRINT}, so they are ignored after system
+ * update. Cached values are validated against opened camera and rewritten in background.
+ * <br>
+ * Main thread should only use {@link #peek(int)}, files are read without holding any lock so a
+ * slow read never blocks it.
+ */
+final class CapabilityCache {
+
+    private static final int MAGIC = 0x53434343;
+    private static final int VERSION = 1;
+    private static final String DIRECTORY_NAME = "camera_capabilities";
+
+    private static CapabilityCache sInstance;
+
+    private final Context mContext;
+    private final ConcurrentHashMap<Integer, CameraCapabilities> mCapabilities = new ConcurrentHashMap<>();
+    // Camera IDs already looked up on disk, including ones without valid file
+    private final Set<Integer> mLoaded = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    // Camera IDs waiting to be read by executor
+    private final Set<Integer> mPreloading = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final ThreadPoolExecutor mExecutor;
+    // Resolved on first disk access, getCacheDir() may touch disk too
+    private volatile File mDirectory;
+
+    private CapabilityCache(Context context) {
+        mContext = context;
+        mExecutor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    static synchronized CapabilityCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CapabilityCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * May read from disk on first call for camera, use {@link #peek(int)} on main thread.
+     *
+     * @return Cached capabilities, or null if not cached
+     */
+    CameraCapabilities get(int cameraId) {
+        final CameraCapabilities loaded = mCapabilities.get(cameraId);
+        if (loaded != null || mLoaded.contains(cameraId)) return loaded;
+        // Threads racing here just read same file twice
+        final CameraCapabilities capabilities = read(cameraId);
+        if (capabilities != null) {
+            // Keep capabilities validated against opened camera meanwhile
+            mCapabilities.putIfAbsent(cameraId, capabilities);
+        }
+        mLoaded.add(cameraId);
+        return mCapabilities.get(cameraId);
+    }
+
+    /**
+     * Never touches disk. If capabilities are not loaded yet, they are read in background for
+     * next call.
+     *
+     * @return Capabilities already in memory, or null
+     */
+    CameraCapabilities peek(int cameraId) {
+        final CameraCapabilities loaded = mCapabilities.get(cameraId);
+        if (loaded == null && !mLoaded.contains(cameraId)) {
+            preload(cameraId);
+        }
+        return loaded;
+    }
+
+    /**
+     * Reads cached capabilities from disk in background, so {@link #get(int)} won't block later
+     */
+    void preload(final int cameraId) {
+        if (mLoaded.contains(cameraId) || !mPreloading.add(cameraId)) return;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                get(cameraId);
+                mPreloading.remove(cameraId);
+            }
+        });
+    }
+
+    /**
+     * Compares capabilities read from opened camera with cached ones in background, cache is
+     * updated if they differ
+     */
+    void validate(final CameraCapabilities capabilities) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int cameraId = capabilities.getCameraId();
+                final CameraCapabilities cached = get(cameraId);
+                if (cached != null && cached.isSameCamera(capabilities)) return;
+                final CameraCapabilities updated = capabilities.hasVideoQualities() ? capabilities
+                        : capabilities.withVideoQualities(CameraCapabilities.probeVideoQualities(cameraId));
+                mCapabilities.put(cameraId, updated);
+                write(updated);
+            }
+        });
+    }
+
+    private File getDirectory() {
+        File directory = mDirectory;
+        if (directory == null) {
+            directory = new File(mContext.getCacheDir(), DIRECTORY_NAME);
+            mDirectory = directory;
+        }
+        return directory;
+    }
+
+    private File getFile(int cameraId) {
+        return new File(getDirectory(), "camera_" + cameraId);
+    }
+
+    private CameraCapabilities read(int cameraId) {
+        final File file = getFile(cameraId);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            if (!Build.FINGERPRINT.equals(in.readUTF())) return null;
+            final CameraCapabilities capabilities = CameraCapabilities.readFrom(in);
+            if (capabilities.getCameraId() != cameraId) return null;
+            return capabilities;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(CameraView.LOGTAG, "Invalid capability cache " + file, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void write(CameraCapabilities capabilities) {
+        final File directory = getDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) return;
+        final File file = getFile(capabilities.getCameraId());
+        final File tempFile = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(Build.FINGERPRINT);
+            capabilities.writeTo(out);
+            out.close();
+            out = null;
+            // Readers never see a partially written file
+            if (!tempFile.renameTo(file)) {
+                Log.w(CameraView.LOGTAG, "Unable to write capability cache " + file);
+            }
+        } catch (IOException e) {
+            Log.w(CameraView.LOGTAG, "Unable to write capability cache " + file, e);
+        } finally {
+            closeQuietly(out);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
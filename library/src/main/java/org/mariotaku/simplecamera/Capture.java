@@ -0,0 +1,85 @@
+package org.mariotaku.simplecamera;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+
+/**
+ * A picture passing through {@link CapturePipeline}, stages read and replace its data in order.
+ */
+public final class Capture {
+
+    private final int rotation;
+    private final long timestamp;
+    private final long takenTime;
+    private volatile byte[] jpeg;
+    private volatile boolean rotationApplied;
+    private volatile Bitmap thumbnail;
+    private volatile File file;
+
+    Capture(byte[] jpeg, int rotation, long timestamp, long takenTime) {
+        this.jpeg = jpeg;
+        this.rotation = rotation;
+        this.timestamp = timestamp;
+        this.takenTime = takenTime;
+    }
+
+    public byte[] getJpeg() {
+        return jpeg;
+    }
+
+    public void setJpeg(byte[] jpeg) {
+        this.jpeg = jpeg;
+    }
+
+    /**
+     * @return Clockwise rotation needed for picture to be upright, see {@link CameraView#getPictureRotation()}
+     */
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return Whether {@link #getJpeg()} already has rotation applied (e.g. as EXIF orientation)
+     */
+    public boolean isRotationApplied() {
+        return rotationApplied;
+    }
+
+    public void setRotationApplied(boolean rotationApplied) {
+        this.rotationApplied = rotationApplied;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when JPEG data arrived
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return {@link System#currentTimeMillis()} when JPEG data arrived
+     */
+    public long getTakenTime() {
+        return takenTime;
+    }
+
+    public Bitmap getThumbnail() {
+        return thumbnail;
+    }
+
+    public void setThumbnail(Bitmap thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
+    /**
+     * @return File picture written to, or null if not written
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+}
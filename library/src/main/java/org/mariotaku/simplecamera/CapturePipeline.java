@@ -0,0 +1,241 @@
+package org.mariotaku.simplecamera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes pictures taken by {@link CameraView} on a background thread, set with
+ * {@link CameraView#setCapturePipeline(CapturePipeline)}.
+ * <br>
+ * With a pipeline set, preview is restarted as soon as JPEG data arrives and the data is queued
+ * here, so next picture can be taken while previous one is still being processed. Stages run in
+ * order on a single worker thread, completion is reported through returned {@link Future} and
+ * {@link Listener} on main thread.
+ */
+public class CapturePipeline {
+
+    private final Stage[] stages;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler;
+    private volatile Listener listener;
+
+    /**
+     * @param maxPending Max number of pictures waiting to be processed, pictures arriving when
+     *                   queue is full will fail with {@link RejectedExecutionException}
+     * @param stages     Stages every picture goes through, in order
+     */
+    public CapturePipeline(int maxPending, Stage... stages) {
+        this.stages = stages.clone();
+        executor = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxPending));
+        executor.allowCoreThreadTimeOut(true);
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues picture to be processed
+     *
+     * @param jpeg     JPEG data
+     * @param rotation Clockwise rotation needed for picture to be upright
+     */
+    public Future<Capture> submit(byte[] jpeg, int rotation) {
+        final Capture capture = new Capture(jpeg, rotation, System.nanoTime(), System.currentTimeMillis());
+        final CaptureTask task = new CaptureTask(this, capture);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.reject(e);
+        }
+        return task;
+    }
+
+    /**
+     * @return Number of pictures queued or being processed
+     */
+    public int getPendingCount() {
+        return executor.getQueue().size() + executor.getActiveCount();
+    }
+
+    /**
+     * Stops accepting pictures, queued pictures will still be processed
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Sets EXIF orientation from {@link Capture#getRotation()}, see {@link JpegExif}
+     */
+    public static Stage newOrientationStage() {
+        return new OrientationStage();
+    }
+
+    /**
+     * Makes thumbnail from embedded EXIF thumbnail, or subsampled decoding if there isn't one
+     *
+     * @param maxSize Max width and height of decoded thumbnail when there's no EXIF thumbnail
+     */
+    public static Stage newThumbnailStage(int maxSize) {
+        return new ThumbnailStage(maxSize);
+    }
+
+    /**
+     * Writes JPEG data to a new file in directory, named after {@link Capture#getTakenTime()}
+     */
+    public static Stage newWriteStage(File directory) {
+        return new WriteStage(directory);
+    }
+
+    private void process(Capture capture) throws Exception {
+        for (Stage stage : stages) {
+            stage.process(capture);
+        }
+    }
+
+    private void dispatchResult(final CaptureTask task) {
+        final Listener listener = this.listener;
+        if (listener == null) return;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (task.error != null) {
+                    listener.onCaptureFailed(task.capture, task.error);
+                } else if (!task.isCancelled()) {
+                    listener.onCaptureProcessed(task.capture);
+                }
+            }
+        });
+    }
+
+    public interface Stage {
+        /**
+         * Called on pipeline thread
+         */
+        void process(Capture capture) throws Exception;
+    }
+
+    public interface Listener {
+        void onCaptureProcessed(Capture capture);
+
+        void onCaptureFailed(Capture capture, Exception e);
+    }
+
+    private static class CaptureTask extends FutureTask<Capture> {
+        private final CapturePipeline pipeline;
+        private final Capture capture;
+        private Exception error;
+
+        CaptureTask(final CapturePipeline pipeline, final Capture capture) {
+            super(new Callable<Capture>() {
+                @Override
+                public Capture call() throws Exception {
+                    pipeline.process(capture);
+                    return capture;
+                }
+            });
+            this.pipeline = pipeline;
+            this.capture = capture;
+        }
+
+        void reject(RejectedExecutionException e) {
+            setException(e);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            error = t instanceof Exception ? (Exception) t : new RuntimeException(t);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            pipeline.dispatchResult(this);
+        }
+    }
+
+    private static class OrientationStage implements Stage {
+        @Override
+        public void process(Capture capture) throws IOException {
+            if (capture.isRotationApplied()) return;
+            capture.setJpeg(JpegExif.setOrientation(capture.getJpeg(), capture.getRotation()));
+            capture.setRotationApplied(true);
+        }
+    }
+
+    private static class ThumbnailStage implements Stage {
+        private final int maxSize;
+
+        ThumbnailStage(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void process(Capture capture) {
+            final byte[] jpeg = capture.getJpeg();
+            final JpegMetadata metadata = new JpegMetadata();
+            if (!metadata.read(jpeg)) return;
+            final Bitmap thumbnail;
+            if (metadata.hasThumbnail()) {
+                thumbnail = BitmapFactory.decodeByteArray(jpeg, metadata.getThumbnailOffset(),
+                        metadata.getThumbnailLength());
+            } else {
+                final BitmapFactory.Options o = new BitmapFactory.Options();
+                int sampleSize = 1;
+                while (Math.max(metadata.getWidth(), metadata.getHeight()) / (sampleSize * 2) >= maxSize) {
+                    sampleSize *= 2;
+                }
+                o.inSampleSize = sampleSize;
+                thumbnail = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, o);
+            }
+            capture.setThumbnail(thumbnail);
+        }
+    }
+
+    private static class WriteStage implements Stage {
+        private final File directory;
+
+        WriteStage(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void process(Capture capture) throws IOException {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Unable to create " + directory);
+            File file = new File(directory, "IMG_" + capture.getTakenTime() + ".jpg");
+            for (int i = 1; file.exists(); i++) {
+                file = new File(directory, "IMG_" + capture.getTakenTime() + "_" + i + ".jpg");
+            }
+            final FileOutputStream os = new FileOutputStream(file);
+            try {
+                final FileChannel channel = os.getChannel();
+                final ByteBuffer buffer = ByteBuffer.wrap(capture.getJpeg());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                os.close();
+            }
+            capture.setFile(file);
+        }
+    }
+}
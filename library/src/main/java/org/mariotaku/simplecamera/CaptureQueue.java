@@ -0,0 +1,206 @@
+package org.mariotaku.simplecamera;
+
+import android.hardware.Camera;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Serializes {@link CameraView#takePicture(Camera.ShutterCallback, Camera.PictureCallback)}
+ * calls, so a picture is only requested after previous one completed. Obtain with
+ * {@link CameraView#getCaptureQueue()}.
+ * <br>
+ * At most {@link #getMaxDepth()} requests wait behind the one being taken, requests arriving
+ * when queue is full are handled according to {@link OverflowPolicy}.
+ */
+public final class CaptureQueue {
+
+    static final int OFFER_STARTED = 0;
+    static final int OFFER_QUEUED = 1;
+    static final int OFFER_REJECTED = 2;
+
+    private final ArrayDeque<Request> pending = new ArrayDeque<>();
+    private Request active;
+    private int maxDepth = 2;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+    private long totalWaitTime, maxWaitTime;
+    private int startedCount, rejectedCount, coalescedCount;
+
+    CaptureQueue() {
+    }
+
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxDepth Max number of requests waiting behind the one being taken
+     */
+    public synchronized void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) throw new IllegalArgumentException("maxDepth must not be negative");
+        this.maxDepth = maxDepth;
+    }
+
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public synchronized void setOverflowPolicy(OverflowPolicy policy) {
+        if (policy == null) throw new NullPointerException();
+        overflowPolicy = policy;
+    }
+
+    /**
+     * @return Number of requests waiting, not including the one being taken
+     */
+    public synchronized int getDepth() {
+        return pending.size();
+    }
+
+    public synchronized boolean isCapturing() {
+        return active != null;
+    }
+
+    /**
+     * @return Average time requests waited before picture requested, in milliseconds
+     */
+    public synchronized float getAverageWaitTime() {
+        if (startedCount == 0) return 0;
+        return totalWaitTime / 1000000f / startedCount;
+    }
+
+    /**
+     * @return Longest time a request waited before picture requested, in milliseconds
+     */
+    public synchronized float getMaxWaitTime() {
+        return maxWaitTime / 1000000f;
+    }
+
+    public synchronized int getStartedCount() {
+        return startedCount;
+    }
+
+    public synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public synchronized int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized void resetStatistics() {
+        totalWaitTime = 0;
+        maxWaitTime = 0;
+        startedCount = 0;
+        rejectedCount = 0;
+        coalescedCount = 0;
+    }
+
+    /**
+     * @return {@link #OFFER_STARTED} if queue was idle and request should be started now
+     */
+    synchronized int offer(Request request) {
+        if (active == null) {
+            start(request);
+            return OFFER_STARTED;
+        }
+        if (pending.size() < maxDepth) {
+            pending.add(request);
+            return OFFER_QUEUED;
+        }
+        final Request last = pending.peekLast();
+        if (overflowPolicy == OverflowPolicy.COALESCE && last != null) {
+            // Callers share the picture of last waiting request
+            last.merge(request);
+            coalescedCount++;
+            return OFFER_QUEUED;
+        }
+        rejectedCount++;
+        return OFFER_REJECTED;
+    }
+
+    /**
+     * @return Next request to start, or null
+     */
+    synchronized Request finish(Request request) {
+        if (request != active) return null;
+        active = null;
+        final Request next = pending.poll();
+        if (next != null) {
+            start(next);
+        }
+        return next;
+    }
+
+    /**
+     * Drops all requests, their callbacks will not be called
+     */
+    synchronized void clear() {
+        active = null;
+        pending.clear();
+    }
+
+    private void start(Request request) {
+        active = request;
+        final long waitTime = System.nanoTime() - request.enqueueTime;
+        totalWaitTime += waitTime;
+        maxWaitTime = Math.max(maxWaitTime, waitTime);
+        startedCount++;
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Request is rejected, {@link CameraView#takePicture(Camera.ShutterCallback, Camera.PictureCallback)}
+         * returns false
+         */
+        REJECT,
+        /**
+         * Request is merged into last waiting one, its callbacks receive the same picture. Same as
+         * {@link #REJECT} when max depth is 0
+         */
+        COALESCE
+    }
+
+    static final class Request implements Camera.ShutterCallback, Camera.PictureCallback {
+        private final long enqueueTime;
+        private final ArrayList<Camera.ShutterCallback> shutterCallbacks = new ArrayList<>(1);
+        private final ArrayList<Camera.PictureCallback> pictureCallbacks = new ArrayList<>(1);
+
+        Request(Camera.ShutterCallback shutter, Camera.PictureCallback jpeg) {
+            enqueueTime = System.nanoTime();
+            if (shutter != null) {
+                shutterCallbacks.add(shutter);
+            }
+            if (jpeg != null) {
+                pictureCallbacks.add(jpeg);
+            }
+        }
+
+        boolean hasShutterCallback() {
+            return !shutterCallbacks.isEmpty();
+        }
+
+        boolean hasPictureCallback() {
+            return !pictureCallbacks.isEmpty();
+        }
+
+        @Override
+        public void onShutter() {
+            for (Camera.ShutterCallback callback : shutterCallbacks) {
+                callback.onShutter();
+            }
+        }
+
+        @Override
+        public void onPictureTaken(byte[] data, Camera camera) {
+            for (Camera.PictureCallback callback : pictureCallbacks) {
+                callback.onPictureTaken(data, camera);
+            }
+        }
+
+        private void merge(Request request) {
+            shutterCallbacks.addAll(request.shutterCallbacks);
+            pictureCallbacks.addAll(request.pictureCallbacks);
+        }
+    }
+}
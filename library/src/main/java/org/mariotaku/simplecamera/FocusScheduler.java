@@ -0,0 +1,380 @@
+package org.mariotaku.simplecamera;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Schedules auto focus requests of
+ * {@link CameraView#touchFocus(android.view.MotionEvent, Camera.AutoFocusCallback)} and
+ * {@link CameraView#focus(CameraRegions, CameraRegions, Camera.AutoFocusCallback)}, obtain with
+ * {@link CameraView#getFocusScheduler()}. All methods should be called on main thread.
+ * <br>
+ * A request runs immediately unless another one was dispatched within
+ * {@link #getDebounceDelay()}. Requests arriving within that window wait for its end and are
+ * coalesced into the latest one. A request superseding a running one cancels it with
+ * {@link Camera#cancelAutoFocus()}. Callbacks of coalesced, superseded and timed out requests
+ * receive false.
+ * <br>
+ * Some devices never call {@link Camera.AutoFocusCallback}, so a request not completed within
+ * {@link #getTimeout()} is cancelled. With continuous fallback enabled, camera is then switched
+ * to {@link Camera.Parameters#FOCUS_MODE_CONTINUOUS_PICTURE} and later requests only set focus
+ * areas, reporting false as focus is not locked. After
+ * {@link #getContinuousFallbackRetryInterval()} auto focus is tried again, and previous focus mode
+ * is restored once the camera calls back.
+ */
+public final class FocusScheduler {
+
+    private static final long[] LATENCY_BUCKET_BOUNDS = {100, 200, 400, 800, 1600, 3200};
+
+    private final CameraView cameraView;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPending();
+        }
+    };
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+    private long debounceDelay = 100;
+    private long timeout = 3000;
+    private long continuousFallbackRetryInterval = 10000;
+    private boolean continuousFallbackEnabled = true;
+    private boolean continuousFallbackActive;
+    // Focus mode before fallback, and when fallback started or auto focus was last retried
+    private String fallbackFocusMode;
+    private long fallbackTime;
+    private Request pending, active;
+    private int generation;
+    private long lastDispatchTime = -1;
+    private final int[] latencyHistogram = new int[LATENCY_BUCKET_BOUNDS.length + 1];
+    private int completedCount, failedCount, timedOutCount, supersededCount, coalescedCount;
+
+    FocusScheduler(CameraView cameraView) {
+        this.cameraView = cameraView;
+    }
+
+    /**
+     * @return Upper bounds of {@link #getLatencyHistogram()} buckets in milliseconds, last bucket
+     * has no upper bound
+     */
+    public static long[] getLatencyBucketBounds() {
+        return LATENCY_BUCKET_BOUNDS.clone();
+    }
+
+    public long getDebounceDelay() {
+        return debounceDelay;
+    }
+
+    /**
+     * @param delay Time in milliseconds after a dispatched request in which newer ones are
+     *              coalesced, 0 to always run immediately
+     */
+    public void setDebounceDelay(long delay) {
+        if (delay < 0) throw new IllegalArgumentException("delay must not be negative");
+        debounceDelay = delay;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout Time in milliseconds to wait for {@link Camera.AutoFocusCallback}
+     */
+    public void setTimeout(long timeout) {
+        if (timeout <= 0) throw new IllegalArgumentException("timeout must be positive");
+        this.timeout = timeout;
+    }
+
+    public boolean isContinuousFallbackEnabled() {
+        return continuousFallbackEnabled;
+    }
+
+    public void setContinuousFallbackEnabled(boolean enabled) {
+        continuousFallbackEnabled = enabled;
+    }
+
+    public long getContinuousFallbackRetryInterval() {
+        return continuousFallbackRetryInterval;
+    }
+
+    /**
+     * @param interval Time in milliseconds continuous fallback lasts before auto focus is tried
+     *                 again
+     */
+    public void setContinuousFallbackRetryInterval(long interval) {
+        if (interval <= 0) throw new IllegalArgumentException("interval must be positive");
+        continuousFallbackRetryInterval = interval;
+    }
+
+    /**
+     * @return Whether camera was switched to continuous focus after a request timed out
+     */
+    public boolean isContinuousFallbackActive() {
+        return continuousFallbackActive;
+    }
+
+    /**
+     * @return Whether a request is waiting or running
+     */
+    public boolean isBusy() {
+        return pending != null || active != null;
+    }
+
+    /**
+     * @return Counts of completed requests by focus lock latency, see {@link #getLatencyBucketBounds()}
+     */
+    public int[] getLatencyHistogram() {
+        return latencyHistogram.clone();
+    }
+
+    /**
+     * @return Number of requests camera reported focused
+     */
+    public int getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * @return Number of requests camera reported unable to focus
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    public int getTimedOutCount() {
+        return timedOutCount;
+    }
+
+    public int getSupersededCount() {
+        return supersededCount;
+    }
+
+    public int getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public void resetStatistics() {
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            latencyHistogram[i] = 0;
+        }
+        completedCount = 0;
+        failedCount = 0;
+        timedOutCount = 0;
+        supersededCount = 0;
+        coalescedCount = 0;
+    }
+
+    /**
+     * @param focusAreas    Focus areas, or null for camera default
+     * @param meteringAreas Metering areas, or null for camera default
+     * @param callback      Callback, called on main thread
+     */
+    void request(List<Camera.Area> focusAreas, List<Camera.Area> meteringAreas, Camera.AutoFocusCallback callback) {
+        final Request request = new Request(focusAreas, meteringAreas, callback);
+        // Pictures taken while waiting would be out of focus
+        cameraView.setAutoFocusing(true);
+        if (pending != null) {
+            // Dispatch is already scheduled at end of window
+            coalescedCount++;
+            final Request coalesced = pending;
+            pending = request;
+            coalesced.notifyFinished(false, cameraView.getOpeningCamera());
+            return;
+        }
+        pending = request;
+        final long wait = lastDispatchTime < 0 ? 0 : lastDispatchTime + debounceDelay - SystemClock.uptimeMillis();
+        if (wait > 0) {
+            handler.postDelayed(dispatchRunnable, wait);
+        } else {
+            dispatchPending();
+        }
+    }
+
+    /**
+     * Drops all requests without calling their callbacks, called when camera released
+     */
+    void reset() {
+        handler.removeCallbacks(dispatchRunnable);
+        handler.removeCallbacks(timeoutRunnable);
+        pending = null;
+        active = null;
+        generation++;
+        lastDispatchTime = -1;
+        continuousFallbackActive = false;
+        fallbackFocusMode = null;
+        cameraView.setAutoFocusing(false);
+    }
+
+    void onAutoFocus(int generation, boolean success, Camera camera) {
+        final Request request = active;
+        // Callback of cancelled request may still arrive
+        if (request == null || generation != this.generation) return;
+        handler.removeCallbacks(timeoutRunnable);
+        active = null;
+        final long latency = SystemClock.uptimeMillis() - request.startTime;
+        latencyHistogram[getLatencyBucket(latency)]++;
+        if (success) {
+            completedCount++;
+        } else {
+            failedCount++;
+        }
+        if (continuousFallbackActive) {
+            // Camera calls back again, auto focus works
+            continuousFallbackActive = false;
+            if (fallbackFocusMode != null) {
+                cameraView.edit().setFocusMode(fallbackFocusMode).commit();
+            }
+            fallbackFocusMode = null;
+        }
+        cameraView.setAutoFocusing(pending != null);
+        request.notifyFinished(success, camera);
+    }
+
+    private void dispatchPending() {
+        final Request request = pending;
+        final Camera camera = cameraView.getOpeningCamera();
+        pending = null;
+        if (request == null) return;
+        lastDispatchTime = SystemClock.uptimeMillis();
+        if (camera == null) {
+            cameraView.setAutoFocusing(false);
+            request.notifyFinished(false, null);
+            return;
+        }
+        final Request oldRequest = active;
+        if (oldRequest != null) {
+            handler.removeCallbacks(timeoutRunnable);
+            active = null;
+            supersededCount++;
+            cameraView.runOnCameraThread(new CancelAutoFocusRunnable(camera));
+            oldRequest.notifyFinished(false, camera);
+        }
+        final ParametersEditor editor = cameraView.edit();
+        editor.setFocusAreas(request.focusAreas);
+        editor.setMeteringAreas(request.meteringAreas);
+        editor.commit();
+        if (continuousFallbackActive && lastDispatchTime - fallbackTime < continuousFallbackRetryInterval) {
+            // Camera keeps focusing by itself, but focus is not known to be locked
+            cameraView.setAutoFocusing(false);
+            request.notifyFinished(false, camera);
+            return;
+        }
+        active = request;
+        generation++;
+        request.startTime = lastDispatchTime;
+        handler.postDelayed(timeoutRunnable, timeout);
+        cameraView.runOnCameraThread(new AutoFocusRunnable(cameraView, camera, generation));
+    }
+
+    private void onTimeout() {
+        final Request request = active;
+        if (request == null) return;
+        final Camera camera = cameraView.getOpeningCamera();
+        active = null;
+        generation++;
+        timedOutCount++;
+        Log.w(CameraView.LOGTAG, String.format("Auto focus not finished in %d ms", timeout));
+        cameraView.setAutoFocusing(pending != null);
+        if (camera != null) {
+            cameraView.runOnCameraThread(new CancelAutoFocusRunnable(camera));
+            final ParametersSnapshot snapshot = cameraView.getParametersSnapshot();
+            if (continuousFallbackActive) {
+                // Retry failed as well, wait another interval
+                fallbackTime = SystemClock.uptimeMillis();
+            } else if (continuousFallbackEnabled && snapshot != null
+                    && snapshot.isFocusModeSupported(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+                continuousFallbackActive = true;
+                fallbackFocusMode = snapshot.getFocusMode();
+                fallbackTime = SystemClock.uptimeMillis();
+                cameraView.edit().setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE).commit();
+            }
+        }
+        request.notifyFinished(false, camera);
+    }
+
+    private static int getLatencyBucket(long latency) {
+        for (int i = 0; i < LATENCY_BUCKET_BOUNDS.length; i++) {
+            if (latency < LATENCY_BUCKET_BOUNDS[i]) return i;
+        }
+        return LATENCY_BUCKET_BOUNDS.length;
+    }
+
+    private static class Request {
+        private final List<Camera.Area> focusAreas, meteringAreas;
+        private final Camera.AutoFocusCallback callback;
+        private long startTime;
+
+        Request(List<Camera.Area> focusAreas, List<Camera.Area> meteringAreas, Camera.AutoFocusCallback callback) {
+            this.focusAreas = focusAreas;
+            this.meteringAreas = meteringAreas;
+            this.callback = callback;
+        }
+
+        void notifyFinished(boolean success, Camera camera) {
+            if (callback != null) {
+                callback.onAutoFocus(success, camera);
+            }
+        }
+    }
+
+    private static class AutoFocusRunnable implements Runnable, Camera.AutoFocusCallback {
+        private final CameraView cameraView;
+        private final Camera camera;
+        private final int generation;
+
+        AutoFocusRunnable(CameraView cameraView, Camera camera, int generation) {
+            this.cameraView = cameraView;
+            this.camera = camera;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                camera.autoFocus(this);
+            } catch (RuntimeException e) {
+                Log.w(CameraView.LOGTAG, e);
+                onAutoFocus(false, camera);
+            }
+        }
+
+        @Override
+        public void onAutoFocus(final boolean success, final Camera camera) {
+            cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    cameraView.getFocusScheduler().onAutoFocus(generation, success, camera);
+                }
+            });
+        }
+    }
+
+    private static class CancelAutoFocusRunnable implements Runnable {
+        private final Camera camera;
+
+        CancelAutoFocusRunnable(Camera camera) {
+            this.camera = camera;
+        }
+
+        @Override
+        public void run() {
+            try {
+                camera.cancelAutoFocus();
+            } catch (RuntimeException e) {
+                // Camera may be released already
+                Log.w(CameraView.LOGTAG, e);
+            }
+        }
+    }
+}
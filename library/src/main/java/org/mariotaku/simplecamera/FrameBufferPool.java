@@ -0,0 +1,104 @@
+package org.mariotaku.simplecamera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.Looper;
+
+/**
+ * Ring of preallocated preview buffers fed to {@link Camera#addCallbackBuffer(byte[])}, so no
+ * buffer is allocated per frame. Buffers are reallocated only when preview size or format changes.
+ */
+final class FrameBufferPool implements Camera.PreviewCallback {
+
+    private final CameraView.PreviewFrameCallback callback;
+    private final int bufferCount;
+
+    private Camera camera;
+    private PreviewFrame[] frames;
+    private int width, height, format;
+    private int generation;
+
+    FrameBufferPool(CameraView.PreviewFrameCallback callback, int bufferCount) {
+        if (bufferCount < 1) throw new IllegalArgumentException("bufferCount must be positive");
+        this.callback = callback;
+        this.bufferCount = bufferCount;
+    }
+
+    static int getBufferSize(int width, int height, int format) {
+        if (format == ImageFormat.YV12) {
+            // Y and UV planes are aligned to 16 pixels
+            final int yStride = align(width, 16), uvStride = align(yStride / 2, 16);
+            return yStride * height + uvStride * height / 2 * 2;
+        }
+        return width * height * ImageFormat.getBitsPerPixel(format) / 8;
+    }
+
+    /**
+     * Attaches to camera with preview size and format, called on camera thread
+     */
+    synchronized void attach(Camera camera, int width, int height, int format) {
+        if (width <= 0 || height <= 0) return;
+        if (this.camera == camera && frames != null && width == this.width && height == this.height
+                && format == this.format) return;
+        this.camera = camera;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        // Buffers still held by consumers belong to previous generation and will be dropped
+        generation++;
+        camera.setPreviewCallbackWithBuffer(this);
+        final int bufferSize = getBufferSize(width, height, format);
+        frames = new PreviewFrame[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            final PreviewFrame frame = new PreviewFrame(this, new byte[bufferSize], width, height,
+                    format, generation);
+            frames[i] = frame;
+            camera.addCallbackBuffer(frame.getData());
+        }
+    }
+
+    /**
+     * Detaches from camera, called on camera thread
+     */
+    synchronized void detach(Camera camera) {
+        if (this.camera != camera) return;
+        camera.setPreviewCallbackWithBuffer(null);
+        this.camera = null;
+        generation++;
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if (data == null) return;
+        final PreviewFrame frame = obtainFrame(data, camera);
+        if (frame == null) return;
+        // Camera thread disabled, blocking here would stall UI
+        if (callback instanceof FramePipeline && Looper.myLooper() == Looper.getMainLooper()) {
+            ((FramePipeline) callback).onPreviewFrameOnMainThread(frame);
+            return;
+        }
+        callback.onPreviewFrame(frame);
+    }
+
+    synchronized void release(PreviewFrame frame) {
+        if (!frame.isInUse()) return;
+        frame.setInUse(false, 0);
+        if (camera == null || frame.getGeneration() != generation) return;
+        camera.addCallbackBuffer(frame.getData());
+    }
+
+    private synchronized PreviewFrame obtainFrame(byte[] data, Camera camera) {
+        if (camera != this.camera || frames == null) return null;
+        for (PreviewFrame frame : frames) {
+            if (frame.getData() == data) {
+                frame.setInUse(true, System.nanoTime());
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+}
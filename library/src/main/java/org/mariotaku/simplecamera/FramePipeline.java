@@ -0,0 +1,238 @@
+package org.mariotaku.simplecamera;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a {@link FrameProcessor} on a bounded pool of worker threads, so slow analyzers never
+ * stall the camera callback thread. When all workers are busy and queue is full, incoming frames
+ * are handled according to {@link BackpressurePolicy}.
+ * <br>
+ * Attach to camera with {@link CameraView#setFramePipeline(FramePipeline)}, or feed frames
+ * directly with {@link #onPreviewFrame(PreviewFrame)}.
+ */
+public class FramePipeline implements CameraView.PreviewFrameCallback {
+
+    private final FrameProcessor processor;
+    private final int workerCount, queueCapacity;
+    private final BackpressurePolicy policy;
+    private final ThreadPoolExecutor executor;
+    private final BlockingQueue<Runnable> queue;
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+
+    public FramePipeline(FrameProcessor processor) {
+        this(processor, 1, 1, BackpressurePolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param processor     Processor to run frames through
+     * @param workerCount   Number of worker threads
+     * @param queueCapacity Max number of frames waiting for a worker
+     * @param policy        What to do when queue is full
+     */
+    public FramePipeline(FrameProcessor processor, int workerCount, int queueCapacity,
+                         BackpressurePolicy policy) {
+        if (processor == null || policy == null) throw new NullPointerException();
+        if (workerCount < 1 || queueCapacity < 1) throw new IllegalArgumentException();
+        this.processor = processor;
+        this.workerCount = workerCount;
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        executor = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, queue,
+                new WorkerThreadFactory(), new BackpressureHandler(this));
+    }
+
+    /**
+     * Submits frame to pipeline, may block caller if policy is {@link BackpressurePolicy#BLOCK}.
+     * Don't call on main thread with that policy.
+     */
+    @Override
+    public void onPreviewFrame(PreviewFrame frame) {
+        submit(frame, policy);
+    }
+
+    /**
+     * Submits frame arriving on main thread, {@link BackpressurePolicy#BLOCK} would stall UI so
+     * {@link BackpressurePolicy#DROP_OLDEST} is used instead
+     */
+    void onPreviewFrameOnMainThread(PreviewFrame frame) {
+        submit(frame, policy == BackpressurePolicy.BLOCK ? BackpressurePolicy.DROP_OLDEST : policy);
+    }
+
+    private void submit(PreviewFrame frame, BackpressurePolicy policy) {
+        if (executor.isShutdown()) {
+            frame.release();
+            return;
+        }
+        inFlightCount.incrementAndGet();
+        executor.execute(new FrameTask(this, frame, policy));
+    }
+
+    /**
+     * @return Number of frames processed
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return Number of frames dropped because of backpressure
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return Number of frames queued or being processed
+     */
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return Buffers needed to keep every worker and queue slot busy while camera still has one
+     * buffer to write into
+     */
+    public int getRequiredBufferCount() {
+        return workerCount + queueCapacity + 1;
+    }
+
+    /**
+     * Stops workers and releases queued frames, frames submitted after this call are released
+     * immediately.
+     */
+    public void shutdown() {
+        for (Runnable runnable : executor.shutdownNow()) {
+            ((FrameTask) runnable).drop(false);
+        }
+    }
+
+    public enum BackpressurePolicy {
+        /**
+         * Drops the oldest queued frame to make room for incoming one
+         */
+        DROP_OLDEST,
+        /**
+         * Drops incoming frame
+         */
+        DROP_NEWEST,
+        /**
+         * Blocks camera callback thread until a queue slot is available. Needs
+         * {@link CameraView#setCameraThreadEnabled(boolean)} when attached to camera, otherwise
+         * frames arrive on main thread and {@link #DROP_OLDEST} is used instead.
+         */
+        BLOCK
+    }
+
+    private static class FrameTask implements Runnable {
+        private final FramePipeline pipeline;
+        private final PreviewFrame frame;
+        private final BackpressurePolicy policy;
+
+        FrameTask(FramePipeline pipeline, PreviewFrame frame, BackpressurePolicy policy) {
+            this.pipeline = pipeline;
+            this.frame = frame;
+            this.policy = policy;
+        }
+
+        @Override
+        public void run() {
+            try {
+                pipeline.processor.process(frame);
+                pipeline.deliveredCount.incrementAndGet();
+            } finally {
+                frame.release();
+                pipeline.inFlightCount.decrementAndGet();
+            }
+        }
+
+        void drop(boolean countDropped) {
+            frame.release();
+            pipeline.inFlightCount.decrementAndGet();
+            if (countDropped) {
+                pipeline.droppedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static class BackpressureHandler implements RejectedExecutionHandler {
+        private static final long BLOCK_POLL_INTERVAL = 50;
+
+        private final FramePipeline pipeline;
+
+        BackpressureHandler(FramePipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            final FrameTask task = (FrameTask) r;
+            if (executor.isShutdown()) {
+                task.drop(false);
+                return;
+            }
+            switch (task.policy) {
+                case DROP_OLDEST: {
+                    final FrameTask oldest = (FrameTask) pipeline.queue.poll();
+                    if (oldest != null) {
+                        oldest.drop(true);
+                    }
+                    if (!pipeline.queue.offer(task)) {
+                        task.drop(true);
+                        return;
+                    }
+                    break;
+                }
+                case BLOCK: {
+                    try {
+                        // shutdown() doesn't wake callers waiting for a slot, check it periodically
+                        while (!pipeline.queue.offer(task, BLOCK_POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                            if (executor.isShutdown()) {
+                                task.drop(false);
+                                return;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        task.drop(true);
+                        return;
+                    }
+                    break;
+                }
+                default: {
+                    task.drop(true);
+                    return;
+                }
+            }
+            // Queue may have been drained by shutdown() before task got in, no worker would run it
+            if (executor.isShutdown() && pipeline.queue.remove(task)) {
+                task.drop(false);
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "FramePipeline #" + count.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY + 1);
+            return thread;
+        }
+    }
+}
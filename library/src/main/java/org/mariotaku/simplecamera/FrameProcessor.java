@@ -0,0 +1,15 @@
+package org.mariotaku.simplecamera;
+
+/**
+ * Analyzes preview frames on {@link FramePipeline} worker threads.
+ */
+public interface FrameProcessor {
+
+    /**
+     * Processes a frame, frame will be released after this method returns, so do not keep
+     * reference to it or its data.
+     *
+     * @param frame Preview frame
+     */
+    void process(PreviewFrame frame);
+}
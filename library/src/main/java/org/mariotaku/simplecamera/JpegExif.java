@@ -0,0 +1,314 @@
+package org.mariotaku.simplecamera;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Sets EXIF orientation of JPEG data by rewriting its segments, so pictures taken with
+ * {@link CameraView#takePicture(android.hardware.Camera.ShutterCallback, android.hardware.Camera.PictureCallback)}
+ * can be saved upright without decoding and rotating pixels.
+ * <br>
+ * Existing Orientation tag is patched in place. If EXIF has no Orientation tag, a copy of IFD0
+ * with the tag added is appended to APP1 segment. If there's no EXIF at all, a minimal APP1
+ * segment is inserted. Image data is never touched.
+ */
+public final class JpegExif {
+
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    static final int MARKER_SOI = 0xD8;
+    static final int MARKER_EOI = 0xD9;
+    static final int MARKER_SOS = 0xDA;
+    static final int MARKER_APP0 = 0xE0;
+    static final int MARKER_APP1 = 0xE1;
+
+    static final int TAG_ORIENTATION = 0x0112;
+
+    private static final int TYPE_SHORT = 3;
+    private static final int IFD_ENTRY_SIZE = 12;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private JpegExif() {
+    }
+
+    /**
+     * @param degrees Clockwise rotation, as returned by {@link CameraView#getPictureRotation()}
+     * @return EXIF orientation value
+     */
+    public static int getOrientation(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return ORIENTATION_ROTATE_90;
+            case 180:
+                return ORIENTATION_ROTATE_180;
+            case 270:
+                return ORIENTATION_ROTATE_270;
+            default:
+                return ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * @return JPEG data with orientation set, a new array
+     * @throws IOException if data is not a valid JPEG
+     */
+    public static byte[] setOrientation(byte[] jpeg, int degrees) throws IOException {
+        final ByteArrayOutput out = new ByteArrayOutput(jpeg.length + 64);
+        write(jpeg, degrees, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes JPEG data with orientation set to stream. Stream will not be closed.
+     *
+     * @throws IOException if data is not a valid JPEG or writing failed
+     */
+    public static void write(byte[] jpeg, int degrees, OutputStream out) throws IOException {
+        final int orientation = getOrientation(degrees);
+        final int[] segment = new int[2];
+        if (!findExifSegment(jpeg, segment)) {
+            writeWithNewExif(jpeg, orientation, out);
+            return;
+        }
+        final int tiffStart = segment[0] + EXIF_HEADER.length, tiffEnd = segment[1];
+        final int entry = findIfd0Entry(jpeg, tiffStart, tiffEnd, TAG_ORIENTATION);
+        if (entry >= 0) {
+            final boolean littleEndian = isLittleEndian(jpeg, tiffStart);
+            final int valueOffset = entry + 8;
+            // Write everything around the 2-byte value straight from source array
+            out.write(jpeg, 0, valueOffset);
+            out.write(littleEndian ? orientation : 0);
+            out.write(littleEndian ? 0 : orientation);
+            out.write(jpeg, valueOffset + 2, jpeg.length - valueOffset - 2);
+            return;
+        }
+        writeWithAppendedIfd0(jpeg, segment[0], tiffStart, tiffEnd, orientation, out);
+    }
+
+    /**
+     * Writes JPEG data with orientation set to file, file will be overwritten.
+     */
+    public static void write(byte[] jpeg, int degrees, File file) throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 8192);
+        try {
+            write(jpeg, degrees, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Finds EXIF APP1 segment before image data
+     *
+     * @param out Receives start of EXIF header ("Exif\0\0") and end of segment
+     * @return false if not found
+     * @throws IOException if data is not a valid JPEG
+     */
+    static boolean findExifSegment(byte[] jpeg, int[] out) throws IOException {
+        checkSoi(jpeg);
+        int offset = 2;
+        while (offset + 4 <= jpeg.length) {
+            if ((jpeg[offset] & 0xff) != 0xFF) throw new IOException("Invalid marker at " + offset);
+            final int marker = jpeg[offset + 1] & 0xff;
+            if (marker == 0xFF) {
+                // Fill byte
+                offset++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) return false;
+            if (isStandalone(marker)) {
+                offset += 2;
+                continue;
+            }
+            final int length = readShort(jpeg, offset + 2, false);
+            final int start = offset + 4, end = offset + 2 + length;
+            if (length < 2 || end > jpeg.length) throw new IOException("Truncated segment at " + offset);
+            if (marker == MARKER_APP1 && startsWith(jpeg, start, end, EXIF_HEADER)) {
+                out[0] = start;
+                out[1] = end;
+                return true;
+            }
+            offset = end;
+        }
+        return false;
+    }
+
+    /**
+     * @return Offset of IFD0 entry with given tag, or -1 if not found
+     */
+    static int findIfd0Entry(byte[] data, int tiffStart, int tiffEnd, int tag) throws IOException {
+        final int ifd = getIfd0Offset(data, tiffStart, tiffEnd);
+        final boolean littleEndian = isLittleEndian(data, tiffStart);
+        final int count = readShort(data, ifd, littleEndian);
+        if (ifd + 2 + count * IFD_ENTRY_SIZE + 4 > tiffEnd) throw new IOException("Truncated IFD0");
+        for (int i = 0; i < count; i++) {
+            final int entry = ifd + 2 + i * IFD_ENTRY_SIZE;
+            if (readShort(data, entry, littleEndian) == tag) return entry;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Absolute offset of IFD0
+     */
+    static int getIfd0Offset(byte[] data, int tiffStart, int tiffEnd) throws IOException {
+        if (tiffEnd - tiffStart < 8) throw new IOException("Truncated TIFF header");
+        final boolean littleEndian = isLittleEndian(data, tiffStart);
+        if (readShort(data, tiffStart + 2, littleEndian) != 42) throw new IOException("Invalid TIFF header");
+        final long ifd = readInt(data, tiffStart + 4, littleEndian) & 0xFFFFFFFFL;
+        if (ifd < 8 || tiffStart + ifd + 2 > tiffEnd) throw new IOException("Invalid IFD0 offset");
+        return (int) (tiffStart + ifd);
+    }
+
+    static boolean isLittleEndian(byte[] data, int tiffStart) throws IOException {
+        if (data[tiffStart] == 'I' && data[tiffStart + 1] == 'I') return true;
+        if (data[tiffStart] == 'M' && data[tiffStart + 1] == 'M') return false;
+        throw new IOException("Invalid TIFF byte order");
+    }
+
+    static int readShort(byte[] data, int offset, boolean littleEndian) {
+        final int b0 = data[offset] & 0xff, b1 = data[offset + 1] & 0xff;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    static int readInt(byte[] data, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8
+                    | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+        }
+        return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16
+                | (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+    }
+
+    static boolean isStandalone(int marker) {
+        return marker == 0x01 || marker >= 0xD0 && marker <= 0xD7;
+    }
+
+    static void checkSoi(byte[] jpeg) throws IOException {
+        if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xFF || (jpeg[1] & 0xff) != MARKER_SOI)
+            throw new IOException("Not a JPEG");
+    }
+
+    private static void writeWithNewExif(byte[] jpeg, int orientation, OutputStream out) throws IOException {
+        // EXIF should follow JFIF APP0 if there is one
+        int insertAt = 2;
+        if ((jpeg[2] & 0xff) == 0xFF && (jpeg[3] & 0xff) == MARKER_APP0 && jpeg.length >= 6) {
+            insertAt = Math.min(jpeg.length, 4 + readShort(jpeg, 4, false));
+        }
+        out.write(jpeg, 0, insertAt);
+        // Big endian TIFF with a single IFD0 entry
+        final byte[] app1 = {
+                (byte) 0xFF, (byte) MARKER_APP1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, TYPE_SHORT, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+        out.write(app1);
+        out.write(jpeg, insertAt, jpeg.length - insertAt);
+    }
+
+    private static void writeWithAppendedIfd0(byte[] jpeg, int exifStart, int tiffStart, int tiffEnd,
+                                              int orientation, OutputStream out) throws IOException {
+        final boolean littleEndian = isLittleEndian(jpeg, tiffStart);
+        final int ifd = getIfd0Offset(jpeg, tiffStart, tiffEnd);
+        final int count = readShort(jpeg, ifd, littleEndian);
+        final int entriesStart = ifd + 2, entriesEnd = entriesStart + count * IFD_ENTRY_SIZE;
+        // New IFD starts on a word boundary, old entries keep pointing at their values
+        final int padding = (tiffEnd - tiffStart) & 1;
+        final int newIfdOffset = tiffEnd - tiffStart + padding;
+        final int newIfdSize = 2 + (count + 1) * IFD_ENTRY_SIZE + 4;
+        final int segmentLength = 2 + (tiffEnd - exifStart) + padding + newIfdSize;
+        if (segmentLength > MAX_SEGMENT_LENGTH) throw new IOException("EXIF segment too large");
+
+        out.write(jpeg, 0, exifStart - 4);
+        out.write(0xFF);
+        out.write(MARKER_APP1);
+        out.write(segmentLength >> 8);
+        out.write(segmentLength & 0xff);
+        // EXIF and TIFF header, repointed to new IFD0
+        out.write(jpeg, exifStart, tiffStart + 4 - exifStart);
+        writeInt(out, newIfdOffset, littleEndian);
+        out.write(jpeg, tiffStart + 8, tiffEnd - tiffStart - 8);
+        if (padding != 0) {
+            out.write(0);
+        }
+        writeShort(out, count + 1, littleEndian);
+        // Entries must stay sorted by tag
+        boolean written = false;
+        for (int entry = entriesStart; entry < entriesEnd; entry += IFD_ENTRY_SIZE) {
+            if (!written && readShort(jpeg, entry, littleEndian) > TAG_ORIENTATION) {
+                writeOrientationEntry(out, orientation, littleEndian);
+                written = true;
+            }
+            out.write(jpeg, entry, IFD_ENTRY_SIZE);
+        }
+        if (!written) {
+            writeOrientationEntry(out, orientation, littleEndian);
+        }
+        // Keep link to IFD1 (thumbnail)
+        out.write(jpeg, entriesEnd, 4);
+        out.write(jpeg, tiffEnd, jpeg.length - tiffEnd);
+    }
+
+    private static void writeOrientationEntry(OutputStream out, int orientation, boolean littleEndian)
+            throws IOException {
+        writeShort(out, TAG_ORIENTATION, littleEndian);
+        writeShort(out, TYPE_SHORT, littleEndian);
+        writeInt(out, 1, littleEndian);
+        writeShort(out, orientation, littleEndian);
+        writeShort(out, 0, littleEndian);
+    }
+
+    private static void writeShort(OutputStream out, int value, boolean littleEndian) throws IOException {
+        if (littleEndian) {
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+        } else {
+            out.write((value >> 8) & 0xff);
+            out.write(value & 0xff);
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value, boolean littleEndian) throws IOException {
+        if (littleEndian) {
+            writeShort(out, value & 0xffff, true);
+            writeShort(out, value >>> 16, true);
+        } else {
+            writeShort(out, value >>> 16, false);
+            writeShort(out, value & 0xffff, false);
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) return false;
+        for (int i = 0, j = prefix.length; i < j; i++) {
+            if (data[start + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Exposes internal array so result doesn't need to be copied when size matches
+     */
+    private static class ByteArrayOutput extends ByteArrayOutputStream {
+        ByteArrayOutput(int size) {
+            super(size);
+        }
+
+        @Override
+        public synchronized byte[] toByteArray() {
+            if (count == buf.length) return buf;
+            return super.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.mariotaku.simplecamera;
+
+import java.io.IOException;
+
+/**
+ * Reads dimensions, EXIF orientation and location of embedded EXIF thumbnail from JPEG data by
+ * scanning its markers, without decoding any pixels.
+ * <br>
+ * Instances are reusable, {@link #read(byte[])} allocates nothing. Truncated or malformed data
+ * never throws, values not found are reported as absent.
+ */
+public final class JpegMetadata {
+
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    private int width, height;
+    private int orientation;
+    private int thumbnailOffset, thumbnailLength;
+
+    /**
+     * Reads metadata from JPEG data, replacing values read before
+     *
+     * @return true if image dimensions found
+     */
+    public boolean read(byte[] jpeg) {
+        return read(jpeg, 0, jpeg.length);
+    }
+
+    /**
+     * @param offset Offset of JPEG data in array
+     * @param length Length of JPEG data
+     * @return true if image dimensions found
+     */
+    public boolean read(byte[] jpeg, int offset, int length) {
+        width = 0;
+        height = 0;
+        orientation = 0;
+        thumbnailOffset = -1;
+        thumbnailLength = 0;
+        final int end = Math.min(jpeg.length, offset + length);
+        if (end - offset < 4 || (jpeg[offset] & 0xff) != 0xFF || (jpeg[offset + 1] & 0xff) != JpegExif.MARKER_SOI)
+            return false;
+        int pos = offset + 2;
+        while (pos + 4 <= end) {
+            if ((jpeg[pos] & 0xff) != 0xFF) return false;
+            final int marker = jpeg[pos + 1] & 0xff;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == JpegExif.MARKER_SOS || marker == JpegExif.MARKER_EOI) return false;
+            if (JpegExif.isStandalone(marker)) {
+                pos += 2;
+                continue;
+            }
+            final int segmentLength = JpegExif.readShort(jpeg, pos + 2, false);
+            final int segmentStart = pos + 4, segmentEnd = pos + 2 + segmentLength;
+            if (segmentLength < 2) return false;
+            if (isSof(marker)) {
+                // precision(1) height(2) width(2)
+                if (segmentStart + 5 > end) return false;
+                height = JpegExif.readShort(jpeg, segmentStart + 1, false);
+                width = JpegExif.readShort(jpeg, segmentStart + 3, false);
+                return width > 0 && height > 0;
+            }
+            if (segmentEnd > end) return false;
+            if (marker == JpegExif.MARKER_APP1 && orientation == 0 && thumbnailOffset < 0) {
+                readExif(jpeg, segmentStart, segmentEnd);
+            }
+            pos = segmentEnd;
+        }
+        return false;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return EXIF orientation, or 0 if absent
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * @return Clockwise rotation in degrees described by EXIF orientation, mirrored orientations
+     * are treated as their unmirrored ones
+     */
+    public int getRotation() {
+        switch (orientation) {
+            case JpegExif.ORIENTATION_ROTATE_90:
+            case 7:
+                return 90;
+            case JpegExif.ORIENTATION_ROTATE_180:
+            case 4:
+                return 180;
+            case JpegExif.ORIENTATION_ROTATE_270:
+            case 5:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    public boolean hasThumbnail() {
+        return thumbnailOffset >= 0;
+    }
+
+    /**
+     * @return Offset of embedded JPEG thumbnail in array passed to {@link #read(byte[])}, or -1
+     */
+    public int getThumbnailOffset() {
+        return thumbnailOffset;
+    }
+
+    public int getThumbnailLength() {
+        return thumbnailLength;
+    }
+
+    private void readExif(byte[] jpeg, int start, int end) {
+        final int tiffStart = start + 6;
+        if (tiffStart + 8 > end || jpeg[start] != 'E' || jpeg[start + 1] != 'x' || jpeg[start + 2] != 'i'
+                || jpeg[start + 3] != 'f' || jpeg[start + 4] != 0 || jpeg[start + 5] != 0)
+            return;
+        try {
+            final boolean littleEndian = JpegExif.isLittleEndian(jpeg, tiffStart);
+            final int ifd0 = JpegExif.getIfd0Offset(jpeg, tiffStart, end);
+            final int count0 = JpegExif.readShort(jpeg, ifd0, littleEndian);
+            final int entries0End = ifd0 + 2 + count0 * IFD_ENTRY_SIZE;
+            if (entries0End > end) return;
+            for (int entry = ifd0 + 2; entry < entries0End; entry += IFD_ENTRY_SIZE) {
+                if (JpegExif.readShort(jpeg, entry, littleEndian) == JpegExif.TAG_ORIENTATION) {
+                    orientation = readValue(jpeg, entry, littleEndian);
+                    break;
+                }
+            }
+            if (entries0End + 4 > end) return;
+            final long ifd1Offset = JpegExif.readInt(jpeg, entries0End, littleEndian) & 0xFFFFFFFFL;
+            if (ifd1Offset < 8 || tiffStart + ifd1Offset + 2 > end) return;
+            final int ifd1 = (int) (tiffStart + ifd1Offset);
+            final int count1 = JpegExif.readShort(jpeg, ifd1, littleEndian);
+            final int entries1End = ifd1 + 2 + count1 * IFD_ENTRY_SIZE;
+            if (entries1End > end) return;
+            long offset = -1, length = -1;
+            for (int entry = ifd1 + 2; entry < entries1End; entry += IFD_ENTRY_SIZE) {
+                final int tag = JpegExif.readShort(jpeg, entry, littleEndian);
+                if (tag == TAG_THUMBNAIL_OFFSET) {
+                    offset = readValue(jpeg, entry, littleEndian) & 0xFFFFFFFFL;
+                } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                    length = readValue(jpeg, entry, littleEndian) & 0xFFFFFFFFL;
+                }
+            }
+            // Thumbnail must be inside APP1 segment
+            if (offset < 0 || length <= 0 || tiffStart + offset + length > end) return;
+            thumbnailOffset = (int) (tiffStart + offset);
+            thumbnailLength = (int) length;
+        } catch (IOException e) {
+            // Malformed EXIF, ignore
+        }
+    }
+
+    private static int readValue(byte[] data, int entry, boolean littleEndian) {
+        switch (JpegExif.readShort(data, entry + 2, littleEndian)) {
+            case TYPE_SHORT:
+                return JpegExif.readShort(data, entry + 8, littleEndian);
+            case TYPE_LONG:
+                return JpegExif.readInt(data, entry + 8, littleEndian);
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isSof(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+}
@@ -0,0 +1,151 @@
+package org.mariotaku.simplecamera;
+
+import android.hardware.Camera;
+import android.text.TextUtils;
+
+import java.util.List;
+
+/**
+ * Batches parameter changes and commits them to camera with at most one
+ * {@link Camera#setParameters(Camera.Parameters)} call, nothing will be sent to driver if values
+ * are same as last committed ones.
+ * <br>
+ * Obtain one with {@link CameraView#edit()}. Only one editor should be in use at a time, calling
+ * {@link CameraView#edit()} again discards uncommitted changes.
+ */
+public final class ParametersEditor {
+
+    /**
+     * Changing these keys requires preview to be restarted
+     */
+    private static final String[] PREVIEW_RESTART_KEYS = {"preview-size", "preview-format"};
+
+    private final CameraView cameraView;
+    private final Camera camera;
+    private final Camera.Parameters parameters;
+    private final String base;
+    private final String[] basePreviewValues;
+    private boolean dispatchBeforeStartPreview;
+
+    ParametersEditor(CameraView cameraView, Camera camera, Camera.Parameters parameters, String base) {
+        this.cameraView = cameraView;
+        this.camera = camera;
+        this.parameters = parameters;
+        this.base = base;
+        parameters.unflatten(base);
+        basePreviewValues = new String[PREVIEW_RESTART_KEYS.length];
+        for (int i = 0, j = PREVIEW_RESTART_KEYS.length; i < j; i++) {
+            basePreviewValues[i] = parameters.get(PREVIEW_RESTART_KEYS[i]);
+        }
+    }
+
+    /**
+     * Changes made to returned object will be committed along with this editor
+     *
+     * @return Parameters being edited
+     */
+    public Camera.Parameters getParameters() {
+        return parameters;
+    }
+
+    public ParametersEditor set(String key, String value) {
+        parameters.set(key, value);
+        return this;
+    }
+
+    public ParametersEditor setPreviewSize(int width, int height) {
+        parameters.setPreviewSize(width, height);
+        return this;
+    }
+
+    public ParametersEditor setPreviewFormat(int format) {
+        parameters.setPreviewFormat(format);
+        return this;
+    }
+
+    public ParametersEditor setPreviewFpsRange(int min, int max) {
+        parameters.setPreviewFpsRange(min, max);
+        return this;
+    }
+
+    public ParametersEditor setPictureSize(int width, int height) {
+        parameters.setPictureSize(width, height);
+        return this;
+    }
+
+    public ParametersEditor setFlashMode(String flashMode) {
+        parameters.setFlashMode(flashMode);
+        return this;
+    }
+
+    public ParametersEditor setFocusMode(String focusMode) {
+        parameters.setFocusMode(focusMode);
+        return this;
+    }
+
+    public ParametersEditor setAutoExposureLock(boolean lock) {
+        parameters.setAutoExposureLock(lock);
+        return this;
+    }
+
+    public ParametersEditor setAutoWhiteBalanceLock(boolean lock) {
+        parameters.setAutoWhiteBalanceLock(lock);
+        return this;
+    }
+
+    public ParametersEditor setZoom(int zoom) {
+        parameters.setZoom(zoom);
+        return this;
+    }
+
+    public ParametersEditor setFocusAreas(List<Camera.Area> areas) {
+        parameters.setFocusAreas(areas);
+        return this;
+    }
+
+    public ParametersEditor setMeteringAreas(List<Camera.Area> areas) {
+        parameters.setMeteringAreas(areas);
+        return this;
+    }
+
+    /**
+     * Commits changes to camera, preview will be restarted if changed keys require so.
+     *
+     * @return true if changes sent to camera, false if nothing changed
+     */
+    public boolean commit() {
+        return commit(false);
+    }
+
+    /**
+     * @param forceRestartPreview Restart preview even if preview related keys unchanged
+     */
+    boolean commit(boolean forceRestartPreview) {
+        final boolean previewChanged = isPreviewChanged();
+        if (previewChanged || forceRestartPreview || dispatchBeforeStartPreview) {
+            cameraView.dispatchSetParameterBeforeStartPreview(camera, parameters);
+        }
+        final String flattened = parameters.flatten();
+        final boolean changed = !TextUtils.equals(base, flattened);
+        if (!changed && !forceRestartPreview) return false;
+        final boolean restartPreview = forceRestartPreview || previewChanged && cameraView.isCameraPreviewStarted();
+        cameraView.commitParameters(camera, parameters, changed ? flattened : null, restartPreview);
+        return changed;
+    }
+
+    /**
+     * Lets {@link CameraView.CameraListener#setParameterBeforeStartPreview(Camera, Camera.Parameters)}
+     * modify parameters before commit even if preview related keys unchanged
+     */
+    void requestDispatchBeforeStartPreview() {
+        dispatchBeforeStartPreview = true;
+    }
+
+    private boolean isPreviewChanged() {
+        for (int i = 0, j = PREVIEW_RESTART_KEYS.length; i < j; i++) {
+            if (!TextUtils.equals(basePreviewValues[i], parameters.get(PREVIEW_RESTART_KEYS[i])))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,247 @@
+package org.mariotaku.simplecamera;
+
+import android.hardware.Camera;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view of {@link Camera.Parameters} last committed by {@link CameraView}.
+ * <br>
+ * {@link Camera#getParameters()} flattens and re-parses the whole parameter string through the
+ * driver on every call, so values used during layout and focus are parsed once per open/commit
+ * and kept here instead.
+ */
+public final class ParametersSnapshot {
+
+    private final String flattened;
+    private final Camera.Size previewSize;
+    private final int previewWidth, previewHeight;
+    private final int previewFormat;
+    private final Camera.Size pictureSize;
+    private final List<Camera.Size> supportedPreviewSizes;
+    private final List<Camera.Size> supportedPictureSizes;
+    private final List<String> supportedFocusModes;
+    private final List<String> supportedFlashModes;
+    private final String focusMode;
+    private final String flashMode;
+    private final int maxNumFocusAreas, maxNumMeteringAreas;
+    private final boolean autoExposureLockSupported, autoWhiteBalanceLockSupported;
+    private final boolean autoExposureLock, autoWhiteBalanceLock;
+    private final int previewFpsMin, previewFpsMax;
+    private final boolean zoomSupported, smoothZoomSupported;
+    private final int maxZoom, zoom;
+    private final int[] zoomRatios;
+    private final CameraCapabilities capabilities;
+
+    /**
+     * @param parameters Parameters to take snapshot of
+     * @param flattened  Flattened string of parameters
+     * @param previous   Snapshot of same camera taken before, supported values will be reused
+     */
+    ParametersSnapshot(Camera.Parameters parameters, String flattened, ParametersSnapshot previous) {
+        this(parameters, flattened, previous, previous.capabilities);
+    }
+
+    /**
+     * Takes first snapshot of newly opened camera
+     */
+    ParametersSnapshot(Camera.Parameters parameters, String flattened, CameraCapabilities capabilities) {
+        this(parameters, flattened, null, capabilities);
+    }
+
+    private ParametersSnapshot(Camera.Parameters parameters, String flattened, ParametersSnapshot previous,
+                               CameraCapabilities capabilities) {
+        this.flattened = flattened;
+        this.capabilities = capabilities;
+        previewSize = parameters.getPreviewSize();
+        previewWidth = previewSize != null ? previewSize.width : 0;
+        previewHeight = previewSize != null ? previewSize.height : 0;
+        previewFormat = parameters.getPreviewFormat();
+        pictureSize = parameters.getPictureSize();
+        focusMode = parameters.getFocusMode();
+        flashMode = parameters.getFlashMode();
+        if (previous != null) {
+            // Supported values never change for an opened camera
+            supportedPreviewSizes = previous.supportedPreviewSizes;
+            supportedPictureSizes = previous.supportedPictureSizes;
+            supportedFocusModes = previous.supportedFocusModes;
+            supportedFlashModes = previous.supportedFlashModes;
+            maxNumFocusAreas = previous.maxNumFocusAreas;
+            maxNumMeteringAreas = previous.maxNumMeteringAreas;
+            autoExposureLockSupported = previous.autoExposureLockSupported;
+            autoWhiteBalanceLockSupported = previous.autoWhiteBalanceLockSupported;
+            zoomSupported = previous.zoomSupported;
+            smoothZoomSupported = previous.smoothZoomSupported;
+            maxZoom = previous.maxZoom;
+            zoomRatios = previous.zoomRatios;
+        } else {
+            supportedPreviewSizes = unmodifiable(parameters.getSupportedPreviewSizes());
+            supportedPictureSizes = unmodifiable(parameters.getSupportedPictureSizes());
+            supportedFocusModes = unmodifiable(parameters.getSupportedFocusModes());
+            supportedFlashModes = unmodifiable(parameters.getSupportedFlashModes());
+            maxNumFocusAreas = parameters.getMaxNumFocusAreas();
+            maxNumMeteringAreas = parameters.getMaxNumMeteringAreas();
+            autoExposureLockSupported = parameters.isAutoExposureLockSupported();
+            autoWhiteBalanceLockSupported = parameters.isAutoWhiteBalanceLockSupported();
+            zoomSupported = parameters.isZoomSupported();
+            smoothZoomSupported = zoomSupported && parameters.isSmoothZoomSupported();
+            maxZoom = zoomSupported ? parameters.getMaxZoom() : 0;
+            zoomRatios = zoomSupported ? toIntArray(parameters.getZoomRatios()) : new int[]{100};
+        }
+        zoom = zoomSupported ? parameters.getZoom() : 0;
+        final int[] fpsRange = new int[2];
+        parameters.getPreviewFpsRange(fpsRange);
+        previewFpsMin = fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+        previewFpsMax = fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        autoExposureLock = autoExposureLockSupported && parameters.getAutoExposureLock();
+        autoWhiteBalanceLock = autoWhiteBalanceLockSupported && parameters.getAutoWhiteBalanceLock();
+    }
+
+    public int getPreviewWidth() {
+        return previewWidth;
+    }
+
+    public int getPreviewHeight() {
+        return previewHeight;
+    }
+
+    public int getPreviewFormat() {
+        return previewFormat;
+    }
+
+    public int getPictureWidth() {
+        return pictureSize != null ? pictureSize.width : 0;
+    }
+
+    public int getPictureHeight() {
+        return pictureSize != null ? pictureSize.height : 0;
+    }
+
+    public List<Camera.Size> getSupportedPreviewSizes() {
+        return supportedPreviewSizes;
+    }
+
+    public List<Camera.Size> getSupportedPictureSizes() {
+        return supportedPictureSizes;
+    }
+
+    public List<String> getSupportedFocusModes() {
+        return supportedFocusModes;
+    }
+
+    public boolean isFocusModeSupported(String focusMode) {
+        return supportedFocusModes.contains(focusMode);
+    }
+
+    public List<String> getSupportedFlashModes() {
+        return supportedFlashModes;
+    }
+
+    public String getFocusMode() {
+        return focusMode;
+    }
+
+    public String getFlashMode() {
+        return flashMode;
+    }
+
+    public int getMaxNumFocusAreas() {
+        return maxNumFocusAreas;
+    }
+
+    public int getMaxNumMeteringAreas() {
+        return maxNumMeteringAreas;
+    }
+
+    public CameraCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    public boolean isAutoExposureLockSupported() {
+        return autoExposureLockSupported;
+    }
+
+    public boolean isAutoWhiteBalanceLockSupported() {
+        return autoWhiteBalanceLockSupported;
+    }
+
+    public boolean getAutoExposureLock() {
+        return autoExposureLock;
+    }
+
+    public boolean getAutoWhiteBalanceLock() {
+        return autoWhiteBalanceLock;
+    }
+
+    /**
+     * @return Min preview frame rate, scaled by 1000
+     */
+    public int getPreviewFpsMin() {
+        return previewFpsMin;
+    }
+
+    /**
+     * @return Max preview frame rate, scaled by 1000
+     */
+    public int getPreviewFpsMax() {
+        return previewFpsMax;
+    }
+
+    public boolean isZoomSupported() {
+        return zoomSupported;
+    }
+
+    public boolean isSmoothZoomSupported() {
+        return smoothZoomSupported;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @param zoom Zoom value from 0 to {@link #getMaxZoom()}
+     * @return Zoom ratio of value, scaled by 100
+     */
+    public int getZoomRatio(int zoom) {
+        return zoomRatios[CameraUtils.clamp(zoom, zoomRatios.length - 1, 0)];
+    }
+
+    /**
+     * @return Zoom ratios scaled by 100 in ascending order, shared and must not be modified
+     */
+    int[] getZoomRatios() {
+        return zoomRatios;
+    }
+
+    Camera.Size getPreviewSize() {
+        return previewSize;
+    }
+
+    Camera.Size getPictureSize() {
+        return pictureSize;
+    }
+
+    String flatten() {
+        return flattened;
+    }
+
+    private static int[] toIntArray(List<Integer> list) {
+        if (list == null || list.isEmpty()) return new int[]{100};
+        final int[] array = new int[list.size()];
+        for (int i = 0, j = array.length; i < j; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static <T> List<T> unmodifiable(List<T> list) {
+        if (list == null) return Collections.emptyList();
+        return Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,87 @@
+package org.mariotaku.simplecamera;
+
+/**
+ * Chooses picture size, set with {@link CameraView#setPictureSizePolicy(PictureSizePolicy)}, so
+ * pictures are no larger than app needs. JPEG transfer, memory and decoding cost all scale with
+ * picture size.
+ * <br>
+ * Largest accepted size with same aspect ratio as preview wins, so field of view doesn't change
+ * when picture taken. If no size of that ratio is accepted, largest accepted size of any ratio
+ * is used, then smallest size.
+ */
+public abstract class PictureSizePolicy {
+
+    /**
+     * @param longEdge Max length of longer edge of picture, in pixels
+     */
+    public static PictureSizePolicy maxLongEdge(int longEdge) {
+        if (longEdge <= 0) throw new IllegalArgumentException("longEdge must be positive");
+        return new MaxLongEdgePolicy(longEdge);
+    }
+
+    /**
+     * @param megapixels Max number of pixels of picture, in millions
+     */
+    public static PictureSizePolicy maxMegapixels(float megapixels) {
+        if (megapixels <= 0) throw new IllegalArgumentException("megapixels must be positive");
+        return new MaxPixelsPolicy(Math.round(megapixels * 1000000));
+    }
+
+    /**
+     * @return Index of chosen size in {@link CameraCapabilities#getPictureSizes()}, or -1 if there
+     * is no size
+     */
+    public int select(CameraCapabilities capabilities, int previewWidth, int previewHeight) {
+        final CameraCapabilities.SizeTable sizes = capabilities.getPictureSizes();
+        if (sizes.size() == 0) return -1;
+        int fallback = -1;
+        // Sizes are sorted by area, so first accepted one from the end is largest
+        for (int i = sizes.size() - 1; i >= 0; i--) {
+            final int width = sizes.getWidth(i), height = sizes.getHeight(i);
+            if (!accept(width, height)) continue;
+            if (previewWidth <= 0 || previewHeight <= 0
+                    || isSameRatio(width, height, previewWidth, previewHeight)) return i;
+            if (fallback == -1) {
+                fallback = i;
+            }
+        }
+        return fallback != -1 ? fallback : 0;
+    }
+
+    /**
+     * @return Whether picture of this size is small enough
+     */
+    protected abstract boolean accept(int width, int height);
+
+    static boolean isSameRatio(int width1, int height1, int width2, int height2) {
+        // Ratios within 1% count as same, e.g. 1920x1088 and 1920x1080
+        final long a = (long) width1 * height2, b = (long) width2 * height1;
+        return Math.abs(a - b) * 100 <= Math.max(a, b);
+    }
+
+    private static class MaxLongEdgePolicy extends PictureSizePolicy {
+        private final int longEdge;
+
+        MaxLongEdgePolicy(int longEdge) {
+            this.longEdge = longEdge;
+        }
+
+        @Override
+        protected boolean accept(int width, int height) {
+            return Math.max(width, height) <= longEdge;
+        }
+    }
+
+    private static class MaxPixelsPolicy extends PictureSizePolicy {
+        private final int pixels;
+
+        MaxPixelsPolicy(int pixels) {
+            this.pixels = pixels;
+        }
+
+        @Override
+        protected boolean accept(int width, int height) {
+            return (long) width * height <= pixels;
+        }
+    }
+}
@@ -20,7 +20,17 @@ public interface Preview {
     boolean isAttachedToCamera();
 
     /**
-     * Called before releasing {@link android.hardware.Camera}
+     * Called after {@link android.hardware.Camera} opened, attach camera to preview surface here if
+     * it's already available. Also called when camera waiting to be released is reused, see
+     * {@link CameraView#setReleaseDelay(long)}, camera may still be attached in this case.
+     *
+     * @param camera Opened camera
+     */
+    void onCameraOpened(Camera camera);
+
+    /**
+     * Called before releasing {@link android.hardware.Camera}, this runs on camera thread if
+     * {@link CameraView#isCameraThreadEnabled()}
      * @param camera
      */
     void onPreReleaseCamera(Camera camera);
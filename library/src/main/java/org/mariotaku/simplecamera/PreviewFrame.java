@@ -0,0 +1,97 @@
+package org.mariotaku.simplecamera;
+
+/**
+ * Preview frame delivered by {@link CameraView.PreviewFrameCallback}. Frame data is backed by a
+ * preallocated buffer, call {@link #release()} when done with it so the buffer can be handed back
+ * to camera.
+ */
+public final class PreviewFrame {
+
+    private final FrameBufferPool pool;
+    private final byte[] data;
+    private final int width, height, format;
+    private final int generation;
+    private long timestamp;
+    private boolean inUse;
+
+    PreviewFrame(FrameBufferPool pool, byte[] data, int width, int height, int format, int generation) {
+        this.pool = pool;
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.generation = generation;
+    }
+
+    /**
+     * Creates a frame not backed by camera, e.g. to feed synthetic frames to a
+     * {@link FramePipeline} or {@link FrameProcessor} in tests. {@link #release()} only marks it
+     * released.
+     *
+     * @param data   Frame data in given format
+     * @param format Image format, see {@link android.graphics.ImageFormat}
+     */
+    public static PreviewFrame create(byte[] data, int width, int height, int format) {
+        if (data == null) throw new NullPointerException();
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid size");
+        final PreviewFrame frame = new PreviewFrame(null, data, width, height, format, 0);
+        frame.setInUse(true, System.nanoTime());
+        return frame;
+    }
+
+    /**
+     * @return Frame data, content is only valid before {@link #release()} called
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Image format of data, see {@link android.graphics.ImageFormat}
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * @return Time frame arrived, in {@link System#nanoTime()} base
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns buffer to camera, this frame must not be used after this call.
+     */
+    public void release() {
+        if (pool == null) {
+            setInUse(false, 0);
+            return;
+        }
+        pool.release(this);
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return false once {@link #release()} called
+     */
+    boolean isInUse() {
+        return inUse;
+    }
+
+    void setInUse(boolean inUse, long timestamp) {
+        this.inUse = inUse;
+        this.timestamp = timestamp;
+    }
+}
@@ -0,0 +1,307 @@
+package org.mariotaku.simplecamera;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Immutable crop and scale geometry between a view and camera preview filling it, obtain with
+ * {@link CameraView#getPreviewGeometry()}. CameraView only creates a new one when view size,
+ * preview size or camera rotation changes, so it can be kept and used from any thread.
+ * <br>
+ * Driver area coordinates are the ones used by {@link android.hardware.Camera.Area} and
+ * {@link android.hardware.Camera.Face}, from -1000 to 1000 over the whole preview frame and never
+ * mirrored, while preview of front camera is shown mirrored. Mapping methods work on float arrays
+ * in place and don't allocate. Only plain fields are kept, Android graphics objects are filled by
+ * callers.
+ */
+public final class PreviewGeometry {
+
+    private final int viewWidth, viewHeight;
+    private final int previewWidth, previewHeight;
+    private final int rotation;
+    private final boolean mirror;
+    // Visible region of preview frame, in preview frame coordinates
+    private final int displayLeft, displayTop, displayRight, displayBottom;
+    // Frame of SurfaceView in view coordinates
+    private final int surfaceLeft, surfaceTop, surfaceRight, surfaceBottom;
+    // View to driver area: x' = a * x + b * y + c, y' = d * x + e * y + f
+    private final float a, b, c, d, e, f;
+    // Driver area to view
+    private final float ia, ib, ic, id, ie, iF;
+    // Preview buffer stretched to view to scaled and cropped one
+    private final float textureScaleX, textureScaleY, textureTranslateX, textureTranslateY;
+
+    /**
+     * Same as {@link #PreviewGeometry(int, int, int, int, int, boolean)} for back facing camera
+     */
+    public PreviewGeometry(int viewWidth, int viewHeight, int previewWidth, int previewHeight, int rotation) {
+        this(viewWidth, viewHeight, previewWidth, previewHeight, rotation, false);
+    }
+
+    /**
+     * @param rotation Display orientation of camera, see {@link CameraView#getCameraRotation()}
+     * @param mirror   Whether preview is shown mirrored, true for front facing camera
+     */
+    public PreviewGeometry(int viewWidth, int viewHeight, int previewWidth, int previewHeight, int rotation,
+                           boolean mirror) {
+        if (viewWidth <= 0 || viewHeight <= 0 || previewWidth <= 0 || previewHeight <= 0)
+            throw new IllegalArgumentException("Sizes must be positive");
+        if (rotation % 90 != 0) throw new IllegalArgumentException("Invalid rotation " + rotation);
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+        this.rotation = (rotation % 360 + 360) % 360;
+        this.mirror = mirror;
+        final boolean swap = this.rotation % 180 != 0;
+        // View size in camera orientation
+        final int rotatedWidth = swap ? viewHeight : viewWidth, rotatedHeight = swap ? viewWidth : viewHeight;
+
+        final float viewRatio = (float) rotatedWidth / rotatedHeight;
+        final float cameraRatio = (float) previewWidth / previewHeight;
+        if (viewRatio > cameraRatio) {
+            // fit width
+            final int displayHeight = Math.max(1, Math.round(previewWidth / viewRatio));
+            displayLeft = 0;
+            displayTop = (previewHeight - displayHeight) / 2;
+            displayRight = previewWidth;
+            displayBottom = displayTop + displayHeight;
+        } else {
+            // fit height
+            final int displayWidth = Math.max(1, Math.round(previewHeight * viewRatio));
+            displayLeft = (previewWidth - displayWidth) / 2;
+            displayTop = 0;
+            displayRight = displayLeft + displayWidth;
+            displayBottom = previewHeight;
+        }
+
+        // Preview buffer is already rotated when drawn in view
+        final int cameraWidth = swap ? previewHeight : previewWidth;
+        final int cameraHeight = swap ? previewWidth : previewHeight;
+        final float surfaceViewRatio = (float) viewWidth / viewHeight;
+        final float surfaceCameraRatio = (float) cameraWidth / cameraHeight;
+        if (surfaceViewRatio > surfaceCameraRatio) {
+            // fit width
+            final int actualHeight = Math.round(viewWidth / surfaceCameraRatio);
+            surfaceLeft = 0;
+            surfaceTop = Math.round(-(viewWidth / surfaceCameraRatio - viewHeight) / 2);
+            surfaceRight = viewWidth;
+            surfaceBottom = surfaceTop + actualHeight;
+            textureScaleX = 1;
+            textureScaleY = viewWidth / surfaceCameraRatio / viewHeight;
+            textureTranslateX = 0;
+            textureTranslateY = -(viewWidth / surfaceCameraRatio - viewHeight) / 2;
+        } else {
+            // fit height
+            final int actualWidth = Math.round(viewHeight * surfaceCameraRatio);
+            surfaceLeft = Math.round(-(viewHeight * surfaceCameraRatio - viewWidth) / 2);
+            surfaceTop = 0;
+            surfaceRight = surfaceLeft + actualWidth;
+            surfaceBottom = viewHeight;
+            textureScaleX = viewHeight * surfaceCameraRatio / viewWidth;
+            textureScaleY = 1;
+            textureTranslateX = -(viewHeight * surfaceCameraRatio - viewWidth) / 2;
+            textureTranslateY = 0;
+        }
+
+        // Rotate view back to camera orientation, so (0, 0) stays top left
+        final float r00, r01, r02, r10, r11, r12;
+        switch (this.rotation) {
+            case 90: {
+                // Rotated by 270 degrees
+                r00 = 0;
+                r01 = 1;
+                r02 = 0;
+                r10 = -1;
+                r11 = 0;
+                r12 = viewWidth;
+                break;
+            }
+            case 180: {
+                r00 = -1;
+                r01 = 0;
+                r02 = viewWidth;
+                r10 = 0;
+                r11 = -1;
+                r12 = viewHeight;
+                break;
+            }
+            case 270: {
+                // Rotated by 90 degrees
+                r00 = 0;
+                r01 = -1;
+                r02 = viewHeight;
+                r10 = 1;
+                r11 = 0;
+                r12 = 0;
+                break;
+            }
+            default: {
+                r00 = 1;
+                r01 = 0;
+                r02 = 0;
+                r10 = 0;
+                r11 = 1;
+                r12 = 0;
+                break;
+            }
+        }
+        // Rotated view to preview frame, then preview frame to driver area
+        final float scaleX = (float) (displayRight - displayLeft) / rotatedWidth;
+        final float scaleY = (float) (displayBottom - displayTop) / rotatedHeight;
+        final float areaX = 2000f / previewWidth, areaY = 2000f / previewHeight;
+        final float sx = scaleX * areaX, sy = scaleY * areaY;
+        final float tx = displayLeft * areaX - 1000, ty = displayTop * areaY - 1000;
+        // Mirrored preview flips driver area horizontally
+        final float mx = mirror ? -1 : 1;
+        a = mx * sx * r00;
+        b = mx * sx * r01;
+        c = mx * (sx * r02 + tx);
+        d = sy * r10;
+        e = sy * r11;
+        f = sy * r12 + ty;
+
+        final float det = a * e - b * d;
+        ia = e / det;
+        ib = -b / det;
+        ic = (b * f - c * e) / det;
+        id = -d / det;
+        ie = a / det;
+        iF = (c * d - a * f) / det;
+    }
+
+    public int getViewWidth() {
+        return viewWidth;
+    }
+
+    public int getViewHeight() {
+        return viewHeight;
+    }
+
+    public int getPreviewWidth() {
+        return previewWidth;
+    }
+
+    public int getPreviewHeight() {
+        return previewHeight;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public boolean isMirror() {
+        return mirror;
+    }
+
+    /**
+     * @return Whether this geometry was created with these values
+     */
+    public boolean matches(int viewWidth, int viewHeight, int previewWidth, int previewHeight, int rotation,
+                           boolean mirror) {
+        return this.viewWidth == viewWidth && this.viewHeight == viewHeight
+                && this.previewWidth == previewWidth && this.previewHeight == previewHeight
+                && this.rotation == (rotation % 360 + 360) % 360 && this.mirror == mirror;
+    }
+
+    /**
+     * Gets region of preview frame visible in view, in preview frame coordinates
+     */
+    public void getDisplayBounds(RectF out) {
+        out.left = displayLeft;
+        out.top = displayTop;
+        out.right = displayRight;
+        out.bottom = displayBottom;
+    }
+
+    /**
+     * Gets frame {@link android.view.SurfaceView} should be laid out to, in view coordinates
+     */
+    public void getSurfaceFrame(Rect out) {
+        out.left = surfaceLeft;
+        out.top = surfaceTop;
+        out.right = surfaceRight;
+        out.bottom = surfaceBottom;
+    }
+
+    /**
+     * Gets transform for {@link android.view.TextureView#setTransform(android.graphics.Matrix)}
+     *
+     * @param values Array of at least 9 values, filled in order of
+     *               {@link android.graphics.Matrix#setValues(float[])}
+     */
+    public void getTextureTransform(float[] values) {
+        values[0] = textureScaleX;
+        values[1] = 0;
+        values[2] = textureTranslateX;
+        values[3] = 0;
+        values[4] = textureScaleY;
+        values[5] = textureTranslateY;
+        values[6] = 0;
+        values[7] = 0;
+        values[8] = 1;
+    }
+
+    /**
+     * Maps points from view to driver area coordinates in place
+     *
+     * @param points Points as x, y pairs
+     */
+    public void mapViewToArea(float[] points) {
+        mapViewToArea(points, 0, points, 0, points.length / 2);
+    }
+
+    public void mapViewToArea(float[] src, int srcOffset, float[] dst, int dstOffset, int pointCount) {
+        map(a, b, c, d, e, f, src, srcOffset, dst, dstOffset, pointCount);
+    }
+
+    /**
+     * Maps points from driver area to view coordinates in place, e.g. for drawing detected faces
+     *
+     * @param points Points as x, y pairs
+     */
+    public void mapAreaToView(float[] points) {
+        mapAreaToView(points, 0, points, 0, points.length / 2);
+    }
+
+    public void mapAreaToView(float[] src, int srcOffset, float[] dst, int dstOffset, int pointCount) {
+        map(ia, ib, ic, id, ie, iF, src, srcOffset, dst, dstOffset, pointCount);
+    }
+
+    /**
+     * Maps rect from view to driver area, clamped to -1000..1000
+     *
+     * @return false if mapped rect is empty after clamping
+     */
+    public boolean mapViewRectToArea(float left, float top, float right, float bottom, Rect out) {
+        final float x1 = a * left + b * top + c, y1 = d * left + e * top + f;
+        final float x2 = a * right + b * bottom + c, y2 = d * right + e * bottom + f;
+        out.left = CameraUtils.clamp(Math.round(Math.min(x1, x2)), 1000, -1000);
+        out.top = CameraUtils.clamp(Math.round(Math.min(y1, y2)), 1000, -1000);
+        out.right = CameraUtils.clamp(Math.round(Math.max(x1, x2)), 1000, -1000);
+        out.bottom = CameraUtils.clamp(Math.round(Math.max(y1, y2)), 1000, -1000);
+        return out.left < out.right && out.top < out.bottom;
+    }
+
+    /**
+     * Maps rect from driver area to view coordinates
+     */
+    public void mapAreaRectToView(Rect area, RectF out) {
+        final float x1 = ia * area.left + ib * area.top + ic, y1 = id * area.left + ie * area.top + iF;
+        final float x2 = ia * area.right + ib * area.bottom + ic, y2 = id * area.right + ie * area.bottom + iF;
+        out.left = Math.min(x1, x2);
+        out.top = Math.min(y1, y2);
+        out.right = Math.max(x1, x2);
+        out.bottom = Math.max(y1, y2);
+    }
+
+    private static void map(float a, float b, float c, float d, float e, float f, float[] src, int srcOffset,
+                            float[] dst, int dstOffset, int pointCount) {
+        for (int i = 0; i < pointCount; i++) {
+            final int si = srcOffset + i * 2, di = dstOffset + i * 2;
+            final float x = src[si], y = src[si + 1];
+            dst[di] = a * x + b * y + c;
+            dst[di + 1] = d * x + e * y + f;
+        }
+    }
+}
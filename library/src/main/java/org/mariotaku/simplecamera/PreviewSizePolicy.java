@@ -0,0 +1,154 @@
+package org.mariotaku.simplecamera;
+
+import android.media.CamcorderProfile;
+
+/**
+ * Chooses preview size for view size, set with {@link CameraView#setPreviewSizePolicy(PreviewSizePolicy)}.
+ * Every supported size is scored and the one with lowest score wins.
+ * <br>
+ * Preview fills the view and is cropped to it, so a size with different aspect ratio than view
+ * wastes pixels, and a size smaller than view after cropping is upscaled.
+ */
+public abstract class PreviewSizePolicy {
+
+    /**
+     * Added to score of sizes which have to be upscaled to fill view, so they only win if no size
+     * covers the view
+     */
+    protected static final double UPSCALE_PENALTY = 1e12;
+
+    /**
+     * Cropped pixels are never shown while downscaled ones still add detail, so they cost more
+     */
+    protected static final double CROPPED_PIXEL_WEIGHT = 4;
+
+    /**
+     * Chooses size with least pixels which are cropped or downscaled away, sizes with same aspect
+     * ratio as view win over larger ones with different ratio
+     */
+    public static PreviewSizePolicy minimizeWaste() {
+        return new MinimizeWastePolicy();
+    }
+
+    /**
+     * Chooses smallest size covering the view, aspect ratio only matters between sizes of same
+     * area, like default behavior of {@link CameraView}.
+     */
+    public static PreviewSizePolicy minimizeBandwidth() {
+        return new MinimizeBandwidthPolicy();
+    }
+
+    /**
+     * Chooses size with same aspect ratio as video frames of profile, so preview doesn't jump
+     * when recording starts, then least waste
+     */
+    public static PreviewSizePolicy matchVideoProfile(CamcorderProfile profile) {
+        return matchVideoSize(profile.videoFrameWidth, profile.videoFrameHeight);
+    }
+
+    static PreviewSizePolicy matchVideoSize(int videoWidth, int videoHeight) {
+        return new MatchVideoProfilePolicy(videoWidth, videoHeight);
+    }
+
+    /**
+     * @return Index of chosen size in {@link CameraCapabilities#getPreviewSizes()}, or -1 if there
+     * is no size
+     */
+    public int select(CameraCapabilities capabilities, int width, int height, int rotation) {
+        return select(capabilities.getPreviewSizes(), width, height, rotation);
+    }
+
+    int select(CameraCapabilities.SizeTable sizes, int width, int height, int rotation) {
+        if (width <= 0 || height <= 0) return sizes.getLargest();
+        final boolean swap = rotation % 180 != 0;
+        final int requiredWidth = swap ? height : width, requiredHeight = swap ? width : height;
+        int best = -1;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int i = 0, j = sizes.size(); i < j; i++) {
+            final double score = score(sizes.getWidth(i), sizes.getHeight(i), requiredWidth, requiredHeight);
+            // Sizes are sorted by area, so ties go to smaller one
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param previewWidth   Width of candidate size
+     * @param previewHeight  Height of candidate size
+     * @param requiredWidth  Width of view, in camera orientation
+     * @param requiredHeight Height of view, in camera orientation
+     * @return Score of size, lower is better
+     */
+    protected abstract double score(int previewWidth, int previewHeight, int requiredWidth, int requiredHeight);
+
+    /**
+     * @return Fraction of preview pixels cropped away when filling view, 0 if aspect ratios match
+     */
+    protected static double getCroppedFraction(int previewWidth, int previewHeight, int requiredWidth,
+                                               int requiredHeight) {
+        final double previewRatio = (double) previewWidth / previewHeight;
+        final double requiredRatio = (double) requiredWidth / requiredHeight;
+        return 1 - Math.min(previewRatio / requiredRatio, requiredRatio / previewRatio);
+    }
+
+    /**
+     * @return Factor preview is scaled by to fill view, greater than 1 means upscaling
+     */
+    protected static double getFillScale(int previewWidth, int previewHeight, int requiredWidth,
+                                         int requiredHeight) {
+        return Math.max((double) requiredWidth / previewWidth, (double) requiredHeight / previewHeight);
+    }
+
+    /**
+     * @return Pixels of preview frame cropped away, weighted by {@link #CROPPED_PIXEL_WEIGHT}, plus
+     * pixels lost by downscaling. {@link #UPSCALE_PENALTY} plus upscale factor if preview is
+     * smaller than view
+     */
+    protected static double getWastedPixels(int previewWidth, int previewHeight, int requiredWidth,
+                                            int requiredHeight) {
+        final double scale = getFillScale(previewWidth, previewHeight, requiredWidth, requiredHeight);
+        if (scale > 1) return UPSCALE_PENALTY + scale;
+        final double area = (double) previewWidth * previewHeight;
+        final double cropped = area * getCroppedFraction(previewWidth, previewHeight, requiredWidth, requiredHeight);
+        final double downscaled = area - cropped - (double) requiredWidth * requiredHeight;
+        return cropped * CROPPED_PIXEL_WEIGHT + Math.max(0, downscaled);
+    }
+
+    private static class MinimizeWastePolicy extends PreviewSizePolicy {
+        @Override
+        protected double score(int previewWidth, int previewHeight, int requiredWidth, int requiredHeight) {
+            return getWastedPixels(previewWidth, previewHeight, requiredWidth, requiredHeight);
+        }
+    }
+
+    private static class MinimizeBandwidthPolicy extends PreviewSizePolicy {
+        @Override
+        protected double score(int previewWidth, int previewHeight, int requiredWidth, int requiredHeight) {
+            final double scale = getFillScale(previewWidth, previewHeight, requiredWidth, requiredHeight);
+            if (scale > 1) return UPSCALE_PENALTY + scale;
+            // Crop fraction is below 1, only breaks ties of area
+            return (double) previewWidth * previewHeight
+                    + getCroppedFraction(previewWidth, previewHeight, requiredWidth, requiredHeight);
+        }
+    }
+
+    private static class MatchVideoProfilePolicy extends PreviewSizePolicy {
+        private final int videoWidth, videoHeight;
+
+        MatchVideoProfilePolicy(int videoWidth, int videoHeight) {
+            this.videoWidth = videoWidth;
+            this.videoHeight = videoHeight;
+        }
+
+        @Override
+        protected double score(int previewWidth, int previewHeight, int requiredWidth, int requiredHeight) {
+            final double mismatch = getCroppedFraction(previewWidth, previewHeight, videoWidth, videoHeight);
+            final double wasted = getWastedPixels(previewWidth, previewHeight, requiredWidth, requiredHeight);
+            // Ratios within 1% count as same, e.g. 1920x1088 and 1920x1080
+            return mismatch > 0.01 ? UPSCALE_PENALTY * 4 + wasted : wasted;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.mariotaku.simplecamera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.Camera;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.view.Display;
+import android.view.WindowManager;
+
+/**
+ * Resolves rotations of {@link CameraView}. {@link Camera.CameraInfo} is queried once per camera
+ * and display rotation is tracked with {@link DisplayManager.DisplayListener} on API 17 and above,
+ * so rotation getters are field reads.
+ * <br>
+ * Below API 17 display rotation is read again on {@link #updateDisplayRotation()}, which
+ * {@link CameraView} calls on configuration change and measure.
+ */
+final class RotationResolver {
+
+    private static final SparseArray<Camera.CameraInfo> sCameraInfos = new SparseArray<>();
+
+    private final CameraView mCameraView;
+    private final Display mDisplay;
+    private final Object mDisplayListener;
+    private int mCameraId = -1;
+    private int mFacing, mOrientation;
+    private volatile int mDisplayRotation;
+    private volatile int mCameraRotation, mPictureRotation;
+
+    RotationResolver(CameraView cameraView) {
+        mCameraView = cameraView;
+        final Context context = cameraView.getContext();
+        final WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        mDisplay = wm.getDefaultDisplay();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            mDisplayListener = new InternalDisplayListener(this, mDisplay.getDisplayId());
+        } else {
+            mDisplayListener = null;
+        }
+        mDisplayRotation = mDisplay.getRotation();
+    }
+
+    /**
+     * @return Cached info of camera, shared between callers and must not be modified
+     */
+    static Camera.CameraInfo getCameraInfo(int cameraId) {
+        synchronized (sCameraInfos) {
+            Camera.CameraInfo info = sCameraInfos.get(cameraId);
+            if (info == null) {
+                info = new Camera.CameraInfo();
+                Camera.getCameraInfo(cameraId, info);
+                sCameraInfos.put(cameraId, info);
+            }
+            return info;
+        }
+    }
+
+    /**
+     * Starts tracking display rotation, call when view attached to window
+     */
+    void start() {
+        if (mDisplayListener != null) {
+            registerDisplayListener();
+        }
+        updateDisplayRotation();
+    }
+
+    /**
+     * Stops tracking display rotation, call when view detached from window
+     */
+    void stop() {
+        if (mDisplayListener != null) {
+            unregisterDisplayListener();
+        }
+    }
+
+    /**
+     * @return Whether display rotation changes are delivered without calling {@link #updateDisplayRotation()}
+     */
+    boolean isTrackingDisplay() {
+        return mDisplayListener != null;
+    }
+
+    /**
+     * @param cameraId Opening camera ID, or -1 if camera released
+     */
+    void setCameraId(int cameraId) {
+        if (mCameraId == cameraId) return;
+        mCameraId = cameraId;
+        if (cameraId != -1) {
+            final Camera.CameraInfo info = getCameraInfo(cameraId);
+            mFacing = info.facing;
+            mOrientation = info.orientation;
+        }
+        updateRotations();
+    }
+
+    void updateDisplayRotation() {
+        final int rotation = mDisplay.getRotation();
+        if (rotation == mDisplayRotation) return;
+        mDisplayRotation = rotation;
+        updateRotations();
+        mCameraView.onDisplayRotationChanged();
+    }
+
+    /**
+     * @return One of {@link android.view.Surface#ROTATION_0} and others
+     */
+    int getDisplayRotation() {
+        return mDisplayRotation;
+    }
+
+    /**
+     * @return Display orientation for opening camera, or 0 if no camera opened
+     */
+    int getCameraRotation() {
+        return mCameraRotation;
+    }
+
+    /**
+     * @return Rotation of pictures taken by opening camera, or 0 if no camera opened
+     */
+    int getPictureRotation() {
+        return mPictureRotation;
+    }
+
+    private void updateRotations() {
+        if (mCameraId == -1) {
+            mCameraRotation = 0;
+            mPictureRotation = 0;
+            return;
+        }
+        mCameraRotation = Rotations.getCameraRotation(mDisplayRotation, mFacing, mOrientation);
+        mPictureRotation = Rotations.getPictureRotation(mDisplayRotation, mFacing, mOrientation);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void registerDisplayListener() {
+        final DisplayManager dm = (DisplayManager) mCameraView.getContext().getSystemService(Context.DISPLAY_SERVICE);
+        dm.registerDisplayListener((DisplayManager.DisplayListener) mDisplayListener,
+                new Handler(Looper.getMainLooper()));
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void unregisterDisplayListener() {
+        final DisplayManager dm = (DisplayManager) mCameraView.getContext().getSystemService(Context.DISPLAY_SERVICE);
+        dm.unregisterDisplayListener((DisplayManager.DisplayListener) mDisplayListener);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static class InternalDisplayListener implements DisplayManager.DisplayListener {
+        private final RotationResolver resolver;
+        private final int displayId;
+
+        InternalDisplayListener(RotationResolver resolver, int displayId) {
+            this.resolver = resolver;
+            this.displayId = displayId;
+        }
+
+        @Override
+        public void onDisplayAdded(int displayId) {
+
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId != this.displayId) return;
+            resolver.updateDisplayRotation();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.mariotaku.simplecamera;
+
+import android.hardware.Camera;
+import android.view.Surface;
+
+/**
+ * Rotation arithmetic shared by {@link RotationResolver}, {@link CameraUtils} and
+ * {@link CameraPrewarmer}. Only uses compile-time constants of Android classes, so it can be
+ * tested on plain JVM.
+ */
+final class Rotations {
+
+    private Rotations() {
+    }
+
+    /**
+     * @param displayRotation One of {@link Surface#ROTATION_0} and others
+     * @return Display rotation in degrees, 0 for unknown values
+     */
+    static int getDisplayDegrees(int displayRotation) {
+        switch (displayRotation) {
+            case Surface.ROTATION_90:
+                return 90;
+            case Surface.ROTATION_180:
+                return 180;
+            case Surface.ROTATION_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param displayRotation One of {@link Surface#ROTATION_0} and others
+     * @param facing          {@link Camera.CameraInfo#facing}
+     * @param orientation     {@link Camera.CameraInfo#orientation}
+     * @return Value for {@link Camera#setDisplayOrientation(int)}
+     */
+    static int getCameraRotation(int displayRotation, int facing, int orientation) {
+        final int degrees = getDisplayDegrees(displayRotation);
+        if (facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            final int result = (orientation + degrees) % 360;
+            return (360 - result) % 360; // compensate the mirror
+        }
+        return (orientation - degrees + 360) % 360;
+    }
+
+    /**
+     * @param displayRotation One of {@link Surface#ROTATION_0} and others
+     * @param facing          {@link Camera.CameraInfo#facing}
+     * @param orientation     {@link Camera.CameraInfo#orientation}
+     * @return Clockwise rotation for pictures taken to be upright
+     */
+    static int getPictureRotation(int displayRotation, int facing, int orientation) {
+        final int degrees = getDisplayDegrees(displayRotation);
+        if (facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            final int result = (orientation + degrees) % 360;
+            return (540 - result) % 360; // compensate the mirror
+        }
+        return (orientation - degrees + 360) % 360;
+    }
+}
@@ -1,6 +1,7 @@
 package org.mariotaku.simplecamera;
 
 import android.content.Context;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.media.MediaRecorder;
 import android.util.Log;
@@ -17,7 +18,9 @@ public class SurfacePreview implements Preview, SurfaceHolder.Callback {
 
     private final CameraView mCameraView;
     private final SurfaceView mSurfaceView;
-    private boolean mAttachedToCamera;
+    // Cleared in detachCamera on camera thread, read on main thread
+    private volatile boolean mAttachedToCamera;
+    private final Rect mSurfaceFrame = new Rect();
 
     public SurfacePreview(CameraView cameraView) {
         mCameraView = cameraView;
@@ -47,16 +50,18 @@ public class SurfacePreview implements Preview, SurfaceHolder.Callback {
         return mAttachedToCamera;
     }
 
+    @Override
+    public void onCameraOpened(Camera camera) {
+        final SurfaceHolder holder = mSurfaceView.getHolder();
+        // Callback removed when previous camera released, add it back if camera switched
+        holder.addCallback(this);
+        if (holder.getSurface() == null || !holder.getSurface().isValid()) return;
+        attachCamera(camera, holder);
+    }
+
     @Override
     public void onPreReleaseCamera(Camera camera) {
-        mCameraView.setCameraPreviewStarted(false);
-        camera.stopPreview();
-        try {
-            mAttachedToCamera = false;
-            camera.setPreviewDisplay(null);
-        } catch (IOException e) {
-            Log.w(CameraView.LOGTAG, e);
-        }
+        detachCamera(camera);
         mSurfaceView.getHolder().removeCallback(this);
     }
 
@@ -104,17 +109,7 @@ public class SurfacePreview implements Preview, SurfaceHolder.Callback {
     public void surfaceCreated(SurfaceHolder holder) {
         final Camera camera = mCameraView.openCameraIfNeeded();
         if (camera == null) return;
-        try {
-            final Camera.Parameters parameters = camera.getParameters();
-            camera.setParameters(parameters);
-            setCameraPreview(camera, holder);
-            mAttachedToCamera = true;
-            camera.startPreview();
-            mCameraView.setCameraPreviewStarted(true);
-            mCameraView.requestLayout();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        attachCamera(camera, holder);
     }
 
     @Override
@@ -125,6 +120,18 @@ public class SurfacePreview implements Preview, SurfaceHolder.Callback {
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         mCameraView.releaseCamera();
+        final Camera camera = mCameraView.getOpeningCamera();
+        if (mCameraView.isReleasePending() && camera != null) {
+            // Camera kept for a while, but it can't keep using this surface
+            mCameraView.runOnCameraThread(new Runnable() {
+                @Override
+                public void run() {
+                    detachCamera(camera);
+                }
+            });
+        }
+        // Surface is gone after this callback returns, so camera must be detached before that
+        mCameraView.waitForCameraThread();
     }
 
     protected SurfaceView createSurfaceView(Context context) {
@@ -135,33 +142,47 @@ public class SurfacePreview implements Preview, SurfaceHolder.Callback {
         camera.setPreviewDisplay(holder);
     }
 
+    private void detachCamera(Camera camera) {
+        mCameraView.setCameraPreviewStarted(false);
+        camera.stopPreview();
+        try {
+            mAttachedToCamera = false;
+            camera.setPreviewDisplay(null);
+        } catch (IOException e) {
+            Log.w(CameraView.LOGTAG, e);
+        }
+    }
+
+    private void attachCamera(final Camera camera, final SurfaceHolder holder) {
+        if (mAttachedToCamera) return;
+        mAttachedToCamera = true;
+        mCameraView.runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    setCameraPreview(camera, holder);
+                    camera.startPreview();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                mCameraView.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCameraView.setCameraPreviewStarted(true);
+                        mCameraView.requestLayout();
+                    }
+                });
+            }
+        });
+    }
+
     private void updateSurface(final Camera camera, final SurfaceHolder holder, final int width,
                                final int height) {
         if (camera == null || width == 0 || height == 0) return;
-        final Camera.Size size = camera.getParameters().getPreviewSize();
-        final boolean isPortrait = mCameraView.getCameraRotation() % 180 != 0;
-        final int cameraWidth = isPortrait ? size.height : size.width;
-        final int cameraHeight = isPortrait ? size.width : size.height;
-        final float viewRatio = (float) width / height, cameraRatio = (float) cameraWidth / cameraHeight;
-        final int actualW, actualH;
-        if (viewRatio > cameraRatio) {
-            // fit width
-            actualW = width;
-            actualH = Math.round(width / cameraRatio);
-        } else {
-            // fit height
-            actualW = Math.round(height * cameraRatio);
-            actualH = height;
-        }
-//        holder.setFixedSize(actualW, actualH);
-        final int translateX, translateY;
-        if (viewRatio > cameraRatio) {
-            translateX = 0;
-            translateY = Math.round(-(width / cameraRatio - height) / 2);
-        } else {
-            translateX = Math.round(-(height * cameraRatio - width) / 2);
-            translateY = 0;
-        }
-        mSurfaceView.layout(translateX, translateY, translateX + actualW, translateY + actualH);
+        final PreviewGeometry geometry = mCameraView.getPreviewGeometry(width, height);
+        if (geometry == null) return;
+        geometry.getSurfaceFrame(mSurfaceFrame);
+        mSurfaceView.layout(mSurfaceFrame.left, mSurfaceFrame.top, mSurfaceFrame.right, mSurfaceFrame.bottom);
     }
 }
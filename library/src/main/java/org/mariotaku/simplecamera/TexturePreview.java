@@ -18,7 +18,12 @@ public class TexturePreview implements Preview, TextureView.SurfaceTextureListen
 
     private final CameraView mCameraView;
     private final TextureView mTextureView;
-    private boolean mAttachedToCamera;
+    private final Matrix mTransform = new Matrix();
+    private final float[] mTransformValues = new float[9];
+    // Cleared on camera thread in onPreReleaseCamera, read on main thread
+    private volatile boolean mAttachedToCamera;
+    // Texture kept attached to camera waiting to be released, set back to view on resume
+    private volatile SurfaceTexture mRetainedSurfaceTexture;
 
     public TexturePreview(CameraView cameraView) {
         mCameraView = cameraView;
@@ -49,6 +54,20 @@ public class TexturePreview implements Preview, TextureView.SurfaceTextureListen
         return mAttachedToCamera;
     }
 
+    @Override
+    public void onCameraOpened(Camera camera) {
+        final SurfaceTexture retained = mRetainedSurfaceTexture;
+        if (retained != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Camera kept rendering to this texture, give it back to view
+            mRetainedSurfaceTexture = null;
+            mTextureView.setSurfaceTexture(retained);
+            return;
+        }
+        if (!mTextureView.isAvailable()) return;
+        attachCamera(camera, mTextureView.getSurfaceTexture(), mTextureView.getWidth(),
+                mTextureView.getHeight());
+    }
+
     @Override
     public void onPreReleaseCamera(Camera camera) {
         mCameraView.setCameraPreviewStarted(false);
@@ -59,6 +78,11 @@ public class TexturePreview implements Preview, TextureView.SurfaceTextureListen
         } catch (IOException e) {
             e.printStackTrace();
         }
+        final SurfaceTexture retained = mRetainedSurfaceTexture;
+        if (retained != null) {
+            mRetainedSurfaceTexture = null;
+            retained.release();
+        }
     }
 
     @Override
@@ -100,18 +124,21 @@ public class TexturePreview implements Preview, TextureView.SurfaceTextureListen
     public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
         final Camera camera = mCameraView.openCameraIfNeeded();
         if (camera == null) return;
-        try {
-            final Camera.Parameters parameters = camera.getParameters();
-            camera.setParameters(parameters);
-            camera.setPreviewTexture(surface);
-            mAttachedToCamera = true;
-            updateSurface(camera, width, height);
-            camera.startPreview();
-            mCameraView.setCameraPreviewStarted(true);
-            mCameraView.requestLayout();
-        } catch (IOException e) {
-            e.printStackTrace();
+        final SurfaceTexture retained = mRetainedSurfaceTexture;
+        if (retained != null && retained != surface) {
+            // View created a new texture before camera resumed, move camera to it
+            mRetainedSurfaceTexture = null;
+            mAttachedToCamera = false;
+            mCameraView.setCameraPreviewStarted(false);
+            mCameraView.runOnCameraThread(new Runnable() {
+                @Override
+                public void run() {
+                    camera.stopPreview();
+                    retained.release();
+                }
+            });
         }
+        attachCamera(camera, surface, width, height);
     }
 
     @Override
@@ -120,41 +147,60 @@ public class TexturePreview implements Preview, TextureView.SurfaceTextureListen
     }
 
     @Override
-    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+    public boolean onSurfaceTextureDestroyed(final SurfaceTexture surface) {
         mCameraView.releaseCamera();
-        return true;
+        if (mCameraView.isReleasePending() && mAttachedToCamera) {
+            // Camera may be resumed soon, keep texture so it needn't be attached again
+            mRetainedSurfaceTexture = surface;
+            return false;
+        }
+        if (!mCameraView.isCameraThreadEnabled()) return true;
+        // Camera is released asynchronously, so keep texture alive until camera detached from it
+        mCameraView.runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                surface.release();
+            }
+        });
+        return false;
     }
 
     @Override
     public void onSurfaceTextureUpdated(SurfaceTexture surface) {
     }
 
+    private void attachCamera(final Camera camera, final SurfaceTexture surface, int width, int height) {
+        if (mAttachedToCamera) return;
+        mAttachedToCamera = true;
+        updateSurface(camera, width, height);
+        mCameraView.runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    camera.setPreviewTexture(surface);
+                    camera.startPreview();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                mCameraView.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCameraView.setCameraPreviewStarted(true);
+                        mCameraView.requestLayout();
+                    }
+                });
+            }
+        });
+    }
+
     private void updateSurface(final Camera camera, final int width, final int height) {
         if (camera == null || width == 0 || height == 0) return;
-        final Camera.Size size = camera.getParameters().getPreviewSize();
-        final int rotation = mCameraView.getCameraRotation();
-        final boolean isPortrait = (rotation % 180) != 0;
-        final int cameraWidth = isPortrait ? size.height : size.width;
-        final int cameraHeight = isPortrait ? size.width : size.height;
-        final float viewRatio = (float) width / height, cameraRatio = (float) cameraWidth / cameraHeight;
-        final Matrix transform = new Matrix();
-        if (viewRatio > cameraRatio) {
-            // fit width
-            transform.setScale(1, width / cameraRatio / height);
-        } else {
-            // fit height
-            transform.setScale(height * cameraRatio / width, 1);
-        }
-        final float translateX, translateY;
-        if (viewRatio > cameraRatio) {
-            translateX = 0;
-            translateY = -(width / cameraRatio - height) / 2;
-        } else {
-            translateX = -(height * cameraRatio - width) / 2;
-            translateY = 0;
-        }
-        transform.postTranslate(translateX, translateY);
-        mTextureView.setTransform(transform);
+        final PreviewGeometry geometry = mCameraView.getPreviewGeometry(width, height);
+        if (geometry == null) return;
+        geometry.getTextureTransform(mTransformValues);
+        mTransform.setValues(mTransformValues);
+        mTextureView.setTransform(mTransform);
     }
 
 }
@@ -0,0 +1,297 @@
+package org.mariotaku.simplecamera;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Converts between NV21 preview data and ARGB pixels, writing into caller provided buffers.
+ * <br>
+ * Uses BT.601 fixed-point coefficients and converts two rows per pass so each chroma sample is
+ * read and computed once for four pixels. Static methods convert on calling thread, an instance
+ * splits frames into row bands and converts them in parallel.
+ */
+public final class YuvConverter {
+
+    // Results are in 18-bit fixed point before shifted to 8-bit channels
+    private static final int MAX_CHANNEL = 262143;
+
+    private final ExecutorService executor;
+    private final int bandCount;
+    private final boolean ownsExecutor;
+
+    /**
+     * Creates a converter with its own pool of {@code bandCount - 1} threads, calling thread
+     * converts one band as well.
+     *
+     * @param bandCount Number of row bands a frame split into
+     */
+    public YuvConverter(int bandCount) {
+        this(bandCount > 1 ? Executors.newFixedThreadPool(bandCount - 1) : null, bandCount, true);
+    }
+
+    /**
+     * @param executor  Executor to convert bands on, will not be shut down by this converter
+     * @param bandCount Number of row bands a frame split into
+     */
+    public YuvConverter(ExecutorService executor, int bandCount) {
+        this(executor, bandCount, false);
+    }
+
+    private YuvConverter(ExecutorService executor, int bandCount, boolean ownsExecutor) {
+        if (bandCount < 1) throw new IllegalArgumentException("bandCount must be positive");
+        if (bandCount > 1 && executor == null) throw new NullPointerException();
+        this.executor = executor;
+        this.bandCount = bandCount;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Converts NV21 data to ARGB pixels on calling thread
+     *
+     * @param nv21   NV21 data, width * height * 3 / 2 bytes
+     * @param width  Frame width, must be even
+     * @param height Frame height, must be even
+     * @param out    Output of width * height ARGB pixels
+     */
+    public static void nv21ToArgb(byte[] nv21, int width, int height, int[] out) {
+        checkNv21(nv21, width, height);
+        if (out.length < width * height) throw new IllegalArgumentException("Output too small");
+        nv21ToArgb(nv21, width, height, out, 0, height);
+    }
+
+    /**
+     * Converts NV21 data to RGBA bytes (memory layout of {@code Bitmap.Config.ARGB_8888}, see
+     * {@code Bitmap.copyPixelsFromBuffer}) on calling thread, starting from current position of
+     * output buffer. Buffer position is not changed.
+     */
+    public static void nv21ToRgba(byte[] nv21, int width, int height, ByteBuffer out) {
+        checkNv21(nv21, width, height);
+        if (out.remaining() < width * height * 4) throw new IllegalArgumentException("Output too small");
+        nv21ToRgba(nv21, width, height, out, out.position(), 0, height);
+    }
+
+    /**
+     * Converts ARGB pixels to NV21 on calling thread, each chroma sample is averaged from 2x2
+     * pixels it covers.
+     *
+     * @param argb   Input of width * height ARGB pixels
+     * @param width  Frame width, must be even
+     * @param height Frame height, must be even
+     * @param out    Output of width * height * 3 / 2 bytes
+     */
+    public static void argbToNv21(int[] argb, int width, int height, byte[] out) {
+        checkNv21(out, width, height);
+        if (argb.length < width * height) throw new IllegalArgumentException("Input too small");
+        argbToNv21(argb, width, height, out, 0, height);
+    }
+
+    public static int getNv21Size(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Parallel version of {@link #nv21ToArgb(byte[], int, int, int[])}, returns after whole frame
+     * converted.
+     */
+    public void convertNv21ToArgb(final byte[] nv21, final int width, final int height, final int[] out) {
+        checkNv21(nv21, width, height);
+        if (out.length < width * height) throw new IllegalArgumentException("Output too small");
+        runBands(height, new BandConverter() {
+            @Override
+            public void convert(int startRow, int endRow) {
+                nv21ToArgb(nv21, width, height, out, startRow, endRow);
+            }
+        });
+    }
+
+    /**
+     * Parallel version of {@link #nv21ToRgba(byte[], int, int, ByteBuffer)}
+     */
+    public void convertNv21ToRgba(final byte[] nv21, final int width, final int height, final ByteBuffer out) {
+        checkNv21(nv21, width, height);
+        if (out.remaining() < width * height * 4) throw new IllegalArgumentException("Output too small");
+        final int offset = out.position();
+        runBands(height, new BandConverter() {
+            @Override
+            public void convert(int startRow, int endRow) {
+                nv21ToRgba(nv21, width, height, out, offset, startRow, endRow);
+            }
+        });
+    }
+
+    /**
+     * Parallel version of {@link #argbToNv21(int[], int, int, byte[])}
+     */
+    public void convertArgbToNv21(final int[] argb, final int width, final int height, final byte[] out) {
+        checkNv21(out, width, height);
+        if (argb.length < width * height) throw new IllegalArgumentException("Input too small");
+        runBands(height, new BandConverter() {
+            @Override
+            public void convert(int startRow, int endRow) {
+                argbToNv21(argb, width, height, out, startRow, endRow);
+            }
+        });
+    }
+
+    /**
+     * Shuts down thread pool created by this converter
+     */
+    public void shutdown() {
+        if (ownsExecutor && executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void runBands(int height, BandConverter converter) {
+        final int pairs = height / 2;
+        final int bands = Math.min(bandCount, pairs);
+        if (bands <= 1) {
+            converter.convert(0, height);
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(bands - 1);
+        final BandTask[] tasks = new BandTask[bands - 1];
+        // Band boundaries stay on even rows so row pairs sharing chroma are never split
+        for (int i = 1; i < bands; i++) {
+            final int startRow = pairs * i / bands * 2, endRow = pairs * (i + 1) / bands * 2;
+            tasks[i - 1] = new BandTask(converter, startRow, endRow, latch);
+            executor.execute(tasks[i - 1]);
+        }
+        converter.convert(0, pairs / bands * 2);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        for (BandTask task : tasks) {
+            if (task.error != null) throw task.error;
+        }
+    }
+
+    private static void nv21ToArgb(byte[] nv21, int width, int height, int[] out, int startRow, int endRow) {
+        final int frameSize = width * height;
+        for (int row = startRow; row < endRow; row += 2) {
+            int yp0 = row * width, yp1 = yp0 + width;
+            int uvp = frameSize + (row >> 1) * width;
+            for (int col = 0; col < width; col += 2) {
+                final int v = (0xff & nv21[uvp++]) - 128;
+                final int u = (0xff & nv21[uvp++]) - 128;
+                final int rc = 1634 * v, gc = -833 * v - 400 * u, bc = 2066 * u;
+                out[yp0] = yuvToArgb(nv21[yp0], rc, gc, bc);
+                out[yp0 + 1] = yuvToArgb(nv21[yp0 + 1], rc, gc, bc);
+                out[yp1] = yuvToArgb(nv21[yp1], rc, gc, bc);
+                out[yp1 + 1] = yuvToArgb(nv21[yp1 + 1], rc, gc, bc);
+                yp0 += 2;
+                yp1 += 2;
+            }
+        }
+    }
+
+    private static void nv21ToRgba(byte[] nv21, int width, int height, ByteBuffer out, int offset,
+                                   int startRow, int endRow) {
+        final int frameSize = width * height;
+        for (int row = startRow; row < endRow; row += 2) {
+            int yp0 = row * width, yp1 = yp0 + width;
+            int uvp = frameSize + (row >> 1) * width;
+            for (int col = 0; col < width; col += 2) {
+                final int v = (0xff & nv21[uvp++]) - 128;
+                final int u = (0xff & nv21[uvp++]) - 128;
+                final int rc = 1634 * v, gc = -833 * v - 400 * u, bc = 2066 * u;
+                putRgba(out, offset + yp0 * 4, yuvToArgb(nv21[yp0], rc, gc, bc));
+                putRgba(out, offset + yp0 * 4 + 4, yuvToArgb(nv21[yp0 + 1], rc, gc, bc));
+                putRgba(out, offset + yp1 * 4, yuvToArgb(nv21[yp1], rc, gc, bc));
+                putRgba(out, offset + yp1 * 4 + 4, yuvToArgb(nv21[yp1 + 1], rc, gc, bc));
+                yp0 += 2;
+                yp1 += 2;
+            }
+        }
+    }
+
+    private static void argbToNv21(int[] argb, int width, int height, byte[] out, int startRow, int endRow) {
+        final int frameSize = width * height;
+        for (int row = startRow; row < endRow; row += 2) {
+            int p0 = row * width, p1 = p0 + width;
+            int uvp = frameSize + (row >> 1) * width;
+            for (int col = 0; col < width; col += 2) {
+                final int c00 = argb[p0], c01 = argb[p0 + 1], c10 = argb[p1], c11 = argb[p1 + 1];
+                out[p0] = rgbToY(c00);
+                out[p0 + 1] = rgbToY(c01);
+                out[p1] = rgbToY(c10);
+                out[p1 + 1] = rgbToY(c11);
+                // Sum of 4 pixels, divided in chroma calculation
+                final int r = ((c00 >> 16) & 0xff) + ((c01 >> 16) & 0xff) + ((c10 >> 16) & 0xff) + ((c11 >> 16) & 0xff);
+                final int g = ((c00 >> 8) & 0xff) + ((c01 >> 8) & 0xff) + ((c10 >> 8) & 0xff) + ((c11 >> 8) & 0xff);
+                final int b = (c00 & 0xff) + (c01 & 0xff) + (c10 & 0xff) + (c11 & 0xff);
+                out[uvp++] = (byte) (((112 * r - 94 * g - 18 * b + 512) >> 10) + 128);
+                out[uvp++] = (byte) (((-38 * r - 74 * g + 112 * b + 512) >> 10) + 128);
+                p0 += 2;
+                p1 += 2;
+            }
+        }
+    }
+
+    private static int yuvToArgb(byte yByte, int rc, int gc, int bc) {
+        // Footroom below 16 is kept as BT.601 defines, rounded before channels truncated
+        final int y = 1192 * ((0xff & yByte) - 16) + 512;
+        int r = y + rc, g = y + gc, b = y + bc;
+        // Branch-free clamp to [0, MAX_CHANNEL]
+        r &= ~(r >> 31);
+        g &= ~(g >> 31);
+        b &= ~(b >> 31);
+        r = (r | ((MAX_CHANNEL - r) >> 31)) & MAX_CHANNEL;
+        g = (g | ((MAX_CHANNEL - g) >> 31)) & MAX_CHANNEL;
+        b = (b | ((MAX_CHANNEL - b) >> 31)) & MAX_CHANNEL;
+        return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    }
+
+    private static byte rgbToY(int color) {
+        final int r = (color >> 16) & 0xff, g = (color >> 8) & 0xff, b = color & 0xff;
+        return (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+    }
+
+    private static void putRgba(ByteBuffer out, int index, int argb) {
+        out.put(index, (byte) (argb >> 16));
+        out.put(index + 1, (byte) (argb >> 8));
+        out.put(index + 2, (byte) argb);
+        out.put(index + 3, (byte) (argb >> 24));
+    }
+
+    private static void checkNv21(byte[] nv21, int width, int height) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0)
+            throw new IllegalArgumentException("Width and height must be positive even numbers");
+        if (nv21.length < getNv21Size(width, height))
+            throw new IllegalArgumentException("NV21 buffer too small");
+    }
+
+    private interface BandConverter {
+        void convert(int startRow, int endRow);
+    }
+
+    private static class BandTask implements Runnable {
+        private final BandConverter converter;
+        private final int startRow, endRow;
+        private final CountDownLatch latch;
+        private RuntimeException error;
+
+        BandTask(BandConverter converter, int startRow, int endRow, CountDownLatch latch) {
+            this.converter = converter;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                converter.convert(startRow, endRow);
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                latch.countDown();
+            }
+        }
+    }
+}
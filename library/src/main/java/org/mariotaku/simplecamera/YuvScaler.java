@@ -0,0 +1,280 @@
+package org.mariotaku.simplecamera;
+
+import java.util.ArrayDeque;
+
+/**
+ * Crops NV21 frames to a region (usually the part visible through {@link CameraView}, see
+ * {@link CameraView#getVisiblePreviewRegion(android.graphics.Rect)}) and scales it to analysis size, without
+ * converting to RGB. Output is written into buffers pooled by this scaler.
+ * <br>
+ * Sampling tables are computed once per source size and region, so steady-state scaling
+ * allocates nothing. Instances can be shared by multiple worker threads.
+ */
+public final class YuvScaler {
+
+    private final int targetWidth, targetHeight;
+    private final Filter filter;
+    private final int maxPooledBuffers;
+    private final ArrayDeque<byte[]> pool;
+    private volatile Mapping mapping;
+
+    /**
+     * @param targetWidth      Output width, must be even
+     * @param targetHeight     Output height, must be even
+     * @param filter           Filter used for decimation
+     * @param maxPooledBuffers Max number of released buffers kept for reuse
+     */
+    public YuvScaler(int targetWidth, int targetHeight, Filter filter, int maxPooledBuffers) {
+        if (targetWidth <= 0 || targetHeight <= 0 || (targetWidth & 1) != 0 || (targetHeight & 1) != 0)
+            throw new IllegalArgumentException("Target width and height must be positive even numbers");
+        if (filter == null) throw new NullPointerException();
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.filter = filter;
+        this.maxPooledBuffers = maxPooledBuffers;
+        pool = new ArrayDeque<>(maxPooledBuffers);
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    /**
+     * Scales whole frame into a pooled buffer, pass it to {@link #release(byte[])} when done.
+     *
+     * @param nv21   Source NV21 data
+     * @param width  Source width
+     * @param height Source height
+     * @return NV21 data of target size
+     */
+    public byte[] scale(byte[] nv21, int width, int height) {
+        return scale(nv21, width, height, 0, 0, width, height);
+    }
+
+    /**
+     * Scales region of frame into a pooled buffer, pass it to {@link #release(byte[])} when done.
+     * Region is clamped to frame and aligned to even pixels.
+     *
+     * @param nv21   Source NV21 data
+     * @param width  Source width
+     * @param height Source height
+     * @return NV21 data of target size
+     */
+    public byte[] scale(byte[] nv21, int width, int height, int left, int top, int right, int bottom) {
+        final byte[] out = obtain();
+        scale(nv21, width, height, left, top, right, bottom, out);
+        return out;
+    }
+
+    /**
+     * Scales whole frame into a pooled buffer, pass it to {@link #release(byte[])} when done.
+     */
+    public byte[] scale(PreviewFrame frame) {
+        return scale(frame.getData(), frame.getWidth(), frame.getHeight());
+    }
+
+    /**
+     * Scales region of frame into a pooled buffer, pass it to {@link #release(byte[])} when done.
+     *
+     * @see #scale(byte[], int, int, int, int, int, int)
+     */
+    public byte[] scale(PreviewFrame frame, int left, int top, int right, int bottom) {
+        return scale(frame.getData(), frame.getWidth(), frame.getHeight(), left, top, right, bottom);
+    }
+
+    /**
+     * Scales region of frame into caller provided buffer
+     *
+     * @param out Output of {@code targetWidth * targetHeight * 3 / 2} bytes
+     */
+    public void scale(byte[] nv21, int width, int height, int left, int top, int right, int bottom,
+                      byte[] out) {
+        if (out.length < YuvConverter.getNv21Size(targetWidth, targetHeight))
+            throw new IllegalArgumentException("Output too small");
+        final Mapping mapping = getMapping(width, height, left, top, right, bottom);
+        final int dstLumaSize = targetWidth * targetHeight;
+        final int srcLumaSize = width * height;
+        if (filter == Filter.BOX) {
+            boxScale(nv21, 0, width, 1, mapping.lumaX0, mapping.lumaX1, mapping.lumaY0, mapping.lumaY1,
+                    out, 0, targetWidth, targetWidth, targetHeight);
+            // V and U are interleaved, scale them as two channels with stride 2
+            for (int channel = 0; channel < 2; channel++) {
+                boxScale(nv21, srcLumaSize + channel, width, 2, mapping.chromaX0, mapping.chromaX1,
+                        mapping.chromaY0, mapping.chromaY1, out, dstLumaSize + channel, targetWidth,
+                        targetWidth / 2, targetHeight / 2);
+            }
+        } else {
+            bilinearScale(nv21, 0, width, 1, mapping.lumaX0, mapping.lumaX1, mapping.lumaY0,
+                    mapping.lumaY1, out, 0, targetWidth, targetWidth, targetHeight);
+            for (int channel = 0; channel < 2; channel++) {
+                bilinearScale(nv21, srcLumaSize + channel, width, 2, mapping.chromaX0, mapping.chromaX1,
+                        mapping.chromaY0, mapping.chromaY1, out, dstLumaSize + channel, targetWidth,
+                        targetWidth / 2, targetHeight / 2);
+            }
+        }
+    }
+
+    /**
+     * Returns buffer obtained from {@link #scale(byte[], int, int, int, int, int, int)} to pool
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length != YuvConverter.getNv21Size(targetWidth, targetHeight)) return;
+        synchronized (pool) {
+            if (pool.size() < maxPooledBuffers) {
+                pool.push(buffer);
+            }
+        }
+    }
+
+    private byte[] obtain() {
+        synchronized (pool) {
+            final byte[] buffer = pool.poll();
+            if (buffer != null) return buffer;
+        }
+        return new byte[YuvConverter.getNv21Size(targetWidth, targetHeight)];
+    }
+
+    private Mapping getMapping(int width, int height, int left, int top, int right, int bottom) {
+        // Align to chroma samples
+        left = CameraUtils.clamp(left, width, 0) & ~1;
+        top = CameraUtils.clamp(top, height, 0) & ~1;
+        right = CameraUtils.clamp(right, width, 0) & ~1;
+        bottom = CameraUtils.clamp(bottom, height, 0) & ~1;
+        if (right - left < 2 || bottom - top < 2) throw new IllegalArgumentException("Region too small");
+        final Mapping current = mapping;
+        if (current != null && current.matches(width, height, left, top, right, bottom)) return current;
+        final Mapping created = new Mapping(width, height, left, top, right, bottom, targetWidth,
+                targetHeight, filter);
+        mapping = created;
+        return created;
+    }
+
+    private static void boxScale(byte[] src, int srcOffset, int srcRowStride, int pixelStride,
+                                 int[] x0, int[] x1, int[] y0, int[] y1, byte[] dst, int dstOffset,
+                                 int dstRowStride, int dstWidth, int dstHeight) {
+        for (int dy = 0; dy < dstHeight; dy++) {
+            final int rowStart = y0[dy], rowEnd = y1[dy];
+            int dp = dstOffset + dy * dstRowStride;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                final int colStart = x0[dx], colEnd = x1[dx];
+                int sum = 0;
+                for (int sy = rowStart; sy < rowEnd; sy++) {
+                    final int rowOffset = srcOffset + sy * srcRowStride;
+                    for (int sx = colStart; sx < colEnd; sx++) {
+                        sum += src[rowOffset + sx * pixelStride] & 0xff;
+                    }
+                }
+                final int count = (rowEnd - rowStart) * (colEnd - colStart);
+                dst[dp] = (byte) ((sum + count / 2) / count);
+                dp += pixelStride;
+            }
+        }
+    }
+
+    /**
+     * x0/y0 hold left/top sample index, x1/y1 hold weight of the next sample in 0..256. Next
+     * sample is not read when its weight is 0, so it may lie outside source.
+     */
+    private static void bilinearScale(byte[] src, int srcOffset, int srcRowStride, int pixelStride,
+                                      int[] x0, int[] xw, int[] y0, int[] yw, byte[] dst, int dstOffset,
+                                      int dstRowStride, int dstWidth, int dstHeight) {
+        for (int dy = 0; dy < dstHeight; dy++) {
+            final int wy = yw[dy];
+            final int row0 = srcOffset + y0[dy] * srcRowStride;
+            final int row1 = wy != 0 ? row0 + srcRowStride : row0;
+            int dp = dstOffset + dy * dstRowStride;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                final int wx = xw[dx];
+                final int col0 = x0[dx] * pixelStride;
+                final int col1 = wx != 0 ? col0 + pixelStride : col0;
+                final int top = (src[row0 + col0] & 0xff) * (256 - wx) + (src[row0 + col1] & 0xff) * wx;
+                final int bottom = (src[row1 + col0] & 0xff) * (256 - wx) + (src[row1 + col1] & 0xff) * wx;
+                dst[dp] = (byte) ((top * (256 - wy) + bottom * wy + 32768) >> 16);
+                dp += pixelStride;
+            }
+        }
+    }
+
+    public enum Filter {
+        /**
+         * Averages all source pixels covered by output pixel, best quality for large reductions
+         */
+        BOX,
+        /**
+         * Interpolates 4 nearest source pixels, faster but aliases on reductions beyond 2x
+         */
+        BILINEAR
+    }
+
+    private static final class Mapping {
+        final int width, height, left, top, right, bottom;
+        final int[] lumaX0, lumaX1, lumaY0, lumaY1;
+        final int[] chromaX0, chromaX1, chromaY0, chromaY1;
+
+        Mapping(int width, int height, int left, int top, int right, int bottom, int targetWidth,
+                int targetHeight, Filter filter) {
+            this.width = width;
+            this.height = height;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            lumaX0 = new int[targetWidth];
+            lumaX1 = new int[targetWidth];
+            lumaY0 = new int[targetHeight];
+            lumaY1 = new int[targetHeight];
+            chromaX0 = new int[targetWidth / 2];
+            chromaX1 = new int[targetWidth / 2];
+            chromaY0 = new int[targetHeight / 2];
+            chromaY1 = new int[targetHeight / 2];
+            if (filter == Filter.BOX) {
+                boxTable(left, right - left, targetWidth, lumaX0, lumaX1);
+                boxTable(top, bottom - top, targetHeight, lumaY0, lumaY1);
+                boxTable(left / 2, (right - left) / 2, targetWidth / 2, chromaX0, chromaX1);
+                boxTable(top / 2, (bottom - top) / 2, targetHeight / 2, chromaY0, chromaY1);
+            } else {
+                bilinearTable(left, right - left, targetWidth, lumaX0, lumaX1);
+                bilinearTable(top, bottom - top, targetHeight, lumaY0, lumaY1);
+                bilinearTable(left / 2, (right - left) / 2, targetWidth / 2, chromaX0, chromaX1);
+                bilinearTable(top / 2, (bottom - top) / 2, targetHeight / 2, chromaY0, chromaY1);
+            }
+        }
+
+        boolean matches(int width, int height, int left, int top, int right, int bottom) {
+            return this.width == width && this.height == height && this.left == left
+                    && this.top == top && this.right == right && this.bottom == bottom;
+        }
+
+        private static void boxTable(int start, int length, int count, int[] from, int[] to) {
+            for (int i = 0; i < count; i++) {
+                final int s = start + (int) ((long) i * length / count);
+                final int e = start + (int) ((long) (i + 1) * length / count);
+                from[i] = s;
+                to[i] = Math.max(e, s + 1);
+            }
+        }
+
+        private static void bilinearTable(int start, int length, int count, int[] index, int[] weight) {
+            for (int i = 0; i < count; i++) {
+                // Sample at output pixel center, in 8-bit fixed point
+                final long pos = Math.max(0, ((2L * i + 1) * length * 256 / count - 256) / 2);
+                int s = (int) (pos >> 8);
+                int w = (int) (pos & 0xff);
+                if (length == 1) {
+                    // Single sample, e.g. chroma of a 2 pixel wide region
+                    s = 0;
+                    w = 0;
+                } else if (s >= length - 1) {
+                    s = length - 2;
+                    w = 256;
+                }
+                index[i] = start + s;
+                weight[i] = w;
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.mariotaku.simplecamera;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Zooms camera of {@link CameraView}, obtain with {@link CameraView#getZoomController()}. All
+ * methods should be called on main thread.
+ * <br>
+ * Committing parameters on every touch event of a pinch stutters preview, so when camera supports
+ * smooth zoom, {@link Camera#startSmoothZoom(int)} is used and a new target replaces the running
+ * one once it stops. Otherwise targets are coalesced and committed at most once per preview frame.
+ * <br>
+ * Focus and metering areas are relative to zoomed field of view, so
+ * {@link CameraView#touchFocus(android.view.MotionEvent, Camera.AutoFocusCallback)} needs no
+ * adjustment, {@link #getZoomRatio()} is for mapping other coordinates, e.g. full sensor ones.
+ */
+public final class ZoomController {
+
+    private static final long DEFAULT_FRAME_INTERVAL = 33;
+
+    private final CameraView cameraView;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable commitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitTarget();
+        }
+    };
+    // -1 if nothing waiting to be applied
+    private int targetZoom = -1;
+    // Effective zoom reported by camera, -1 to read from parameters snapshot
+    private int currentZoom = -1;
+    // Unrounded target of zoomBy, so small steps of a pinch add up
+    private float targetRatio = Float.NaN;
+    private boolean smoothZooming, stopRequested;
+    private boolean commitScheduled;
+    private long lastCommitTime;
+    private Camera listeningCamera;
+
+    ZoomController(CameraView cameraView) {
+        this.cameraView = cameraView;
+    }
+
+    public boolean isZoomSupported() {
+        final ParametersSnapshot snapshot = cameraView.getParametersSnapshot();
+        return snapshot != null && snapshot.isZoomSupported();
+    }
+
+    public boolean isSmoothZooming() {
+        return smoothZooming;
+    }
+
+    /**
+     * @return Current zoom value, from 0 to {@link ParametersSnapshot#getMaxZoom()}
+     */
+    public int getZoom() {
+        if (currentZoom >= 0) return currentZoom;
+        final ParametersSnapshot snapshot = cameraView.getParametersSnapshot();
+        return snapshot != null ? snapshot.getZoom() : 0;
+    }
+
+    /**
+     * @return Current effective zoom ratio, 1 if not zoomed, updated while smooth zooming
+     */
+    public float getZoomRatio() {
+        final ParametersSnapshot snapshot = cameraView.getParametersSnapshot();
+        if (snapshot == null) return 1;
+        return snapshot.getZoomRatio(getZoom()) / 100f;
+    }
+
+    public float getMaxZoomRatio() {
+        final ParametersSnapshot snapshot = cameraView.getParametersSnapshot();
+        if (snapshot == null) return 1;
+        return snapshot.getZoomRatio(snapshot.getMaxZoom()) / 100f;
+    }
+
+    /**
+     * Zooms to supported ratio closest to given one
+     *
+     * @return false if camera not opened or doesn't support zoom
+     */
+    public boolean setZoomRatio(float ratio) {
+        final ParametersSnapshot snapshot = cameraView.getParametersSnapshot();
+        if (snapshot == null || !snapshot.isZoomSupported()) return false;
+        final int[] ratios = snapshot.getZoomRatios();
+        targetRatio = Math.max(ratios[0], Math.min(ratio * 100, ratios[ratios.length - 1])) / 100f;
+        return setTargetZoom(snapshot, findZoom(ratios, Math.round(targetRatio * 100)));
+    }
+
+    /**
+     * Multiplies zoom ratio, e.g. by {@link android.view.ScaleGestureDetector#getScaleFactor()}
+     * during a pinch
+     *
+     * @return false if camera not opened or doesn't support zoom
+     */
+    public boolean zoomBy(float scaleFactor) {
+        final float base = Float.isNaN(targetRatio) ? getZoomRatio() : targetRatio;
+        return setZoomRatio(base * scaleFactor);
+    }
+
+    /**
+     * @param zoom Zoom value, from 0 to {@link ParametersSnapshot#getMaxZoom()}
+     * @return false if camera not opened or doesn't support zoom
+     */
+    public boolean setZoom(int zoom) {
+        final ParametersSnapshot snapshot = cameraView.getParametersSnapshot();
+        if (snapshot == null || !snapshot.isZoomSupported()) return false;
+        zoom = CameraUtils.clamp(zoom, snapshot.getMaxZoom(), 0);
+        targetRatio = snapshot.getZoomRatio(zoom) / 100f;
+        return setTargetZoom(snapshot, zoom);
+    }
+
+    /**
+     * Drops pending zoom, called when camera released
+     */
+    void reset() {
+        handler.removeCallbacks(commitRunnable);
+        commitScheduled = false;
+        targetZoom = -1;
+        currentZoom = -1;
+        targetRatio = Float.NaN;
+        smoothZooming = false;
+        stopRequested = false;
+        listeningCamera = null;
+    }
+
+    /**
+     * @return Index of ratio closest to given one in ascending ratios
+     */
+    static int findZoom(int[] ratios, int ratio) {
+        final int index = Arrays.binarySearch(ratios, ratio);
+        if (index >= 0) return index;
+        final int insertion = -index - 1;
+        if (insertion == 0) return 0;
+        if (insertion == ratios.length) return ratios.length - 1;
+        return ratio - ratios[insertion - 1] <= ratios[insertion] - ratio ? insertion - 1 : insertion;
+    }
+
+    private boolean setTargetZoom(ParametersSnapshot snapshot, int zoom) {
+        final Camera camera = cameraView.getOpeningCamera();
+        if (camera == null) return false;
+        targetZoom = zoom;
+        if (snapshot.isSmoothZoomSupported() && cameraView.isCameraPreviewStarted()) {
+            if (smoothZooming) {
+                // New target is started once camera reports stopped
+                if (!stopRequested) {
+                    stopRequested = true;
+                    cameraView.runOnCameraThread(new StopSmoothZoomRunnable(camera));
+                }
+            } else {
+                startSmoothZoom(camera);
+            }
+        } else {
+            scheduleCommit(snapshot);
+        }
+        return true;
+    }
+
+    private void startSmoothZoom(Camera camera) {
+        final int zoom = targetZoom;
+        targetZoom = -1;
+        if (zoom == getZoom()) return;
+        smoothZooming = true;
+        final boolean setListener = listeningCamera != camera;
+        listeningCamera = camera;
+        cameraView.runOnCameraThread(new StartSmoothZoomRunnable(this, camera, zoom, setListener));
+    }
+
+    private void scheduleCommit(ParametersSnapshot snapshot) {
+        if (commitScheduled) return;
+        final int fpsMax = snapshot.getPreviewFpsMax();
+        final long frameInterval = fpsMax > 0 ? 1000000 / fpsMax : DEFAULT_FRAME_INTERVAL;
+        final long wait = lastCommitTime + frameInterval - SystemClock.uptimeMillis();
+        if (wait > 0) {
+            commitScheduled = true;
+            handler.postDelayed(commitRunnable, wait);
+        } else {
+            commitTarget();
+        }
+    }
+
+    private void commitTarget() {
+        commitScheduled = false;
+        final int zoom = targetZoom;
+        targetZoom = -1;
+        if (zoom < 0 || cameraView.getOpeningCamera() == null) return;
+        lastCommitTime = SystemClock.uptimeMillis();
+        currentZoom = zoom;
+        cameraView.edit().setZoom(zoom).commit();
+    }
+
+    private void onZoomChange(Camera camera, int zoom, boolean stopped) {
+        if (camera != cameraView.getOpeningCamera() || !smoothZooming) return;
+        currentZoom = zoom;
+        if (!stopped) return;
+        smoothZooming = false;
+        stopRequested = false;
+        if (targetZoom >= 0 && targetZoom != zoom) {
+            startSmoothZoom(camera);
+            return;
+        }
+        targetZoom = -1;
+        // Keep committed parameters in sync, or next commit would zoom back
+        cameraView.edit().setZoom(zoom).commit();
+    }
+
+    private void onSmoothZoomFailed(Camera camera, int zoom) {
+        if (camera != cameraView.getOpeningCamera()) return;
+        smoothZooming = false;
+        stopRequested = false;
+        currentZoom = -1;
+        // Commit target the ordinary way instead, unless a newer one arrived
+        if (targetZoom < 0) {
+            targetZoom = zoom;
+        }
+        final ParametersSnapshot snapshot = cameraView.getParametersSnapshot();
+        if (snapshot != null) {
+            scheduleCommit(snapshot);
+        }
+    }
+
+    private static class StartSmoothZoomRunnable implements Runnable, Camera.OnZoomChangeListener {
+        private final ZoomController controller;
+        private final Camera camera;
+        private final int zoom;
+        private final boolean setListener;
+
+        StartSmoothZoomRunnable(ZoomController controller, Camera camera, int zoom, boolean setListener) {
+            this.controller = controller;
+            this.camera = camera;
+            this.zoom = zoom;
+            this.setListener = setListener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (setListener) {
+                    camera.setZoomChangeListener(this);
+                }
+                camera.startSmoothZoom(zoom);
+            } catch (RuntimeException e) {
+                Log.w(CameraView.LOGTAG, "Unable to start smooth zoom", e);
+                controller.cameraView.runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        controller.onSmoothZoomFailed(camera, zoom);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onZoomChange(final int zoomValue, final boolean stopped, final Camera camera) {
+            controller.cameraView.runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    controller.onZoomChange(camera, zoomValue, stopped);
+                }
+            });
+        }
+    }
+
+    private static class StopSmoothZoomRunnable implements Runnable {
+        private final Camera camera;
+
+        StopSmoothZoomRunnable(Camera camera) {
+            this.camera = camera;
+        }
+
+        @Override
+        public void run() {
+            try {
+                camera.stopSmoothZoom();
+            } catch (RuntimeException e) {
+                // Smooth zoom already stopped
+                Log.w(CameraView.LOGTAG, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.mariotaku.simplecamera;
+
+/**
+ * Preview size tables reported by real devices, in driver order.
+ */
+final class DeviceSizeTables {
+
+    static final int[][] NEXUS_5_BACK = {
+            {1920, 1080}, {1280, 960}, {1280, 720}, {1024, 768}, {800, 600}, {800, 480},
+            {720, 480}, {640, 480}, {352, 288}, {320, 240}, {176, 144}
+    };
+
+    static final int[][] GALAXY_S4_BACK = {
+            {1920, 1080}, {1440, 1080}, {1280, 720}, {1056, 864}, {960, 720}, {880, 720},
+            {800, 480}, {720, 480}, {640, 480}, {528, 432}, {352, 288}, {320, 240}, {176, 144}
+    };
+
+    static final int[][] MOTO_G_BACK = {
+            {1280, 720}, {960, 720}, {864, 480}, {800, 480}, {768, 432}, {720, 480}, {640, 480},
+            {576, 432}, {480, 320}, {384, 288}, {352, 288}, {320, 240}, {240, 160}, {176, 144}
+    };
+
+    static final int[][] NEXUS_5_FRONT = {
+            {1280, 960}, {1280, 720}, {800, 600}, {800, 480}, {720, 480}, {640, 480}, {352, 288},
+            {320, 240}, {176, 144}
+    };
+
+    static final int[][][] ALL = {NEXUS_5_BACK, GALAXY_S4_BACK, MOTO_G_BACK, NEXUS_5_FRONT};
+
+    private DeviceSizeTables() {
+    }
+
+    static CameraCapabilities.SizeTable toSizeTable(int[][] sizes) {
+        final int[] widths = new int[sizes.length], heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            widths[i] = sizes[i][0];
+            heights[i] = sizes[i][1];
+        }
+        return new CameraCapabilities.SizeTable(widths, heights);
+    }
+}
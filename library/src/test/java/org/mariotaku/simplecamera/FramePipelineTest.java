@@ -0,0 +1,204 @@
+package org.mariotaku.simplecamera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramePipelineTest {
+
+    private static final long TIMEOUT = 5000;
+    // ImageFormat.NV21
+    private static final int NV21 = 0x11;
+
+    @Test
+    public void processesEveryFrameInOrderWithSingleWorker() throws Exception {
+        final List<Byte> processed = Collections.synchronizedList(new ArrayList<Byte>());
+        final FramePipeline pipeline = new FramePipeline(new FrameProcessor() {
+            @Override
+            public void process(PreviewFrame frame) {
+                processed.add(frame.getData()[0]);
+            }
+        }, 1, 4, FramePipeline.BackpressurePolicy.BLOCK);
+        final PreviewFrame[] frames = new PreviewFrame[50];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = createFrame(i);
+            pipeline.onPreviewFrame(frames[i]);
+        }
+        awaitIdle(pipeline);
+        pipeline.shutdown();
+        assertEquals(frames.length, pipeline.getDeliveredCount());
+        assertEquals(0, pipeline.getDroppedCount());
+        for (int i = 0; i < frames.length; i++) {
+            assertEquals((byte) i, (byte) processed.get(i));
+            assertFalse(frames[i].isInUse());
+        }
+    }
+
+    @Test
+    public void dropNewestReleasesIncomingFrame() throws Exception {
+        final BlockingProcessor processor = new BlockingProcessor();
+        final FramePipeline pipeline = new FramePipeline(processor, 1, 1,
+                FramePipeline.BackpressurePolicy.DROP_NEWEST);
+        final PreviewFrame running = createFrame(0), queued = createFrame(1), incoming = createFrame(2);
+        pipeline.onPreviewFrame(running);
+        processor.awaitStarted();
+        pipeline.onPreviewFrame(queued);
+        pipeline.onPreviewFrame(incoming);
+        assertFalse(incoming.isInUse());
+        assertTrue(queued.isInUse());
+        assertEquals(1, pipeline.getDroppedCount());
+        processor.unblock();
+        awaitIdle(pipeline);
+        pipeline.shutdown();
+        assertEquals(2, pipeline.getDeliveredCount());
+        assertFalse(running.isInUse());
+        assertFalse(queued.isInUse());
+    }
+
+    @Test
+    public void dropOldestReleasesQueuedFrame() throws Exception {
+        final BlockingProcessor processor = new BlockingProcessor();
+        final FramePipeline pipeline = new FramePipeline(processor, 1, 1,
+                FramePipeline.BackpressurePolicy.DROP_OLDEST);
+        final PreviewFrame running = createFrame(0), queued = createFrame(1), incoming = createFrame(2);
+        pipeline.onPreviewFrame(running);
+        processor.awaitStarted();
+        pipeline.onPreviewFrame(queued);
+        pipeline.onPreviewFrame(incoming);
+        assertFalse(queued.isInUse());
+        assertTrue(incoming.isInUse());
+        assertEquals(1, pipeline.getDroppedCount());
+        processor.unblock();
+        awaitIdle(pipeline);
+        pipeline.shutdown();
+        assertEquals(2, pipeline.getDeliveredCount());
+        assertFalse(incoming.isInUse());
+    }
+
+    @Test
+    public void blockedSubmitterReleasesFrameOnShutdown() throws Exception {
+        final BlockingProcessor processor = new BlockingProcessor();
+        final FramePipeline pipeline = new FramePipeline(processor, 1, 1,
+                FramePipeline.BackpressurePolicy.BLOCK);
+        final PreviewFrame running = createFrame(0), queued = createFrame(1), blocked = createFrame(2);
+        pipeline.onPreviewFrame(running);
+        processor.awaitStarted();
+        pipeline.onPreviewFrame(queued);
+        final Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.onPreviewFrame(blocked);
+            }
+        });
+        submitter.start();
+        // Let submitter wait for a queue slot
+        Thread.sleep(100);
+        assertTrue(submitter.isAlive());
+        pipeline.shutdown();
+        submitter.join(TIMEOUT);
+        assertFalse(submitter.isAlive());
+        awaitIdle(pipeline);
+        assertFalse(running.isInUse());
+        assertFalse(queued.isInUse());
+        assertFalse(blocked.isInUse());
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void blockOnMainThreadDropsOldest() throws Exception {
+        final BlockingProcessor processor = new BlockingProcessor();
+        final FramePipeline pipeline = new FramePipeline(processor, 1, 1,
+                FramePipeline.BackpressurePolicy.BLOCK);
+        final PreviewFrame running = createFrame(0), queued = createFrame(1), incoming = createFrame(2);
+        pipeline.onPreviewFrameOnMainThread(running);
+        processor.awaitStarted();
+        pipeline.onPreviewFrameOnMainThread(queued);
+        // Returns at once instead of waiting for a queue slot
+        pipeline.onPreviewFrameOnMainThread(incoming);
+        assertFalse(queued.isInUse());
+        assertTrue(incoming.isInUse());
+        assertEquals(1, pipeline.getDroppedCount());
+        processor.unblock();
+        awaitIdle(pipeline);
+        pipeline.shutdown();
+        assertEquals(2, pipeline.getDeliveredCount());
+        assertFalse(incoming.isInUse());
+    }
+
+    @Test
+    public void framesAfterShutdownReleasedImmediately() {
+        final FramePipeline pipeline = new FramePipeline(new BlockingProcessor());
+        pipeline.shutdown();
+        final PreviewFrame frame = createFrame(0);
+        pipeline.onPreviewFrame(frame);
+        assertFalse(frame.isInUse());
+        assertEquals(0, pipeline.getInFlightCount());
+    }
+
+    @Test
+    public void syntheticFrame() {
+        final byte[] data = new byte[4 * 2 * 3 / 2];
+        final PreviewFrame frame = PreviewFrame.create(data, 4, 2, NV21);
+        assertTrue(frame.isInUse());
+        assertEquals(4, frame.getWidth());
+        assertEquals(2, frame.getHeight());
+        assertEquals(NV21, frame.getFormat());
+        assertTrue(frame.getTimestamp() > 0);
+        frame.release();
+        assertFalse(frame.isInUse());
+        // Releasing twice is harmless
+        frame.release();
+        assertFalse(frame.isInUse());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void syntheticFrameInvalidSize() {
+        PreviewFrame.create(new byte[0], 0, 0, NV21);
+    }
+
+    private static PreviewFrame createFrame(int index) {
+        final byte[] data = new byte[4 * 2 * 3 / 2];
+        data[0] = (byte) index;
+        return PreviewFrame.create(data, 4, 2, NV21);
+    }
+
+    private static void awaitIdle(FramePipeline pipeline) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (pipeline.getInFlightCount() > 0) {
+            assertTrue("Pipeline not idle in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static class BlockingProcessor implements FrameProcessor {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch unblocked = new CountDownLatch(1);
+
+        @Override
+        public void process(PreviewFrame frame) {
+            started.countDown();
+            try {
+                unblocked.await();
+            } catch (InterruptedException e) {
+                // Interrupted by shutdown()
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+
+        void unblock() {
+            unblocked.countDown();
+        }
+    }
+}
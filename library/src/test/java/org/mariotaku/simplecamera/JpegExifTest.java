@@ -0,0 +1,292 @@
+package org.mariotaku.simplecamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JpegExifTest {
+
+    private static final int[] DEGREES = {0, 90, 180, 270};
+
+    @Test
+    public void orientationFromDegrees() {
+        assertEquals(JpegExif.ORIENTATION_NORMAL, JpegExif.getOrientation(0));
+        assertEquals(JpegExif.ORIENTATION_ROTATE_90, JpegExif.getOrientation(90));
+        assertEquals(JpegExif.ORIENTATION_ROTATE_180, JpegExif.getOrientation(180));
+        assertEquals(JpegExif.ORIENTATION_ROTATE_270, JpegExif.getOrientation(270));
+        assertEquals(JpegExif.ORIENTATION_ROTATE_270, JpegExif.getOrientation(-90));
+        assertEquals(JpegExif.ORIENTATION_ROTATE_90, JpegExif.getOrientation(450));
+        assertEquals(JpegExif.ORIENTATION_NORMAL, JpegExif.getOrientation(45));
+    }
+
+    @Test
+    public void rewriteKeepsExistingTagsAndImageData() throws IOException {
+        for (JpegFixtures fixture : JpegFixtures.all()) {
+            final byte[] jpeg = fixture.build();
+            final Exif before = Exif.parse(jpeg);
+            for (int degrees : DEGREES) {
+                final String message = fixture + " " + degrees;
+                final byte[] result = JpegExif.setOrientation(jpeg, degrees);
+                final Exif after = Exif.parse(result);
+                assertEquals(message, before.littleEndian, after.littleEndian);
+                assertEquals(message, JpegExif.getOrientation(degrees), after.getOrientation());
+                assertTrue(message, after.isIfd0Sorted());
+                // Every other IFD0 tag keeps its value, pointed values included
+                final Map<Integer, byte[]> expected = new LinkedHashMap<>(before.ifd0);
+                expected.remove(JpegExif.TAG_ORIENTATION);
+                final Map<Integer, byte[]> actual = new LinkedHashMap<>(after.ifd0);
+                actual.remove(JpegExif.TAG_ORIENTATION);
+                assertValuesEqual(message, expected, actual);
+                assertArrayEquals(message, JpegFixtures.MAKE, after.ifd0.get(JpegFixtures.TAG_MAKE));
+                assertValuesEqual(message, before.exifIfd, after.exifIfd);
+                if (fixture.thumbnail) {
+                    assertNotNull(message, after.ifd1);
+                    assertArrayEquals(message, JpegFixtures.THUMBNAIL, after.getThumbnail());
+                } else {
+                    assertNull(message, after.ifd1);
+                }
+                // Segments after APP1 are untouched
+                assertArrayEquals(message, Arrays.copyOfRange(jpeg, before.segmentEnd, jpeg.length),
+                        Arrays.copyOfRange(result, after.segmentEnd, result.length));
+                // So are segments before it, APP1 length may grow
+                assertArrayEquals(message, Arrays.copyOfRange(jpeg, 0, before.segmentStart - 2),
+                        Arrays.copyOfRange(result, 0, after.segmentStart - 2));
+                assertMetadata(message, fixture, result, degrees);
+            }
+        }
+    }
+
+    @Test
+    public void existingOrientationPatchedInPlace() throws IOException {
+        for (boolean littleEndian : new boolean[]{false, true}) {
+            final byte[] jpeg = JpegFixtures.create(littleEndian, true, JpegExif.ORIENTATION_NORMAL).build();
+            final byte[] result = JpegExif.setOrientation(jpeg, 270);
+            assertEquals(jpeg.length, result.length);
+            int changed = 0;
+            for (int i = 0; i < jpeg.length; i++) {
+                if (jpeg[i] != result[i]) changed++;
+            }
+            assertEquals(1, changed);
+            assertEquals(JpegExif.ORIENTATION_ROTATE_270, Exif.parse(result).getOrientation());
+        }
+    }
+
+    @Test
+    public void missingOrientationAppendsIfd0() throws IOException {
+        for (boolean littleEndian : new boolean[]{false, true}) {
+            for (boolean thumbnail : new boolean[]{false, true}) {
+                final byte[] jpeg = JpegFixtures.create(littleEndian, thumbnail, 0).build();
+                final Exif before = Exif.parse(jpeg);
+                final byte[] result = JpegExif.setOrientation(jpeg, 90);
+                final Exif after = Exif.parse(result);
+                assertEquals(before.ifd0.size() + 1, after.ifd0.size());
+                // Old data kept at same offsets, so pointers stay valid
+                assertArrayEquals(Arrays.copyOfRange(jpeg, before.tiffStart + 8, before.segmentEnd),
+                        Arrays.copyOfRange(result, after.tiffStart + 8, after.tiffStart + 8
+                                + before.segmentEnd - before.tiffStart - 8));
+                assertEquals(0, after.ifd0Offset & 1);
+            }
+        }
+    }
+
+    @Test
+    public void missingExifInsertsApp1() throws IOException {
+        for (boolean jfif : new boolean[]{false, true}) {
+            final JpegFixtures fixture = new JpegFixtures();
+            fixture.exif = false;
+            fixture.jfif = jfif;
+            final byte[] jpeg = fixture.build();
+            final int[] segment = new int[2];
+            assertFalse(JpegExif.findExifSegment(jpeg, segment));
+            for (int degrees : DEGREES) {
+                final byte[] result = JpegExif.setOrientation(jpeg, degrees);
+                final Exif exif = Exif.parse(result);
+                assertEquals(JpegExif.getOrientation(degrees), exif.getOrientation());
+                assertEquals(1, exif.ifd0.size());
+                // APP1 follows APP0 if present
+                final int insertAt = jfif ? 2 + 2 + 16 : 2;
+                assertEquals(insertAt + 4, exif.segmentStart);
+                assertArrayEquals(Arrays.copyOfRange(jpeg, 0, insertAt), Arrays.copyOfRange(result, 0, insertAt));
+                assertArrayEquals(Arrays.copyOfRange(jpeg, insertAt, jpeg.length),
+                        Arrays.copyOfRange(result, exif.segmentEnd, result.length));
+                assertMetadata(fixture + " " + degrees, fixture, result, degrees);
+            }
+        }
+    }
+
+    @Test
+    public void streamOutputMatchesArrayOutput() throws IOException {
+        for (JpegFixtures fixture : JpegFixtures.all()) {
+            final byte[] jpeg = fixture.build();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JpegExif.write(jpeg, 90, out);
+            assertArrayEquals(fixture.toString(), JpegExif.setOrientation(jpeg, 90), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void invalidDataRejected() {
+        final byte[][] invalid = {
+                {},
+                {(byte) 0xFF, (byte) 0xD8},
+                {'G', 'I', 'F', '8', '9', 'a'},
+                {(byte) 0xFF, (byte) 0xD8, 0x12, 0x34, 0, 0},
+        };
+        for (byte[] data : invalid) {
+            try {
+                JpegExif.setOrientation(data, 90);
+                fail("Accepted " + Arrays.toString(data));
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void truncatedExifRejected() throws IOException {
+        final byte[] jpeg = JpegFixtures.create(false, true, 0).build();
+        final Exif exif = Exif.parse(jpeg);
+        // Declare IFD0 with more entries than segment holds
+        jpeg[exif.ifd0Offset] = 0x7F;
+        try {
+            JpegExif.setOrientation(jpeg, 90);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static void assertMetadata(String message, JpegFixtures fixture, byte[] result, int degrees) {
+        final JpegMetadata metadata = new JpegMetadata();
+        assertTrue(message, metadata.read(result));
+        assertEquals(message, fixture.width, metadata.getWidth());
+        assertEquals(message, fixture.height, metadata.getHeight());
+        assertEquals(message, degrees, metadata.getRotation());
+        assertEquals(message, fixture.thumbnail, metadata.hasThumbnail());
+        if (fixture.thumbnail) {
+            assertArrayEquals(message, JpegFixtures.THUMBNAIL, Arrays.copyOfRange(result,
+                    metadata.getThumbnailOffset(), metadata.getThumbnailOffset() + metadata.getThumbnailLength()));
+        }
+    }
+
+    private static void assertValuesEqual(String message, Map<Integer, byte[]> expected, Map<Integer, byte[]> actual) {
+        assertEquals(message, expected.keySet(), actual.keySet());
+        for (Map.Entry<Integer, byte[]> entry : expected.entrySet()) {
+            if (entry.getKey() == JpegFixtures.TAG_EXIF_IFD) continue;
+            assertArrayEquals(message + " tag " + entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Independent TIFF reader, resolves values stored out of line
+     */
+    static final class Exif {
+        private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+
+        byte[] data;
+        boolean littleEndian;
+        int segmentStart, segmentEnd, tiffStart, ifd0Offset;
+        int[] ifd0Tags;
+        Map<Integer, byte[]> ifd0, exifIfd, ifd1;
+
+        static Exif parse(byte[] jpeg) throws IOException {
+            final int[] segment = new int[2];
+            assertTrue(JpegExif.findExifSegment(jpeg, segment));
+            final Exif exif = new Exif();
+            exif.data = jpeg;
+            exif.segmentStart = segment[0];
+            exif.segmentEnd = segment[1];
+            exif.tiffStart = segment[0] + 6;
+            final int tiff = exif.tiffStart;
+            assertEquals(jpeg[tiff], jpeg[tiff + 1]);
+            exif.littleEndian = jpeg[tiff] == 'I';
+            assertEquals(42, exif.readShort(tiff + 2));
+            exif.ifd0Offset = tiff + exif.readInt(tiff + 4);
+            exif.ifd0 = exif.readIfd(exif.ifd0Offset);
+            final int count = exif.readShort(exif.ifd0Offset);
+            exif.ifd0Tags = new int[count];
+            for (int i = 0; i < count; i++) {
+                exif.ifd0Tags[i] = exif.readShort(exif.ifd0Offset + 2 + i * 12);
+            }
+            final byte[] exifPointer = exif.ifd0.get(JpegFixtures.TAG_EXIF_IFD);
+            if (exifPointer != null) {
+                exif.exifIfd = exif.readIfd(tiff + exif.readInt(exif.find(exif.ifd0Offset, JpegFixtures.TAG_EXIF_IFD) + 8));
+            }
+            final int next = exif.readInt(exif.ifd0Offset + 2 + count * 12);
+            if (next != 0) {
+                exif.ifd1 = exif.readIfd(tiff + next);
+            }
+            return exif;
+        }
+
+        int getOrientation() {
+            final byte[] value = ifd0.get(JpegExif.TAG_ORIENTATION);
+            assertNotNull(value);
+            return littleEndian ? (value[1] & 0xff) << 8 | (value[0] & 0xff) : (value[0] & 0xff) << 8 | (value[1] & 0xff);
+        }
+
+        boolean isIfd0Sorted() {
+            for (int i = 1; i < ifd0Tags.length; i++) {
+                if (ifd0Tags[i - 1] >= ifd0Tags[i]) return false;
+            }
+            return true;
+        }
+
+        byte[] getThumbnail() {
+            final int offset = toInt(ifd1.get(JpegFixtures.TAG_THUMBNAIL_OFFSET));
+            final int length = toInt(ifd1.get(JpegFixtures.TAG_THUMBNAIL_LENGTH));
+            assertTrue(tiffStart + offset + length <= segmentEnd);
+            return Arrays.copyOfRange(data, tiffStart + offset, tiffStart + offset + length);
+        }
+
+        private Map<Integer, byte[]> readIfd(int offset) {
+            final Map<Integer, byte[]> entries = new LinkedHashMap<>();
+            final int count = readShort(offset);
+            assertTrue("IFD outside segment", offset + 2 + count * 12 + 4 <= segmentEnd);
+            for (int i = 0; i < count; i++) {
+                final int entry = offset + 2 + i * 12;
+                final int type = readShort(entry + 2), valueCount = readInt(entry + 4);
+                final int size = TYPE_SIZES[type] * valueCount;
+                final int valueOffset = size <= 4 ? entry + 8 : tiffStart + readInt(entry + 8);
+                assertTrue("Value outside segment", valueOffset + size <= segmentEnd);
+                entries.put(readShort(entry), Arrays.copyOfRange(data, valueOffset, valueOffset + size));
+            }
+            return entries;
+        }
+
+        private int find(int ifd, int tag) {
+            for (int i = 0, count = readShort(ifd); i < count; i++) {
+                if (readShort(ifd + 2 + i * 12) == tag) return ifd + 2 + i * 12;
+            }
+            throw new AssertionError("Tag not found " + tag);
+        }
+
+        private int toInt(byte[] value) {
+            int result = 0;
+            for (int i = 0; i < 4; i++) {
+                result |= (value[littleEndian ? i : 3 - i] & 0xff) << (i * 8);
+            }
+            return result;
+        }
+
+        private int readShort(int offset) {
+            return JpegExif.readShort(data, offset, littleEndian);
+        }
+
+        private int readInt(int offset) {
+            return JpegExif.readInt(data, offset, littleEndian);
+        }
+    }
+}
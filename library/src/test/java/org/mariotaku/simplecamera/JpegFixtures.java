@@ -0,0 +1,152 @@
+package org.mariotaku.simplecamera;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Builds small but structurally complete JPEG files: optional JFIF APP0, EXIF APP1 in either byte
+ * order with IFD0 (Make, optional Orientation, Exif IFD pointer), Exif IFD and optional IFD1
+ * pointing at an embedded thumbnail, followed by DQT, SOF0, SOS, scan data and EOI.
+ */
+final class JpegFixtures {
+
+    static final int TAG_MAKE = 0x010F;
+    static final int TAG_EXIF_IFD = 0x8769;
+    static final int TAG_EXIF_VERSION = 0x9000;
+    static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    static final byte[] MAKE = {'M', 'a', 'k', 'e', 'r', 0};
+    static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, 5, (byte) 0xFF, (byte) 0xD9};
+
+    private static final int TYPE_ASCII = 2, TYPE_SHORT = 3, TYPE_LONG = 4, TYPE_UNDEFINED = 7;
+
+    boolean littleEndian;
+    boolean jfif;
+    boolean exif = true;
+    boolean thumbnail;
+    // 0 for no Orientation tag
+    int orientation;
+    int width = 640, height = 480;
+    // Extra bytes of scan data, for fixtures of realistic size
+    int scanPadding;
+
+    static JpegFixtures create(boolean littleEndian, boolean thumbnail, int orientation) {
+        final JpegFixtures fixtures = new JpegFixtures();
+        fixtures.littleEndian = littleEndian;
+        fixtures.thumbnail = thumbnail;
+        fixtures.orientation = orientation;
+        return fixtures;
+    }
+
+    /**
+     * @return Every combination of byte order, IFD1 presence and Orientation presence
+     */
+    static JpegFixtures[] all() {
+        final JpegFixtures[] all = new JpegFixtures[8];
+        int i = 0;
+        for (boolean littleEndian : new boolean[]{false, true}) {
+            for (boolean thumbnail : new boolean[]{false, true}) {
+                for (int orientation : new int[]{0, JpegExif.ORIENTATION_ROTATE_180}) {
+                    all[i++] = create(littleEndian, thumbnail, orientation);
+                }
+            }
+        }
+        return all;
+    }
+
+    byte[] build() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(JpegExif.MARKER_SOI);
+        if (jfif) {
+            writeSegment(out, JpegExif.MARKER_APP0, new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+        }
+        if (exif) {
+            final byte[] tiff = buildTiff();
+            final byte[] app1 = new byte[6 + tiff.length];
+            System.arraycopy(new byte[]{'E', 'x', 'i', 'f', 0, 0}, 0, app1, 0, 6);
+            System.arraycopy(tiff, 0, app1, 6, tiff.length);
+            writeSegment(out, JpegExif.MARKER_APP1, app1);
+        }
+        final byte[] dqt = new byte[65];
+        Arrays.fill(dqt, 1, dqt.length, (byte) 1);
+        writeSegment(out, 0xDB, dqt);
+        writeSegment(out, 0xC0, new byte[]{8, (byte) (height >> 8), (byte) height, (byte) (width >> 8),
+                (byte) width, 3, 1, 0x22, 0, 2, 0x11, 0, 3, 0x11, 0});
+        writeSegment(out, JpegExif.MARKER_SOS, new byte[]{3, 1, 0, 2, 0x11, 3, 0x11, 0, 63, 0});
+        // Scan data, with a stuffed 0xFF
+        out.write(0x12);
+        out.write(0xFF);
+        out.write(0x00);
+        out.write(0x34);
+        for (int i = 0; i < scanPadding; i++) {
+            out.write(i & 0x7F);
+        }
+        out.write(0xFF);
+        out.write(JpegExif.MARKER_EOI);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return String description for assertion messages
+     */
+    @Override
+    public String toString() {
+        return (littleEndian ? "II" : "MM") + (jfif ? " JFIF" : "") + (exif ? "" : " no EXIF")
+                + (thumbnail ? " IFD1" : "") + (orientation != 0 ? " orientation=" + orientation : "");
+    }
+
+    private byte[] buildTiff() {
+        final int ifd0Count = orientation != 0 ? 3 : 2;
+        final int ifd0 = 8;
+        final int makeOffset = ifd0 + 2 + ifd0Count * 12 + 4;
+        final int exifIfd = makeOffset + MAKE.length;
+        final int ifd1 = exifIfd + 2 + 12 + 4;
+        final int thumbnailOffset = ifd1 + 2 + 2 * 12 + 4;
+        final int size = thumbnail ? thumbnailOffset + THUMBNAIL.length : ifd1;
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        buffer.put((byte) (littleEndian ? 'I' : 'M')).put((byte) (littleEndian ? 'I' : 'M'));
+        buffer.putShort((short) 42).putInt(ifd0);
+
+        buffer.putShort((short) ifd0Count);
+        putEntry(buffer, TAG_MAKE, TYPE_ASCII, MAKE.length, makeOffset);
+        if (orientation != 0) {
+            buffer.putShort((short) JpegExif.TAG_ORIENTATION).putShort((short) TYPE_SHORT).putInt(1);
+            buffer.putShort((short) orientation).putShort((short) 0);
+        }
+        putEntry(buffer, TAG_EXIF_IFD, TYPE_LONG, 1, exifIfd);
+        buffer.putInt(thumbnail ? ifd1 : 0);
+        buffer.put(MAKE);
+
+        buffer.putShort((short) 1);
+        buffer.putShort((short) TAG_EXIF_VERSION).putShort((short) TYPE_UNDEFINED).putInt(4);
+        buffer.put(new byte[]{'0', '2', '2', '0'});
+        buffer.putInt(0);
+
+        if (thumbnail) {
+            buffer.putShort((short) 2);
+            putEntry(buffer, TAG_THUMBNAIL_OFFSET, TYPE_LONG, 1, thumbnailOffset);
+            putEntry(buffer, TAG_THUMBNAIL_LENGTH, TYPE_LONG, 1, THUMBNAIL.length);
+            buffer.putInt(0);
+            buffer.put(THUMBNAIL);
+        }
+        return buffer.array();
+    }
+
+    private static void putEntry(ByteBuffer buffer, int tag, int type, int count, int value) {
+        buffer.putShort((short) tag).putShort((short) type).putInt(count).putInt(value);
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] payload) {
+        final int length = payload.length + 2;
+        out.write(0xFF);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length & 0xff);
+        out.write(payload, 0, payload.length);
+    }
+}
@@ -0,0 +1,62 @@
+package org.mariotaku.simplecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata read and orientation rewrite of a 2 MB picture with EXIF thumbnail, reading must not
+ * depend on picture size. Run {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JpegMetadataBenchmark {
+
+    private final JpegMetadata metadata = new JpegMetadata();
+    private final byte[] withOrientation = createPicture(JpegExif.ORIENTATION_NORMAL);
+    private final byte[] withoutOrientation = createPicture(0);
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(JpegMetadataBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Benchmark
+    public int read() {
+        metadata.read(withOrientation);
+        return metadata.getThumbnailOffset();
+    }
+
+    @Benchmark
+    public byte[] setOrientationInPlace() throws IOException {
+        return JpegExif.setOrientation(withOrientation, 90);
+    }
+
+    @Benchmark
+    public byte[] setOrientationAppendIfd0() throws IOException {
+        return JpegExif.setOrientation(withoutOrientation, 90);
+    }
+
+    private static byte[] createPicture(int orientation) {
+        final JpegFixtures fixtures = JpegFixtures.create(false, true, orientation);
+        fixtures.width = 4160;
+        fixtures.height = 3120;
+        fixtures.scanPadding = 2 * 1024 * 1024;
+        return fixtures.build();
+    }
+}
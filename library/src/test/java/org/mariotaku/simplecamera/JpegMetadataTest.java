@@ -0,0 +1,179 @@
+package org.mariotaku.simplecamera;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JpegMetadataTest {
+
+    @Test
+    public void readsFixtures() {
+        final JpegMetadata metadata = new JpegMetadata();
+        for (JpegFixtures fixture : JpegFixtures.all()) {
+            final byte[] jpeg = fixture.build();
+            final String message = fixture.toString();
+            assertTrue(message, metadata.read(jpeg));
+            assertEquals(message, fixture.width, metadata.getWidth());
+            assertEquals(message, fixture.height, metadata.getHeight());
+            assertEquals(message, fixture.orientation, metadata.getOrientation());
+            assertEquals(message, fixture.thumbnail, metadata.hasThumbnail());
+            if (fixture.thumbnail) {
+                assertArrayEquals(message, JpegFixtures.THUMBNAIL, Arrays.copyOfRange(jpeg,
+                        metadata.getThumbnailOffset(), metadata.getThumbnailOffset() + metadata.getThumbnailLength()));
+            } else {
+                assertEquals(message, -1, metadata.getThumbnailOffset());
+            }
+        }
+    }
+
+    @Test
+    public void readsWithOffset() {
+        final byte[] jpeg = JpegFixtures.create(true, true, JpegExif.ORIENTATION_ROTATE_90).build();
+        final byte[] padded = new byte[jpeg.length + 20];
+        System.arraycopy(jpeg, 0, padded, 7, jpeg.length);
+        final JpegMetadata metadata = new JpegMetadata();
+        assertTrue(metadata.read(padded, 7, jpeg.length));
+        assertEquals(90, metadata.getRotation());
+        assertArrayEquals(JpegFixtures.THUMBNAIL, Arrays.copyOfRange(padded, metadata.getThumbnailOffset(),
+                metadata.getThumbnailOffset() + metadata.getThumbnailLength()));
+    }
+
+    @Test
+    public void rotationOfAllOrientations() {
+        final int[] expected = {0, 0, 0, 180, 180, 270, 90, 90, 270};
+        final JpegMetadata metadata = new JpegMetadata();
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            assertTrue(metadata.read(JpegFixtures.create(false, false, orientation).build()));
+            assertEquals(orientation, metadata.getOrientation());
+            assertEquals(expected[orientation], metadata.getRotation());
+        }
+    }
+
+    @Test
+    public void truncatedDataNeverThrows() {
+        final JpegMetadata metadata = new JpegMetadata();
+        for (JpegFixtures fixture : JpegFixtures.all()) {
+            final byte[] jpeg = fixture.build();
+            final int sofEnd = findSofEnd(jpeg);
+            for (int length = 0; length <= jpeg.length; length++) {
+                final String message = fixture + " truncated to " + length;
+                final boolean found = metadata.read(Arrays.copyOf(jpeg, length));
+                // Reading stops at SOF, anything after it is not needed
+                assertEquals(message, length >= sofEnd, found);
+                if (found) {
+                    assertEquals(message, fixture.width, metadata.getWidth());
+                    assertEquals(message, fixture.height, metadata.getHeight());
+                }
+                assertConsistent(message, metadata, length);
+                // Same through length argument, array itself is not truncated
+                assertEquals(message, found, metadata.read(jpeg, 0, length));
+                assertConsistent(message, metadata, length);
+            }
+        }
+    }
+
+    @Test
+    public void mutatedDataNeverThrows() {
+        final Random random = new Random(9);
+        final JpegMetadata metadata = new JpegMetadata();
+        for (JpegFixtures fixture : JpegFixtures.all()) {
+            final byte[] jpeg = fixture.build();
+            for (int n = 0; n < 2000; n++) {
+                final byte[] mutated = jpeg.clone();
+                final int mutations = 1 + random.nextInt(4);
+                for (int i = 0; i < mutations; i++) {
+                    mutate(random, mutated);
+                }
+                final String message = fixture + " mutation " + n;
+                try {
+                    metadata.read(mutated);
+                } catch (RuntimeException e) {
+                    throw new AssertionError(message + ": " + Arrays.toString(mutated), e);
+                }
+                assertConsistent(message, metadata, mutated.length);
+            }
+        }
+    }
+
+    @Test
+    public void mutatedDataNeverBreaksExifWriter() {
+        final Random random = new Random(10);
+        for (JpegFixtures fixture : JpegFixtures.all()) {
+            final byte[] jpeg = fixture.build();
+            for (int n = 0; n < 500; n++) {
+                final byte[] mutated = jpeg.clone();
+                mutate(random, mutated);
+                try {
+                    JpegExif.setOrientation(mutated, 90);
+                } catch (IOException e) {
+                    // Rejected as invalid, fine
+                } catch (RuntimeException e) {
+                    throw new AssertionError(fixture + " mutation " + n + ": " + Arrays.toString(mutated), e);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void notJpeg() {
+        final JpegMetadata metadata = new JpegMetadata();
+        assertFalse(metadata.read(new byte[0]));
+        assertFalse(metadata.read(new byte[]{'G', 'I', 'F', '8', '9', 'a'}));
+        assertFalse(metadata.read(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9}));
+        assertFalse(metadata.hasThumbnail());
+        assertEquals(0, metadata.getOrientation());
+        try {
+            metadata.read(new byte[4], 2, -10);
+        } catch (RuntimeException e) {
+            fail("Negative length threw " + e);
+        }
+    }
+
+    private static void assertConsistent(String message, JpegMetadata metadata, int length) {
+        if (!metadata.hasThumbnail()) return;
+        assertTrue(message, metadata.getThumbnailOffset() >= 0);
+        assertTrue(message, metadata.getThumbnailLength() > 0);
+        assertTrue(message, metadata.getThumbnailOffset() + metadata.getThumbnailLength() <= length);
+    }
+
+    private static void mutate(Random random, byte[] data) {
+        final int index = random.nextInt(data.length);
+        switch (random.nextInt(4)) {
+            case 0:
+                data[index] = (byte) random.nextInt(256);
+                break;
+            case 1:
+                data[index] ^= 1 << random.nextInt(8);
+                break;
+            case 2:
+                // Values most likely to hit edge cases of lengths and offsets
+                final byte[] interesting = {0, 1, 2, (byte) 0x7F, (byte) 0x80, (byte) 0xFE, (byte) 0xFF};
+                data[index] = interesting[random.nextInt(interesting.length)];
+                break;
+            default:
+                data[index] = (byte) 0xFF;
+                if (index + 1 < data.length) {
+                    data[index + 1] = (byte) (0xC0 + random.nextInt(0x40));
+                }
+                break;
+        }
+    }
+
+    private static int findSofEnd(byte[] jpeg) {
+        for (int i = 2; i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xff) == 0xFF && (jpeg[i + 1] & 0xff) == 0xC0) {
+                // Marker, length, precision, height, width
+                return i + 2 + 2 + 5;
+            }
+        }
+        throw new AssertionError("No SOF0");
+    }
+}
@@ -0,0 +1,221 @@
+package org.mariotaku.simplecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per layout cost of updateSurface in {@link TexturePreview}: calling
+ * {@link android.hardware.Camera#getParameters()} for preview size before, against reading
+ * {@link ParametersSnapshot} values and cached {@link PreviewGeometry} after. Run {@link #main}.
+ * <br>
+ * Camera.Parameters can't be created off device, so getParameters is reproduced the way AOSP
+ * does it: a new string of the flattened parameters from native code, unflatten into a
+ * LinkedHashMap, then parsing preview size. Driver time to flatten is not included, so real
+ * savings are larger.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParametersSnapshotBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final float[] transformValues = new float[9];
+    private byte[] flattened;
+    // Values ParametersSnapshot keeps, and geometry CameraView caches
+    private int previewWidth, previewHeight;
+    private PreviewGeometry geometry;
+    private int viewWidth = 1080, viewHeight = 1920, rotation = 90;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ParametersSnapshotBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        flattened = createFlattened().getBytes(UTF_8);
+        final int[] size = parseSize(unflatten(new String(flattened, UTF_8)).get("preview-size"));
+        previewWidth = size[0];
+        previewHeight = size[1];
+        geometry = new PreviewGeometry(viewWidth, viewHeight, previewWidth, previewHeight, rotation, false);
+    }
+
+    @Benchmark
+    public float[] getParametersPerLayout() {
+        final Map<String, String> parameters = unflatten(new String(flattened, UTF_8));
+        final int[] size = parseSize(parameters.get("preview-size"));
+        final boolean swap = rotation % 180 != 0;
+        final int cameraWidth = swap ? size[1] : size[0], cameraHeight = swap ? size[0] : size[1];
+        final float viewRatio = (float) viewWidth / viewHeight, cameraRatio = (float) cameraWidth / cameraHeight;
+        transformValues[0] = viewRatio > cameraRatio ? 1 : viewHeight * cameraRatio / viewWidth;
+        transformValues[4] = viewRatio > cameraRatio ? viewWidth / cameraRatio / viewHeight : 1;
+        return transformValues;
+    }
+
+    @Benchmark
+    public float[] snapshotPerLayout() {
+        PreviewGeometry geometry = this.geometry;
+        if (!geometry.matches(viewWidth, viewHeight, previewWidth, previewHeight, rotation, false)) {
+            geometry = new PreviewGeometry(viewWidth, viewHeight, previewWidth, previewHeight, rotation, false);
+        }
+        geometry.getTextureTransform(transformValues);
+        return transformValues;
+    }
+
+    /**
+     * Same as Camera.Parameters#unflatten
+     */
+    private static Map<String, String> unflatten(String flattened) {
+        final LinkedHashMap<String, String> map = new LinkedHashMap<>(64);
+        int start = 0;
+        final int length = flattened.length();
+        while (start < length) {
+            int end = flattened.indexOf(';', start);
+            if (end == -1) end = length;
+            final String kv = flattened.substring(start, end);
+            final int pos = kv.indexOf('=');
+            if (pos != -1) {
+                map.put(kv.substring(0, pos), kv.substring(pos + 1));
+            }
+            start = end + 1;
+        }
+        return map;
+    }
+
+    /**
+     * Same as Camera.Parameters#strToSize
+     */
+    private static int[] parseSize(String str) {
+        final int pos = str.indexOf('x');
+        return new int[]{Integer.parseInt(str.substring(0, pos)), Integer.parseInt(str.substring(pos + 1))};
+    }
+
+    /**
+     * @return Parameters like the ones reported by Nexus 5 back camera, about 3 KB
+     */
+    private static String createFlattened() {
+        final StringBuilder sb = new StringBuilder();
+        append(sb, "preview-size", "1920x1080");
+        append(sb, "preview-size-values", toSizeValues(DeviceSizeTables.NEXUS_5_BACK));
+        append(sb, "picture-size", "3264x2448");
+        append(sb, "picture-size-values", "3264x2448,3200x2400,2592x1944,2048x1536,1920x1080,1600x1200,"
+                + "1280x768,1280x720,1024x768,800x600,800x480,720x480,640x480,352x288,320x240,176x144");
+        append(sb, "video-size", "1920x1080");
+        append(sb, "video-size-values", "1920x1080,1280x720,864x480,800x480,720x480,640x480,480x320,352x288,"
+                + "320x240,176x144");
+        append(sb, "preferred-preview-size-for-video", "1920x1080");
+        append(sb, "jpeg-thumbnail-size-values", "512x288,480x288,432x288,512x384,352x288,320x240,176x144,0x0");
+        append(sb, "jpeg-thumbnail-width", "512");
+        append(sb, "jpeg-thumbnail-height", "384");
+        append(sb, "jpeg-thumbnail-quality", "90");
+        append(sb, "jpeg-quality", "85");
+        append(sb, "preview-format", "yuv420sp");
+        append(sb, "preview-format-values", "yuv420sp,yuv420p,nv12-venus,yuv420sp-adreno");
+        append(sb, "picture-format", "jpeg");
+        append(sb, "picture-format-values", "jpeg,raw,bayer-mipi-10bggr,bayer-qcom-10bggr,yuv422i-yuyv");
+        append(sb, "preview-frame-rate", "30");
+        append(sb, "preview-frame-rate-values", "7,10,12,15,20,24,30");
+        append(sb, "preview-fps-range", "7000,30000");
+        append(sb, "preview-fps-range-values", "(7000,30000),(30000,30000)");
+        append(sb, "focus-mode", "continuous-picture");
+        append(sb, "focus-mode-values", "auto,infinity,macro,continuous-video,continuous-picture,manual");
+        append(sb, "max-num-focus-areas", "1");
+        append(sb, "focus-areas", "(0,0,0,0,0)");
+        append(sb, "max-num-metering-areas", "5");
+        append(sb, "metering-areas", "(0,0,0,0,0)");
+        append(sb, "focus-distances", "0.100000,0.150000,0.200000");
+        append(sb, "flash-mode", "off");
+        append(sb, "flash-mode-values", "off,auto,on,torch");
+        append(sb, "whitebalance", "auto");
+        append(sb, "whitebalance-values", "auto,incandescent,fluorescent,warm-fluorescent,daylight,"
+                + "cloudy-daylight,twilight,shade,manual-cct");
+        append(sb, "effect", "none");
+        append(sb, "effect-values", "none,mono,negative,solarize,sepia,posterize,whiteboard,blackboard,aqua,"
+                + "emboss,sketch,neon");
+        append(sb, "antibanding", "auto");
+        append(sb, "antibanding-values", "off,60hz,50hz,auto");
+        append(sb, "scene-mode", "auto");
+        append(sb, "scene-mode-values", "auto,asd,action,portrait,landscape,night,night-portrait,theatre,"
+                + "beach,snow,sunset,steadyphoto,fireworks,sports,party,candlelight,backlight,flowers,AR,hdr");
+        append(sb, "exposure-compensation", "0");
+        append(sb, "max-exposure-compensation", "12");
+        append(sb, "min-exposure-compensation", "-12");
+        append(sb, "exposure-compensation-step", "0.166667");
+        append(sb, "auto-exposure-lock", "false");
+        append(sb, "auto-exposure-lock-supported", "true");
+        append(sb, "auto-whitebalance-lock", "false");
+        append(sb, "auto-whitebalance-lock-supported", "true");
+        append(sb, "zoom", "0");
+        append(sb, "max-zoom", "99");
+        final StringBuilder ratios = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) ratios.append(',');
+            ratios.append(100 + i * 4);
+        }
+        append(sb, "zoom-ratios", ratios.toString());
+        append(sb, "zoom-supported", "true");
+        append(sb, "smooth-zoom-supported", "false");
+        append(sb, "focal-length", "3.97");
+        append(sb, "horizontal-view-angle", "68.3");
+        append(sb, "vertical-view-angle", "53.6");
+        append(sb, "video-stabilization", "false");
+        append(sb, "video-stabilization-supported", "true");
+        append(sb, "video-snapshot-supported", "true");
+        append(sb, "recording-hint", "false");
+        append(sb, "iso", "auto");
+        append(sb, "iso-values", "auto,ISO_HJR,ISO100,ISO200,ISO400,ISO800,ISO1600");
+        append(sb, "denoise", "denoise-on");
+        append(sb, "denoise-values", "denoise-off,denoise-on");
+        append(sb, "hfr-size-values", "1920x1088,1280x720,800x480,640x480");
+        append(sb, "video-hfr-values", "off,60,90,120");
+        append(sb, "max-sharpness", "36");
+        append(sb, "max-contrast", "10");
+        append(sb, "max-saturation", "10");
+        append(sb, "sharpness", "12");
+        append(sb, "contrast", "5");
+        append(sb, "saturation", "5");
+        append(sb, "selectable-zone-af-values", "auto,spot-metering,center-weighted,frame-average");
+        append(sb, "skinToneEnhancement-values", "enable,disable");
+        append(sb, "face-detection-values", "off,on");
+        append(sb, "max-num-detected-faces-hw", "10");
+        append(sb, "max-num-detected-faces-sw", "10");
+        append(sb, "redeye-reduction-values", "enable,disable");
+        append(sb, "zsl-values", "off,on");
+        append(sb, "ae-bracket-hdr-values", "Off,AE-Bracket");
+        append(sb, "histogram-values", "enable,disable");
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String key, String value) {
+        sb.append(key).append('=').append(value).append(';');
+    }
+
+    private static String toSizeValues(int[][] sizes) {
+        final StringBuilder sb = new StringBuilder();
+        for (int[] size : sizes) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(size[0]).append('x').append(size[1]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package org.mariotaku.simplecamera;
+
+import android.graphics.Rect;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Geometry work done per layout, per touch and per face detection frame: creating
+ * {@link PreviewGeometry}, mapping a touch rect and mapping face corners to view. Run
+ * {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PreviewGeometryBenchmark {
+
+    private final PreviewGeometry geometry = new PreviewGeometry(1080, 1920, 1920, 1080, 90, true);
+    private final Rect area = new Rect();
+    // Corners of 8 faces
+    private final float[] faces = new float[32];
+    private int viewWidth = 1080, viewHeight = 1920;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PreviewGeometryBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Benchmark
+    public PreviewGeometry create() {
+        return new PreviewGeometry(viewWidth, viewHeight, 1920, 1080, 90, true);
+    }
+
+    @Benchmark
+    public Rect mapTouchRect() {
+        geometry.mapViewRectToArea(400, 800, 600, 1000, area);
+        return area;
+    }
+
+    @Benchmark
+    public float[] mapFaces() {
+        for (int i = 0; i < faces.length; i++) {
+            faces[i] = (i * 125) % 2000 - 1000;
+        }
+        geometry.mapAreaToView(faces);
+        return faces;
+    }
+}
@@ -0,0 +1,280 @@
+package org.mariotaku.simplecamera;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.hardware.Camera;
+import android.view.Surface;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewGeometryTest {
+
+    private static final int[] DISPLAY_ROTATIONS = {Surface.ROTATION_0, Surface.ROTATION_90, Surface.ROTATION_180,
+            Surface.ROTATION_270};
+    private static final int[] FACINGS = {Camera.CameraInfo.CAMERA_FACING_BACK,
+            Camera.CameraInfo.CAMERA_FACING_FRONT};
+    private static final int[] SENSOR_ORIENTATIONS = {90, 270};
+    // Portrait, landscape, square and tall view sizes
+    private static final int[][] VIEW_SIZES = {{1080, 1920}, {1920, 1080}, {1000, 1000}, {720, 1600}};
+    private static final int[][] PREVIEW_SIZES = {{1920, 1080}, {1280, 960}, {640, 480}, {352, 288}};
+
+    @Test
+    public void areaToViewMatchesReference() {
+        final Random random = new Random(21);
+        final float[] point = new float[2];
+        for (Case c : allCases()) {
+            for (int n = 0; n < 20; n++) {
+                final float x = random.nextInt(2001) - 1000, y = random.nextInt(2001) - 1000;
+                point[0] = x;
+                point[1] = y;
+                c.geometry.mapAreaToView(point);
+                final float[] expected = c.areaToView(x, y);
+                // Display bounds are rounded to whole preview pixels
+                final float tolerance = c.getFillScale() + 0.01f;
+                assertEquals(c.toString(), expected[0], point[0], tolerance);
+                assertEquals(c.toString(), expected[1], point[1], tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void viewToAreaInvertsAreaToView() {
+        final Random random = new Random(22);
+        final float[] points = new float[40];
+        final float[] mapped = new float[points.length];
+        for (Case c : allCases()) {
+            for (int i = 0; i < points.length; i += 2) {
+                points[i] = random.nextFloat() * c.viewWidth;
+                points[i + 1] = random.nextFloat() * c.viewHeight;
+            }
+            c.geometry.mapViewToArea(points, 0, mapped, 0, points.length / 2);
+            c.geometry.mapAreaToView(mapped);
+            for (int i = 0; i < points.length; i++) {
+                assertEquals(c.toString(), points[i], mapped[i], 0.05f);
+            }
+        }
+    }
+
+    @Test
+    public void viewCenterMapsToAreaCenter() {
+        final float[] point = new float[2];
+        for (Case c : allCases()) {
+            point[0] = c.viewWidth / 2f;
+            point[1] = c.viewHeight / 2f;
+            c.geometry.mapViewToArea(point);
+            // Half a preview pixel of rounding at most
+            assertEquals(c.toString(), 0, point[0], 1000f / c.previewWidth + 0.01f);
+            assertEquals(c.toString(), 0, point[1], 1000f / c.previewHeight + 0.01f);
+        }
+    }
+
+    @Test
+    public void mirrorFlipsAreaHorizontally() {
+        final float[] back = new float[2], front = new float[2];
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            final PreviewGeometry backGeometry = new PreviewGeometry(1080, 1920, 1920, 1080, rotation, false);
+            final PreviewGeometry frontGeometry = new PreviewGeometry(1080, 1920, 1920, 1080, rotation, true);
+            back[0] = front[0] = 100;
+            back[1] = front[1] = 300;
+            backGeometry.mapViewToArea(back);
+            frontGeometry.mapViewToArea(front);
+            assertEquals(-back[0], front[0], 0.01f);
+            assertEquals(back[1], front[1], 0.01f);
+        }
+    }
+
+    @Test
+    public void viewRectCoversDisplayBounds() {
+        final Rect area = new Rect();
+        final RectF display = new RectF();
+        for (Case c : allCases()) {
+            assertTrue(c.toString(), c.geometry.mapViewRectToArea(0, 0, c.viewWidth, c.viewHeight, area));
+            c.geometry.getDisplayBounds(display);
+            final float areaX = 2000f / c.previewWidth, areaY = 2000f / c.previewHeight;
+            assertEquals(c.toString(), Math.round(display.left * areaX - 1000), area.left, 1);
+            assertEquals(c.toString(), Math.round(display.top * areaY - 1000), area.top, 1);
+            assertEquals(c.toString(), Math.round(display.right * areaX - 1000), area.right, 1);
+            assertEquals(c.toString(), Math.round(display.bottom * areaY - 1000), area.bottom, 1);
+        }
+    }
+
+    @Test
+    public void viewRectOutsideViewClampedOrEmpty() {
+        final PreviewGeometry geometry = new PreviewGeometry(1000, 1000, 640, 480, 90, true);
+        final Rect area = new Rect();
+        assertTrue(geometry.mapViewRectToArea(-500, -500, 1500, 1500, area));
+        assertEquals(-1000, area.left);
+        assertEquals(-1000, area.top);
+        assertEquals(1000, area.right);
+        assertEquals(1000, area.bottom);
+        assertFalse(geometry.mapViewRectToArea(-500, 100, -100, 200, area));
+    }
+
+    @Test
+    public void areaRectMapsToViewRect() {
+        final Rect area = new Rect();
+        final RectF view = new RectF();
+        for (Case c : allCases()) {
+            area.left = -200;
+            area.top = -100;
+            area.right = 300;
+            area.bottom = 400;
+            c.geometry.mapAreaRectToView(area, view);
+            final float[] p1 = c.areaToView(area.left, area.top), p2 = c.areaToView(area.right, area.bottom);
+            final float tolerance = c.getFillScale() + 0.01f;
+            assertEquals(c.toString(), Math.min(p1[0], p2[0]), view.left, tolerance);
+            assertEquals(c.toString(), Math.min(p1[1], p2[1]), view.top, tolerance);
+            assertEquals(c.toString(), Math.max(p1[0], p2[0]), view.right, tolerance);
+            assertEquals(c.toString(), Math.max(p1[1], p2[1]), view.bottom, tolerance);
+        }
+    }
+
+    @Test
+    public void textureTransformFillsAndCentersView() {
+        final float[] values = new float[9];
+        final Rect frame = new Rect();
+        for (Case c : allCases()) {
+            c.geometry.getTextureTransform(values);
+            final float scaleX = values[0], scaleY = values[4];
+            assertEquals(c.toString(), 0, values[1], 0);
+            assertEquals(c.toString(), 0, values[3], 0);
+            assertEquals(c.toString(), 1, values[8], 0);
+            // One side fits, other one overflows, and content keeps aspect ratio of rotated preview
+            assertEquals(c.toString(), 1, Math.min(scaleX, scaleY), 0.0001f);
+            assertTrue(c.toString(), Math.max(scaleX, scaleY) >= 1);
+            assertEquals(c.toString(), (float) c.getRotatedPreviewWidth() / c.getRotatedPreviewHeight(),
+                    scaleX * c.viewWidth / (scaleY * c.viewHeight), 0.001f);
+            assertEquals(c.toString(), (c.viewWidth - scaleX * c.viewWidth) / 2, values[2], 0.01f);
+            assertEquals(c.toString(), (c.viewHeight - scaleY * c.viewHeight) / 2, values[5], 0.01f);
+            // SurfaceView is laid out to the same frame
+            c.geometry.getSurfaceFrame(frame);
+            assertEquals(c.toString(), values[2], frame.left, 1);
+            assertEquals(c.toString(), values[5], frame.top, 1);
+            assertEquals(c.toString(), scaleX * c.viewWidth, frame.right - frame.left, 1);
+            assertEquals(c.toString(), scaleY * c.viewHeight, frame.bottom - frame.top, 1);
+        }
+    }
+
+    @Test
+    public void matchesAllArguments() {
+        final PreviewGeometry geometry = new PreviewGeometry(1080, 1920, 1920, 1080, -90, true);
+        assertEquals(270, geometry.getRotation());
+        assertTrue(geometry.matches(1080, 1920, 1920, 1080, 270, true));
+        assertFalse(geometry.matches(1080, 1920, 1920, 1080, 270, false));
+        assertFalse(geometry.matches(1080, 1920, 1920, 1080, 90, true));
+        assertFalse(geometry.matches(1080, 1920, 1280, 720, 270, true));
+        assertFalse(new PreviewGeometry(1080, 1920, 1920, 1080, 90).isMirror());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRotationRejected() {
+        new PreviewGeometry(1080, 1920, 1920, 1080, 45, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptySizeRejected() {
+        new PreviewGeometry(0, 1920, 1920, 1080, 90, false);
+    }
+
+    private static Case[] allCases() {
+        final Case[] cases = new Case[DISPLAY_ROTATIONS.length * FACINGS.length * SENSOR_ORIENTATIONS.length
+                * VIEW_SIZES.length * PREVIEW_SIZES.length];
+        int i = 0;
+        for (int displayRotation : DISPLAY_ROTATIONS) {
+            for (int facing : FACINGS) {
+                for (int orientation : SENSOR_ORIENTATIONS) {
+                    for (int[] view : VIEW_SIZES) {
+                        for (int[] preview : PREVIEW_SIZES) {
+                            cases[i++] = new Case(displayRotation, facing, orientation, view[0], view[1],
+                                    preview[0], preview[1]);
+                        }
+                    }
+                }
+            }
+        }
+        return cases;
+    }
+
+    /**
+     * Geometry as {@link CameraView} creates it, with reference mapping following documentation of
+     * {@link Camera.Face#rect}: mirror for front camera, rotate by display orientation, then scale
+     * rotated preview to fill view and crop it centered.
+     */
+    private static final class Case {
+        final int displayRotation, facing, orientation;
+        final int viewWidth, viewHeight, previewWidth, previewHeight;
+        final int rotation;
+        final PreviewGeometry geometry;
+
+        Case(int displayRotation, int facing, int orientation, int viewWidth, int viewHeight, int previewWidth,
+             int previewHeight) {
+            this.displayRotation = displayRotation;
+            this.facing = facing;
+            this.orientation = orientation;
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            this.previewWidth = previewWidth;
+            this.previewHeight = previewHeight;
+            rotation = Rotations.getCameraRotation(displayRotation, facing, orientation);
+            geometry = new PreviewGeometry(viewWidth, viewHeight, previewWidth, previewHeight, rotation,
+                    facing == Camera.CameraInfo.CAMERA_FACING_FRONT);
+        }
+
+        int getRotatedPreviewWidth() {
+            return rotation % 180 != 0 ? previewHeight : previewWidth;
+        }
+
+        int getRotatedPreviewHeight() {
+            return rotation % 180 != 0 ? previewWidth : previewHeight;
+        }
+
+        float getFillScale() {
+            return Math.max((float) viewWidth / getRotatedPreviewWidth(),
+                    (float) viewHeight / getRotatedPreviewHeight());
+        }
+
+        float[] areaToView(float x, float y) {
+            if (facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+                x = -x;
+            }
+            // Clockwise in view coordinates, y axis points down
+            final float rx, ry;
+            switch (rotation) {
+                case 90:
+                    rx = -y;
+                    ry = x;
+                    break;
+                case 180:
+                    rx = -x;
+                    ry = -y;
+                    break;
+                case 270:
+                    rx = y;
+                    ry = -x;
+                    break;
+                default:
+                    rx = x;
+                    ry = y;
+                    break;
+            }
+            final int rotatedWidth = getRotatedPreviewWidth(), rotatedHeight = getRotatedPreviewHeight();
+            final float scale = getFillScale();
+            final float px = (rx + 1000) / 2000 * rotatedWidth, py = (ry + 1000) / 2000 * rotatedHeight;
+            return new float[]{(px - rotatedWidth / 2f) * scale + viewWidth / 2f,
+                    (py - rotatedHeight / 2f) * scale + viewHeight / 2f};
+        }
+
+        @Override
+        public String toString() {
+            return "display " + displayRotation + (facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? " front" : " back")
+                    + " sensor " + orientation + " view " + viewWidth + "x" + viewHeight + " preview "
+                    + previewWidth + "x" + previewHeight;
+        }
+    }
+}
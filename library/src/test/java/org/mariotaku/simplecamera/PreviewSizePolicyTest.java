@@ -0,0 +1,158 @@
+package org.mariotaku.simplecamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewSizePolicyTest {
+
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    private static final PreviewSizePolicy[] POLICIES = {
+            PreviewSizePolicy.minimizeWaste(),
+            PreviewSizePolicy.minimizeBandwidth(),
+            PreviewSizePolicy.matchVideoSize(1920, 1080)
+    };
+
+    @Test
+    public void exactSizeWinsOnEveryTable() {
+        for (int[][] sizes : DeviceSizeTables.ALL) {
+            for (int[] size : sizes) {
+                // Video policy prefers 16:9 sizes over exact ones, only check others
+                assertSelected(sizes, PreviewSizePolicy.minimizeWaste(), size[0], size[1], 0, size[0], size[1]);
+                assertSelected(sizes, PreviewSizePolicy.minimizeBandwidth(), size[0], size[1], 0, size[0], size[1]);
+                // Portrait view, camera sensor is landscape
+                assertSelected(sizes, PreviewSizePolicy.minimizeWaste(), size[1], size[0], 90, size[0], size[1]);
+            }
+        }
+    }
+
+    @Test
+    public void minimizeWastePrefersSameAspectRatio() {
+        // 1024x768 is smaller but crops a quarter of its pixels
+        assertSelected(DeviceSizeTables.NEXUS_5_BACK, PreviewSizePolicy.minimizeWaste(), 960, 540, 0, 1280, 720);
+        assertSelected(DeviceSizeTables.NEXUS_5_BACK, PreviewSizePolicy.minimizeWaste(), 540, 960, 270, 1280, 720);
+        // 800x480 crops less than 800x600, and 1280x720 downscales more than both
+        assertSelected(DeviceSizeTables.NEXUS_5_BACK, PreviewSizePolicy.minimizeWaste(), 800, 450, 0, 800, 480);
+        assertSelected(DeviceSizeTables.GALAXY_S4_BACK, PreviewSizePolicy.minimizeWaste(), 1440, 1080, 0, 1440, 1080);
+    }
+
+    @Test
+    public void minimizeBandwidthPrefersSmallestCoveringSize() {
+        assertSelected(DeviceSizeTables.NEXUS_5_BACK, PreviewSizePolicy.minimizeBandwidth(), 960, 540, 0, 1024, 768);
+        assertSelected(DeviceSizeTables.MOTO_G_BACK, PreviewSizePolicy.minimizeBandwidth(), 430, 760, 90, 768, 432);
+        // 720x480 and 800x480 don't cover 1056x864 rotated
+        assertSelected(DeviceSizeTables.GALAXY_S4_BACK, PreviewSizePolicy.minimizeBandwidth(), 700, 1000, 90, 1056, 864);
+    }
+
+    @Test
+    public void minimizeBandwidthHasSameAreaAsFindBest() {
+        for (int[][] sizes : DeviceSizeTables.ALL) {
+            final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(sizes);
+            for (int rotation : ROTATIONS) {
+                for (int width = 40; width <= 2000; width += 40) {
+                    for (int height = 30; height <= 1500; height += 30) {
+                        final int best = table.findBest(width, height, rotation);
+                        if (best == -1) continue;
+                        final int selected = PreviewSizePolicy.minimizeBandwidth().select(table, width, height, rotation);
+                        assertEquals(width + "x" + height + " rotation " + rotation, getArea(table, best),
+                                getArea(table, selected));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void coveringSizeWinsIfAny() {
+        for (int[][] sizes : DeviceSizeTables.ALL) {
+            final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(sizes);
+            for (PreviewSizePolicy policy : new PreviewSizePolicy[]{POLICIES[0], POLICIES[1]}) {
+                for (int rotation : ROTATIONS) {
+                    for (int width = 50; width <= 2000; width += 50) {
+                        for (int height = 50; height <= 2000; height += 50) {
+                            if (table.findBest(width, height, rotation) == -1) continue;
+                            final int selected = policy.select(table, width, height, rotation);
+                            final boolean swap = rotation % 180 != 0;
+                            final String message = width + "x" + height + " rotation " + rotation;
+                            assertTrue(message, table.getWidth(selected) >= (swap ? height : width));
+                            assertTrue(message, table.getHeight(selected) >= (swap ? width : height));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void leastUpscaledSizeWinsIfNoneCovers() {
+        for (PreviewSizePolicy policy : POLICIES) {
+            assertSelected(DeviceSizeTables.NEXUS_5_BACK, policy, 4000, 3000, 0, 1920, 1080);
+            assertSelected(DeviceSizeTables.MOTO_G_BACK, policy, 2160, 3840, 90, 1280, 720);
+        }
+        assertSelected(DeviceSizeTables.NEXUS_5_FRONT, POLICIES[0], 4000, 3000, 0, 1280, 960);
+        assertSelected(DeviceSizeTables.NEXUS_5_FRONT, POLICIES[1], 4000, 3000, 0, 1280, 960);
+        // Mismatching video ratio costs more than upscaling
+        assertSelected(DeviceSizeTables.NEXUS_5_FRONT, POLICIES[2], 4000, 3000, 0, 1280, 720);
+    }
+
+    @Test
+    public void matchVideoProfileKeepsVideoAspectRatio() {
+        final PreviewSizePolicy video = PreviewSizePolicy.matchVideoSize(1920, 1080);
+        // minimizeWaste would choose 640x480 exactly
+        assertSelected(DeviceSizeTables.NEXUS_5_BACK, video, 640, 480, 0, 1280, 720);
+        assertSelected(DeviceSizeTables.GALAXY_S4_BACK, video, 480, 640, 90, 1280, 720);
+        // 864x480 is 1.8, over 1% off 16:9
+        assertSelected(DeviceSizeTables.MOTO_G_BACK, video, 640, 360, 0, 768, 432);
+        // Ratio of 1920x1088 counts as same
+        assertSelected(DeviceSizeTables.NEXUS_5_BACK, PreviewSizePolicy.matchVideoSize(1920, 1088), 640, 360, 0,
+                1280, 720);
+        // 4:3 video on same device
+        assertSelected(DeviceSizeTables.NEXUS_5_BACK, PreviewSizePolicy.matchVideoSize(640, 480), 1280, 720, 0,
+                1280, 960);
+    }
+
+    @Test
+    public void matchVideoProfileFallsBackToLeastWaste() {
+        // No square size on any device, every size mismatches equally
+        final PreviewSizePolicy square = PreviewSizePolicy.matchVideoSize(1000, 1000);
+        for (int[][] sizes : DeviceSizeTables.ALL) {
+            final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(sizes);
+            for (int rotation : ROTATIONS) {
+                for (int width = 100; width <= 2000; width += 100) {
+                    for (int height = 100; height <= 2000; height += 100) {
+                        assertEquals(width + "x" + height + " rotation " + rotation,
+                                POLICIES[0].select(table, width, height, rotation),
+                                square.select(table, width, height, rotation));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void emptyOrUnknownViewSize() {
+        for (PreviewSizePolicy policy : POLICIES) {
+            assertEquals(-1, policy.select(DeviceSizeTables.toSizeTable(new int[0][]), 640, 480, 0));
+            for (int[][] sizes : DeviceSizeTables.ALL) {
+                final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(sizes);
+                assertEquals(table.getLargest(), policy.select(table, 0, 480, 0));
+                assertEquals(table.getLargest(), policy.select(table, 640, 0, 90));
+            }
+        }
+    }
+
+    private static void assertSelected(int[][] sizes, PreviewSizePolicy policy, int width, int height, int rotation,
+                                       int expectedWidth, int expectedHeight) {
+        final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(sizes);
+        final int selected = policy.select(table, width, height, rotation);
+        final String message = width + "x" + height + " rotation " + rotation;
+        assertEquals(message, expectedWidth + "x" + expectedHeight,
+                table.getWidth(selected) + "x" + table.getHeight(selected));
+    }
+
+    private static int getArea(CameraCapabilities.SizeTable table, int index) {
+        return table.getWidth(index) * table.getHeight(index);
+    }
+}
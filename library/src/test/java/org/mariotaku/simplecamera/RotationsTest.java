@@ -0,0 +1,95 @@
+package org.mariotaku.simplecamera;
+
+import android.hardware.Camera;
+import android.view.Surface;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RotationsTest {
+
+    private static final int[] FACINGS = {Camera.CameraInfo.CAMERA_FACING_BACK, Camera.CameraInfo.CAMERA_FACING_FRONT};
+    private static final int[] ORIENTATIONS = {0, 90, 180, 270};
+    private static final int[] DISPLAY_ROTATIONS = {Surface.ROTATION_0, Surface.ROTATION_90, Surface.ROTATION_180,
+            Surface.ROTATION_270};
+
+    @Test
+    public void displayDegrees() {
+        assertEquals(0, Rotations.getDisplayDegrees(Surface.ROTATION_0));
+        assertEquals(90, Rotations.getDisplayDegrees(Surface.ROTATION_90));
+        assertEquals(180, Rotations.getDisplayDegrees(Surface.ROTATION_180));
+        assertEquals(270, Rotations.getDisplayDegrees(Surface.ROTATION_270));
+        assertEquals(0, Rotations.getDisplayDegrees(-1));
+        assertEquals(0, Rotations.getDisplayDegrees(4));
+    }
+
+    @Test
+    public void cameraRotationOfEveryCombination() {
+        for (int facing : FACINGS) {
+            for (int orientation : ORIENTATIONS) {
+                for (int i = 0; i < DISPLAY_ROTATIONS.length; i++) {
+                    final int degrees = i * 90;
+                    // Back camera turns against display, front camera output is mirrored as well
+                    final int expected = facing == Camera.CameraInfo.CAMERA_FACING_FRONT
+                            ? floorMod(-(orientation + degrees)) : floorMod(orientation - degrees);
+                    assertEquals(describe(facing, orientation, degrees), expected,
+                            Rotations.getCameraRotation(DISPLAY_ROTATIONS[i], facing, orientation));
+                    assertEquals(expected, CameraUtils.getCameraRotation(DISPLAY_ROTATIONS[i], facing, orientation));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pictureRotationOfEveryCombination() {
+        for (int facing : FACINGS) {
+            for (int orientation : ORIENTATIONS) {
+                for (int i = 0; i < DISPLAY_ROTATIONS.length; i++) {
+                    final int degrees = i * 90;
+                    final int expected = facing == Camera.CameraInfo.CAMERA_FACING_FRONT
+                            ? floorMod(180 - orientation - degrees) : floorMod(orientation - degrees);
+                    assertEquals(describe(facing, orientation, degrees), expected,
+                            Rotations.getPictureRotation(DISPLAY_ROTATIONS[i], facing, orientation));
+                    assertEquals(expected, CameraUtils.getPictureRotation(DISPLAY_ROTATIONS[i], facing, orientation));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void typicalPhone() {
+        // Back sensor mounted at 90, front at 270, portrait display
+        assertEquals(90, Rotations.getCameraRotation(Surface.ROTATION_0, Camera.CameraInfo.CAMERA_FACING_BACK, 90));
+        assertEquals(90, Rotations.getCameraRotation(Surface.ROTATION_0, Camera.CameraInfo.CAMERA_FACING_FRONT, 270));
+        assertEquals(90, Rotations.getPictureRotation(Surface.ROTATION_0, Camera.CameraInfo.CAMERA_FACING_BACK, 90));
+        assertEquals(270, Rotations.getPictureRotation(Surface.ROTATION_0, Camera.CameraInfo.CAMERA_FACING_FRONT, 270));
+        // Landscape, turned counterclockwise
+        assertEquals(0, Rotations.getCameraRotation(Surface.ROTATION_90, Camera.CameraInfo.CAMERA_FACING_BACK, 90));
+        assertEquals(0, Rotations.getCameraRotation(Surface.ROTATION_90, Camera.CameraInfo.CAMERA_FACING_FRONT, 270));
+        // Reverse landscape
+        assertEquals(180, Rotations.getCameraRotation(Surface.ROTATION_270, Camera.CameraInfo.CAMERA_FACING_BACK, 90));
+        assertEquals(180, Rotations.getCameraRotation(Surface.ROTATION_270, Camera.CameraInfo.CAMERA_FACING_FRONT, 270));
+    }
+
+    @Test
+    public void unknownDisplayRotationTreatedAsNatural() {
+        for (int facing : FACINGS) {
+            for (int orientation : ORIENTATIONS) {
+                assertEquals(Rotations.getCameraRotation(Surface.ROTATION_0, facing, orientation),
+                        Rotations.getCameraRotation(7, facing, orientation));
+                assertEquals(Rotations.getPictureRotation(Surface.ROTATION_0, facing, orientation),
+                        Rotations.getPictureRotation(7, facing, orientation));
+            }
+        }
+    }
+
+    private static int floorMod(int degrees) {
+        return ((degrees % 360) + 360) % 360;
+    }
+
+    private static String describe(int facing, int orientation, int degrees) {
+        return (facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? "front" : "back") + " orientation="
+                + orientation + " display=" + degrees;
+    }
+}
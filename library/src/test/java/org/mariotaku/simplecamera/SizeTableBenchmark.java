@@ -0,0 +1,47 @@
+package org.mariotaku.simplecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size lookup done on every measure pass: presorted {@link CameraCapabilities.SizeTable} against
+ * copying and sorting the size list like {@link CameraUtils#getBestSize}. Run {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SizeTableBenchmark {
+
+    private final int[][] sizes = DeviceSizeTables.GALAXY_S4_BACK;
+    private final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(sizes);
+    private int width = 1080, height = 1920;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SizeTableBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Benchmark
+    public int findBest() {
+        return table.findBest(width, height, 90);
+    }
+
+    @Benchmark
+    public int[] sortedListLookup() {
+        return SizeTableTest.getBestSize(sizes, width, height, 90);
+    }
+}
@@ -0,0 +1,117 @@
+package org.mariotaku.simplecamera;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SizeTableTest {
+
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    @Test
+    public void findBestMatchesGetBestSizeOnDeviceTables() {
+        for (int[][] sizes : DeviceSizeTables.ALL) {
+            assertEquivalent(sizes);
+        }
+    }
+
+    @Test
+    public void findBestMatchesGetBestSizeOnRandomTables() {
+        final Random random = new Random(42);
+        for (int n = 0; n < 200; n++) {
+            final int[][] sizes = new int[random.nextInt(20)][];
+            for (int i = 0; i < sizes.length; i++) {
+                // Small values so equal areas with different shapes are common
+                sizes[i] = new int[]{(1 + random.nextInt(16)) * 40, (1 + random.nextInt(16)) * 40};
+            }
+            assertEquivalent(sizes);
+        }
+    }
+
+    @Test
+    public void emptyTable() {
+        final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(new int[0][]);
+        assertEquals(-1, table.getLargest());
+        assertEquals(-1, table.findBest(640, 480, 0));
+        assertEquals(-1, table.findBestOrLargest(640, 480, 0));
+        assertEquals(-1, table.indexOf(640, 480));
+    }
+
+    @Test
+    public void indexOfAndLargest() {
+        final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(DeviceSizeTables.GALAXY_S4_BACK);
+        for (int[] size : DeviceSizeTables.GALAXY_S4_BACK) {
+            final int index = table.indexOf(size[0], size[1]);
+            assertEquals(size[0], table.getWidth(index));
+            assertEquals(size[1], table.getHeight(index));
+        }
+        assertEquals(-1, table.indexOf(1080, 1920));
+        assertEquals(1920, table.getWidth(table.getLargest()));
+        assertEquals(1080, table.getHeight(table.getLargest()));
+        // Nothing covers 4K, largest is used instead
+        assertEquals(table.getLargest(), table.findBestOrLargest(3840, 2160, 0));
+    }
+
+    @Test
+    public void serializationRoundTrip() throws IOException {
+        final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(DeviceSizeTables.MOTO_G_BACK);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        table.writeTo(new DataOutputStream(bytes));
+        final CameraCapabilities.SizeTable read = CameraCapabilities.SizeTable.readFrom(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(table, read);
+    }
+
+    private static void assertEquivalent(int[][] sizes) {
+        final CameraCapabilities.SizeTable table = DeviceSizeTables.toSizeTable(sizes);
+        for (int rotation : ROTATIONS) {
+            for (int width = 0; width <= 2000; width += 50) {
+                for (int height = 0; height <= 2000; height += 50) {
+                    final int[] expected = getBestSize(sizes, width, height, rotation);
+                    final int index = table.findBest(width, height, rotation);
+                    final String message = String.format("%dx%d rotation %d", width, height, rotation);
+                    if (expected == null) {
+                        assertEquals(message, -1, index);
+                    } else {
+                        assertArrayEquals(message, expected,
+                                new int[]{table.getWidth(index), table.getHeight(index)});
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link CameraUtils#getBestSize(List, int, int, int)} on plain arrays, Camera.Size can't be
+     * created outside a device
+     */
+    static int[] getBestSize(int[][] sizes, int width, int height, int rotation) {
+        if (sizes.length == 0) return null;
+        final boolean swap = rotation % 180 != 0;
+        final int requiredWidth = swap ? height : width, requiredHeight = swap ? width : height;
+        final List<int[]> sorted = new ArrayList<>();
+        Collections.addAll(sorted, sizes);
+        Collections.sort(sorted, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] lhs, int[] rhs) {
+                return lhs[0] * lhs[1] - rhs[0] * rhs[1];
+            }
+        });
+        for (int[] size : sorted) {
+            if (size[0] >= requiredWidth && size[1] >= requiredHeight) return size;
+        }
+        return null;
+    }
+}
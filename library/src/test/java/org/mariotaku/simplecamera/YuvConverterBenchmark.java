@@ -0,0 +1,102 @@
+package org.mariotaku.simplecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of a preview frame at common preview sizes: {@link YuvConverter} on calling thread and in 4 bands,
+ * against per-pixel floating-point conversion. Run {@link #main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class YuvConverterBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    private int width, height;
+    private byte[] nv21;
+    private int[] argb;
+    private ByteBuffer rgba;
+    private byte[] nv21Out;
+    private YuvConverter converter;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(YuvConverterBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        final int separator = size.indexOf('x');
+        width = Integer.parseInt(size.substring(0, separator));
+        height = Integer.parseInt(size.substring(separator + 1));
+        nv21 = YuvConverterTest.randomNv21(width, height, 0);
+        argb = new int[width * height];
+        rgba = ByteBuffer.allocateDirect(width * height * 4);
+        nv21Out = new byte[nv21.length];
+        converter = new YuvConverter(4);
+        YuvConverter.nv21ToArgb(nv21, width, height, argb);
+    }
+
+    @TearDown
+    public void tearDown() {
+        converter.shutdown();
+    }
+
+    @Benchmark
+    public int[] nv21ToArgb() {
+        YuvConverter.nv21ToArgb(nv21, width, height, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] nv21ToArgbParallel() {
+        converter.convertNv21ToArgb(nv21, width, height, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToRgba() {
+        YuvConverter.nv21ToRgba(nv21, width, height, rgba);
+        return rgba;
+    }
+
+    @Benchmark
+    public byte[] argbToNv21() {
+        YuvConverter.argbToNv21(argb, width, height, nv21Out);
+        return nv21Out;
+    }
+
+    @Benchmark
+    public int[] nv21ToArgbReference() {
+        final int frameSize = width * height;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                final int uvp = frameSize + (row >> 1) * width + (col & ~1);
+                argb[row * width + col] = YuvConverterTest.referenceYuvToArgb(nv21[row * width + col] & 0xff,
+                        nv21[uvp + 1] & 0xff, nv21[uvp] & 0xff);
+            }
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,191 @@
+package org.mariotaku.simplecamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class YuvConverterTest {
+
+    // Fixed-point coefficients may be off by one from floating-point BT.601
+    private static final int TOLERANCE = 1;
+
+    @Test
+    public void nv21ToArgbMatchesReferenceForEveryYuv() {
+        // Every Y value in a 256x2 frame, both rows share chroma of each column pair
+        final int width = 256, height = 2;
+        final byte[] nv21 = new byte[YuvConverter.getNv21Size(width, height)];
+        final int[] out = new int[width * height];
+        for (int y = 0; y < width; y++) {
+            nv21[y] = (byte) y;
+            nv21[width + y] = (byte) y;
+        }
+        int maxError = 0;
+        for (int u = 0; u < 256; u++) {
+            for (int v = 0; v < 256; v++) {
+                for (int i = width * height; i < nv21.length; i += 2) {
+                    nv21[i] = (byte) v;
+                    nv21[i + 1] = (byte) u;
+                }
+                YuvConverter.nv21ToArgb(nv21, width, height, out);
+                for (int y = 0; y < width; y++) {
+                    final int expected = referenceYuvToArgb(y, u, v);
+                    maxError = Math.max(maxError, channelError(expected, out[y]));
+                    assertEquals(out[y], out[width + y]);
+                }
+            }
+        }
+        assertTrue("Max error " + maxError, maxError <= TOLERANCE);
+    }
+
+    @Test
+    public void nv21ToArgbExtremes() {
+        final int[] extremes = {0, 16, 128, 235, 240, 255};
+        for (int y : extremes) {
+            for (int u : extremes) {
+                for (int v : extremes) {
+                    final int actual = convertPixel(y, u, v);
+                    assertEquals(0xff000000, actual & 0xff000000);
+                    final int expected = referenceYuvToArgb(y, u, v);
+                    assertTrue(String.format("Y=%d U=%d V=%d expected %08x got %08x", y, u, v,
+                            expected, actual), channelError(expected, actual) <= TOLERANCE);
+                }
+            }
+        }
+        // Nominal range maps exactly to black and white
+        assertEquals(0xff000000, convertPixel(16, 128, 128));
+        assertEquals(0xffffffff, convertPixel(235, 128, 128));
+        assertEquals(0xff000000, convertPixel(0, 128, 128));
+        assertEquals(0xffffffff, convertPixel(255, 128, 128));
+    }
+
+    @Test
+    public void argbToNv21MatchesReference() {
+        final int[] extremes = {0, 1, 127, 128, 254, 255};
+        final int[] argb = new int[4];
+        final byte[] nv21 = new byte[YuvConverter.getNv21Size(2, 2)];
+        for (int r : extremes) {
+            for (int g : extremes) {
+                for (int b : extremes) {
+                    final int color = 0xff000000 | (r << 16) | (g << 8) | b;
+                    for (int i = 0; i < argb.length; i++) {
+                        argb[i] = color;
+                    }
+                    YuvConverter.argbToNv21(argb, 2, 2, nv21);
+                    final String message = String.format("color %08x", color);
+                    for (int i = 0; i < 4; i++) {
+                        assertWithin(message, 16 + 0.257 * r + 0.504 * g + 0.098 * b, nv21[i]);
+                    }
+                    assertWithin(message, 128 + 0.439 * r - 0.368 * g - 0.071 * b, nv21[4]);
+                    assertWithin(message, 128 - 0.148 * r - 0.291 * g + 0.439 * b, nv21[5]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void argbToNv21AveragesChroma() {
+        final int[] argb = {0xffff0000, 0xff00ff00, 0xff0000ff, 0xffffffff};
+        final byte[] nv21 = new byte[YuvConverter.getNv21Size(2, 2)];
+        YuvConverter.argbToNv21(argb, 2, 2, nv21);
+        // Average color is (255, 255, 255) / 2 on each channel
+        final double r = 127.5, g = 127.5, b = 127.5;
+        assertWithin("V", 128 + 0.439 * r - 0.368 * g - 0.071 * b, nv21[4]);
+        assertWithin("U", 128 - 0.148 * r - 0.291 * g + 0.439 * b, nv21[5]);
+    }
+
+    @Test
+    public void rgbaMatchesArgb() {
+        final int width = 64, height = 48;
+        final byte[] nv21 = randomNv21(width, height, 1);
+        final int[] argb = new int[width * height];
+        YuvConverter.nv21ToArgb(nv21, width, height, argb);
+        final ByteBuffer rgba = ByteBuffer.allocate(width * height * 4 + 8);
+        rgba.position(8);
+        YuvConverter.nv21ToRgba(nv21, width, height, rgba);
+        assertEquals(8, rgba.position());
+        for (int i = 0; i < argb.length; i++) {
+            final int offset = 8 + i * 4;
+            final int color = ((rgba.get(offset + 3) & 0xff) << 24) | ((rgba.get(offset) & 0xff) << 16)
+                    | ((rgba.get(offset + 1) & 0xff) << 8) | (rgba.get(offset + 2) & 0xff);
+            assertEquals(argb[i], color);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        final YuvConverter converter = new YuvConverter(4);
+        try {
+            // Height not a multiple of band count, so bands have different sizes
+            final int width = 96, height = 70;
+            final byte[] nv21 = randomNv21(width, height, 2);
+            final int[] expected = new int[width * height], actual = new int[width * height];
+            YuvConverter.nv21ToArgb(nv21, width, height, expected);
+            converter.convertNv21ToArgb(nv21, width, height, actual);
+            assertArrayEquals(expected, actual);
+
+            final byte[] expectedNv21 = new byte[nv21.length], actualNv21 = new byte[nv21.length];
+            YuvConverter.argbToNv21(expected, width, height, expectedNv21);
+            converter.convertArgbToNv21(expected, width, height, actualNv21);
+            assertArrayEquals(expectedNv21, actualNv21);
+        } finally {
+            converter.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddSizeRejected() {
+        YuvConverter.nv21ToArgb(new byte[100], 3, 2, new int[100]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smallOutputRejected() {
+        YuvConverter.nv21ToArgb(new byte[6], 2, 2, new int[3]);
+    }
+
+    static byte[] randomNv21(int width, int height, long seed) {
+        final byte[] nv21 = new byte[YuvConverter.getNv21Size(width, height)];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+
+    /**
+     * Floating-point BT.601 conversion from video range YUV
+     */
+    static int referenceYuvToArgb(int y, int u, int v) {
+        final double c = 1.164 * (y - 16), d = u - 128, e = v - 128;
+        final int r = clampRound(c + 1.596 * e);
+        final int g = clampRound(c - 0.813 * e - 0.391 * d);
+        final int b = clampRound(c + 2.018 * d);
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int convertPixel(int y, int u, int v) {
+        final byte[] nv21 = {(byte) y, (byte) y, (byte) y, (byte) y, (byte) v, (byte) u};
+        final int[] out = new int[4];
+        YuvConverter.nv21ToArgb(nv21, 2, 2, out);
+        return out[0];
+    }
+
+    private static int channelError(int expected, int actual) {
+        int max = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            max = Math.max(max, Math.abs(((expected >> shift) & 0xff) - ((actual >> shift) & 0xff)));
+        }
+        return max;
+    }
+
+    private static void assertWithin(String message, double expected, byte actual) {
+        final int rounded = clampRound(expected);
+        assertTrue(message + ": expected " + rounded + " got " + (actual & 0xff),
+                Math.abs(rounded - (actual & 0xff)) <= TOLERANCE);
+    }
+
+    private static int clampRound(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
@@ -0,0 +1,115 @@
+package org.mariotaku.simplecamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class YuvScalerTest {
+
+    private static final YuvScaler.Filter[] FILTERS = YuvScaler.Filter.values();
+
+    @Test
+    public void identityScaleCopiesFrame() {
+        final int width = 16, height = 12;
+        final byte[] nv21 = YuvConverterTest.randomNv21(width, height, 3);
+        for (YuvScaler.Filter filter : FILTERS) {
+            final YuvScaler scaler = new YuvScaler(width, height, filter, 1);
+            assertArrayEquals(filter.name(), nv21, scaler.scale(nv21, width, height));
+        }
+    }
+
+    @Test
+    public void uniformFrameStaysUniform() {
+        final int width = 64, height = 48;
+        final byte[] nv21 = uniformNv21(width, height, 200, 60, 180);
+        for (YuvScaler.Filter filter : FILTERS) {
+            final YuvScaler scaler = new YuvScaler(10, 6, filter, 1);
+            assertUniform(filter.name(), scaler.scale(nv21, width, height, 6, 4, 50, 40), 10, 6, 200, 60, 180);
+        }
+    }
+
+    @Test
+    public void singleChromaSampleRegionAtFrameEdge() {
+        // 2x2 region has one chroma sample, which lies in last chroma row and column
+        final int width = 8, height = 6;
+        final byte[] nv21 = uniformNv21(width, height, 10, 20, 30);
+        nv21[(height - 2) * width + width - 2] = 100;
+        nv21[(height - 2) * width + width - 1] = 100;
+        nv21[(height - 1) * width + width - 2] = 100;
+        nv21[(height - 1) * width + width - 1] = 100;
+        // V then U
+        nv21[nv21.length - 2] = 40;
+        nv21[nv21.length - 1] = 50;
+        for (YuvScaler.Filter filter : FILTERS) {
+            final YuvScaler scaler = new YuvScaler(4, 4, filter, 1);
+            final byte[] out = scaler.scale(nv21, width, height, width - 2, height - 2, width, height);
+            assertUniform(filter.name(), out, 4, 4, 100, 50, 40);
+        }
+    }
+
+    @Test
+    public void boxAveragesCoveredPixels() {
+        final int width = 4, height = 4;
+        final byte[] nv21 = new byte[YuvConverter.getNv21Size(width, height)];
+        for (int i = 0; i < width * height; i++) {
+            nv21[i] = (byte) (i * 10);
+        }
+        final YuvScaler scaler = new YuvScaler(2, 2, YuvScaler.Filter.BOX, 1);
+        final byte[] out = scaler.scale(nv21, width, height);
+        // Mean of each 2x2 block, rounded
+        assertEquals(25, out[0] & 0xff);
+        assertEquals(45, out[1] & 0xff);
+        assertEquals(105, out[2] & 0xff);
+        assertEquals(125, out[3] & 0xff);
+    }
+
+    @Test
+    public void regionClampedAndAligned() {
+        final int width = 32, height = 24;
+        final byte[] nv21 = YuvConverterTest.randomNv21(width, height, 4);
+        for (YuvScaler.Filter filter : FILTERS) {
+            final YuvScaler scaler = new YuvScaler(8, 6, filter, 1);
+            final byte[] clamped = scaler.scale(nv21, width, height, -10, -10, width + 10, height + 10).clone();
+            assertArrayEquals(clamped, scaler.scale(nv21, width, height));
+            final byte[] odd = scaler.scale(nv21, width, height, 3, 5, 19, 17).clone();
+            assertArrayEquals(odd, scaler.scale(nv21, width, height, 2, 4, 18, 16));
+        }
+    }
+
+    @Test
+    public void pooledBufferReused() {
+        final YuvScaler scaler = new YuvScaler(4, 4, YuvScaler.Filter.BILINEAR, 1);
+        final byte[] nv21 = YuvConverterTest.randomNv21(8, 8, 5);
+        final byte[] first = scaler.scale(nv21, 8, 8);
+        scaler.release(first);
+        assertEquals(first, scaler.scale(nv21, 8, 8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRegionRejected() {
+        new YuvScaler(4, 4, YuvScaler.Filter.BOX, 1).scale(new byte[96], 8, 8, 2, 2, 3, 8);
+    }
+
+    private static byte[] uniformNv21(int width, int height, int y, int u, int v) {
+        final byte[] nv21 = new byte[YuvConverter.getNv21Size(width, height)];
+        for (int i = 0; i < width * height; i++) {
+            nv21[i] = (byte) y;
+        }
+        for (int i = width * height; i < nv21.length; i += 2) {
+            nv21[i] = (byte) v;
+            nv21[i + 1] = (byte) u;
+        }
+        return nv21;
+    }
+
+    private static void assertUniform(String message, byte[] nv21, int width, int height, int y, int u, int v) {
+        for (int i = 0; i < width * height; i++) {
+            assertEquals(message, y, nv21[i] & 0xff);
+        }
+        for (int i = width * height; i < YuvConverter.getNv21Size(width, height); i += 2) {
+            assertEquals(message, v, nv21[i] & 0xff);
+            assertEquals(message, u, nv21[i + 1] & 0xff);
+        }
+    }
+}
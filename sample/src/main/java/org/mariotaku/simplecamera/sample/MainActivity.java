@@ -13,12 +13,15 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import org.mariotaku.simplecamera.CameraView;
+import org.mariotaku.simplecamera.JpegMetadata;
+import org.mariotaku.simplecamera.PictureSizePolicy;
 
 import java.io.File;
 import java.util.Collections;
@@ -31,6 +34,8 @@ public class MainActivity extends Activity implements CameraView.CameraListener,
     private CameraView mCameraView;
     private FocusAreaView mFocusAreaView;
     private CameraView.VideoRecordTransaction mRecordVideoTransaction;
+    private ScaleGestureDetector mScaleGestureDetector;
+    private boolean mScaled;
 
     @Override
     public void onContentChanged() {
@@ -50,6 +55,15 @@ public class MainActivity extends Activity implements CameraView.CameraListener,
         findViewById(R.id.layer_paint).setOnClickListener(this);
         mCameraView.setCameraListener(this);
         mCameraView.setOnTouchListener(this);
+        mScaleGestureDetector = new ScaleGestureDetector(this, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                mScaled = true;
+                return mCameraView.getZoomController().zoomBy(detector.getScaleFactor());
+            }
+        });
+        // Pictures are only shown as small thumbnails here
+        mCameraView.setPictureSizePolicy(PictureSizePolicy.maxLongEdge(1280));
     }
 
 
@@ -109,9 +123,15 @@ public class MainActivity extends Activity implements CameraView.CameraListener,
 
     @Override
     public boolean onTouch(View view, MotionEvent event) {
+        mScaleGestureDetector.onTouchEvent(event);
         switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN: {
+                mScaled = false;
+                return true;
+            }
             case MotionEvent.ACTION_UP: {
-                if (mRecordVideoTransaction != null) return true;
+                // Don't focus at end of a pinch
+                if (mRecordVideoTransaction != null || mScaled) return true;
                 if (mCameraView.touchFocus(event, new Camera.AutoFocusCallback() {
                     @Override
                     public void onAutoFocus(boolean b, Camera camera) {
@@ -135,15 +155,21 @@ public class MainActivity extends Activity implements CameraView.CameraListener,
                     @Override
                     public void onPictureTaken(byte[] data, Camera camera) {
                         final Context context = getApplicationContext();
-                        final BitmapFactory.Options o = new BitmapFactory.Options();
-                        o.inJustDecodeBounds = true;
-                        BitmapFactory.decodeByteArray(data, 0, data.length, o);
+                        final JpegMetadata metadata = new JpegMetadata();
+                        if (!metadata.read(data)) return;
                         final int requiredWidth = 320, requiredHeight = 320;
-                        final float widthRatio = o.outWidth / (float) requiredWidth;
-                        final float heightRatio = o.outHeight / (float) requiredHeight;
-                        o.inJustDecodeBounds = false;
-                        o.inSampleSize = (int) Math.max(1, Math.floor(Math.max(widthRatio, heightRatio)));
-                        final Bitmap captured = BitmapFactory.decodeByteArray(data, 0, data.length, o);
+                        final Bitmap captured;
+                        if (metadata.hasThumbnail()) {
+                            // EXIF thumbnail is good enough for preview, no need to decode whole picture
+                            captured = BitmapFactory.decodeByteArray(data, metadata.getThumbnailOffset(),
+                                    metadata.getThumbnailLength());
+                        } else {
+                            final BitmapFactory.Options o = new BitmapFactory.Options();
+                            final float widthRatio = metadata.getWidth() / (float) requiredWidth;
+                            final float heightRatio = metadata.getHeight() / (float) requiredHeight;
+                            o.inSampleSize = (int) Math.max(1, Math.floor(Math.max(widthRatio, heightRatio)));
+                            captured = BitmapFactory.decodeByteArray(data, 0, data.length, o);
+                        }
                         if (captured == null) return;
                         final int capturedWidth = captured.getWidth(), capturedHeight = captured.getHeight();
                         final float requiredRatio = (float) requiredWidth / requiredHeight;
@@ -264,12 +290,12 @@ public class MainActivity extends Activity implements CameraView.CameraListener,
             }
             case R.id.front_camera: {
                 if (mRecordVideoTransaction != null) return;
-                mCameraView.openCamera(1);
+                mCameraView.switchCamera(1);
                 break;
             }
             case R.id.back_camera: {
                 if (mRecordVideoTransaction != null) return;
-                mCameraView.openCamera(0);
+                mCameraView.switchCamera(0);
                 break;
             }
             case R.id.layer_paint: {